@@ -0,0 +1,261 @@
+/**
+ * jinn - A property translation editor
+ *
+ * Copyright (C) 2009 Richard "Shred" Körber
+ *   http://jinn.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.shredzone.jinn;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.io.File;
+
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
+
+import net.shredzone.jinn.property.PropertyModel;
+import net.shredzone.jinn.property.SaveEngine;
+
+/**
+ * The AutoSaver regularly saves a copy of the translation to a recovery file, so no work
+ * is lost if jinn or the computer crashes.
+ * <p>
+ * The AutoSaver watches the translation model. After a change, it waits until there were
+ * no further changes for the autosave interval, so bursts of edits are saved only once.
+ * If the translation is edited continuously, it is saved at the latest after four
+ * intervals. Nothing is written if nothing has changed since the last autosave, or if
+ * the translation was saved.
+ * <p>
+ * A snapshot of the model is taken in the AWT dispatch thread. It is written in
+ * background by the {@link SaveEngine} registered as
+ * {@link JinnRegistryKeys#SERVICE_SAVE}. The recovery file is located next to the
+ * translation file (see {@link #getRecoveryFile(File)}), and is deleted when the
+ * translation was saved. A translation that was never saved is not autosaved.
+ *
+ * @author Richard "Shred" Körber
+ */
+public class AutoSaver {
+
+    /**
+     * Default autosave interval, in milliseconds.
+     */
+    public static final int DEFAULT_INTERVAL = 30 * 1000;
+
+    /**
+     * Maximum number of intervals an autosave is deferred by continuous editing.
+     */
+    private static final int MAX_DEFER = 4;
+
+    private final Registry registry;
+    private final Timer timer;
+    private final ListDataListener modelListener = new MyListDataListener();
+    private volatile int interval;
+    private volatile boolean dirty = false;
+    private volatile long firstChange;
+    private PropertyModel model;
+    private File recovery;
+
+    /**
+     * Create a new AutoSaver.
+     *
+     * @param registry
+     *            The application's Registry
+     * @param interval
+     *            Autosave interval in milliseconds, or 0 to disable autosaving
+     */
+    public AutoSaver(Registry registry, int interval) {
+        this.registry = registry;
+        this.interval = interval;
+
+        timer = new Timer(interval, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                autosave();
+            }
+        });
+        timer.setRepeats(false);
+
+        registry.addPropertyChangeListener(new MyPropertyChangeListener());
+        setModel((PropertyModel) registry.get(JinnRegistryKeys.MODEL_TRANSLATION));
+    }
+
+    /**
+     * Change the autosave interval.
+     *
+     * @param interval
+     *            Autosave interval in milliseconds, or 0 to disable autosaving
+     */
+    public void setInterval(int interval) {
+        this.interval = interval;
+        if (interval > 0) {
+            timer.setInitialDelay(interval);
+        } else {
+            timer.stop();
+        }
+    }
+
+    /**
+     * Get the current autosave interval.
+     *
+     * @return Autosave interval in milliseconds, 0 means that autosaving is disabled.
+     */
+    public int getInterval() {
+        return interval;
+    }
+
+    /**
+     * Get the recovery file of a translation file.
+     *
+     * @param file
+     *            Translation file
+     * @return Recovery file, which is located in the same directory
+     */
+    public static File getRecoveryFile(File file) {
+        return new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".recovery");
+    }
+
+    /**
+     * The translation model was changed. Restart the timer, unless the autosave was
+     * already deferred for too long.
+     */
+    private void changed() {
+        final long now = System.currentTimeMillis();
+        if (!dirty) {
+            firstChange = now;
+            dirty = true;
+        }
+
+        final int delay = interval;
+        if (delay > 0 && (!timer.isRunning() || now - firstChange < (long) delay * MAX_DEFER)) {
+            timer.restart();
+        }
+    }
+
+    /**
+     * Check if an autosave is scheduled.
+     *
+     * @return true if the timer is running
+     */
+    boolean isScheduled() {
+        return timer.isRunning();
+    }
+
+    /**
+     * Save the translation to the recovery file, if it was changed. It is invoked by the
+     * timer.
+     */
+    void autosave() {
+        if (!dirty || interval <= 0) return;
+
+        final File file = (File) registry.get(JinnRegistryKeys.FILE_TRANSLATION);
+        if (model == null || file == null || !registry.is(JinnRegistryKeys.FLAG_CHANGED)) {
+            return;
+        }
+
+        dirty = false;
+        recovery = getRecoveryFile(file);
+        final SaveEngine engine = (SaveEngine) registry.get(JinnRegistryKeys.SERVICE_SAVE);
+        engine.saveCopy(model, recovery);
+    }
+
+    /**
+     * The translation was saved. Stop autosaving, and delete the recovery file if there
+     * is one.
+     */
+    void saved() {
+        timer.stop();
+        dirty = false;
+        if (recovery != null) {
+            final SaveEngine engine = (SaveEngine) registry.get(JinnRegistryKeys.SERVICE_SAVE);
+            engine.discard(recovery);
+            recovery = null;
+        }
+    }
+
+    /**
+     * Set the translation model to be watched.
+     *
+     * @param newModel
+     *            New PropertyModel, or null
+     */
+    private void setModel(PropertyModel newModel) {
+        if (model != null) {
+            model.removeListDataListener(modelListener);
+        }
+        model = newModel;
+        if (model != null) {
+            model.addListDataListener(modelListener);
+        }
+        timer.stop();
+        dirty = false;
+    }
+
+    /* ------------------------------------------------------------------------ */
+
+    /**
+     * Watches the registry for a new translation model, and for the translation being
+     * saved. Registry changes may come from any thread, so they are handled in the AWT
+     * dispatch thread.
+     */
+    private class MyPropertyChangeListener implements PropertyChangeListener {
+        @Override
+        public void propertyChange(final PropertyChangeEvent evt) {
+            final String name = evt.getPropertyName();
+            if (name.equals(JinnRegistryKeys.MODEL_TRANSLATION)) {
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        setModel((PropertyModel) evt.getNewValue());
+                    }
+                });
+
+            } else if (name.equals(JinnRegistryKeys.FLAG_CHANGED)
+                    && Boolean.FALSE.equals(evt.getNewValue())) {
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        saved();
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Watches the translation model for changes.
+     */
+    private class MyListDataListener implements ListDataListener {
+        @Override
+        public void contentsChanged(ListDataEvent e) {
+            changed();
+        }
+
+        @Override
+        public void intervalAdded(ListDataEvent e) {
+            changed();
+        }
+
+        @Override
+        public void intervalRemoved(ListDataEvent e) {
+            changed();
+        }
+    }
+
+}
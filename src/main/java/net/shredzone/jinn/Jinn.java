@@ -31,7 +31,9 @@ import javax.swing.SwingUtilities;
 import javax.swing.WindowConstants;
 
 import net.shredzone.jinn.action.AboutAction;
+import net.shredzone.jinn.action.FamilyAction;
 import net.shredzone.jinn.action.GotoAction;
+import net.shredzone.jinn.action.LocaleAction;
 import net.shredzone.jinn.action.MergeAction;
 import net.shredzone.jinn.action.NewAction;
 import net.shredzone.jinn.action.NextAction;
@@ -43,6 +45,7 @@ import net.shredzone.jinn.action.SearchAction;
 import net.shredzone.jinn.action.SearchNextAction;
 import net.shredzone.jinn.gui.JinnPane;
 import net.shredzone.jinn.i18n.L;
+import net.shredzone.jinn.property.SaveEngine;
 
 /**
  * Jinn is a tool for easier translation of properties files.
@@ -77,6 +80,9 @@ public class Jinn {
         frame.setTitle(L.tr("generic.title") + Style.VERSION);
 
         registry.put(JinnRegistryKeys.FRAME_MAIN, frame);
+        registry.put(JinnRegistryKeys.SERVICE_SAVE, new SaveEngine());
+        registry.put(JinnRegistryKeys.SERVICE_AUTOSAVE, new AutoSaver(registry,
+                prefs.getInt("autosave.interval", AutoSaver.DEFAULT_INTERVAL)));
 
         createActions();
 
@@ -145,6 +151,8 @@ public class Jinn {
         registry.put(JinnRegistryKeys.ACTION_NEW, new NewAction(registry));
         registry.put(JinnRegistryKeys.ACTION_OPEN, new OpenAction(registry));
         registry.put(JinnRegistryKeys.ACTION_MERGE, new MergeAction(registry));
+        registry.put(JinnRegistryKeys.ACTION_FAMILY, new FamilyAction(registry));
+        registry.put(JinnRegistryKeys.ACTION_LOCALE, new LocaleAction(registry));
         registry.put(JinnRegistryKeys.ACTION_SAVE, new SaveAction(registry));
         registry.put(JinnRegistryKeys.ACTION_SAVEAS, new SaveAsAction(registry));
         registry.put(JinnRegistryKeys.ACTION_NEXT, new NextAction(registry));
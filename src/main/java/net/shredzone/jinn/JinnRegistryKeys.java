@@ -43,6 +43,12 @@ public interface JinnRegistryKeys {
     /** MergeAction: Merge a reference properties file */
     public static final String ACTION_MERGE = "action.merge";
 
+    /** FamilyAction: Open a reference and all its translations */
+    public static final String ACTION_FAMILY = "action.family";
+
+    /** LocaleAction: Translate another locale of the bundle family */
+    public static final String ACTION_LOCALE = "action.locale";
+
     /** SaveAction: Save a translation properties file */
     public static final String ACTION_SAVE = "action.save";
 
@@ -88,6 +94,14 @@ public interface JinnRegistryKeys {
     /** AboutAction: Show an about dialog */
     public static final String ACTION_ABOUT = "action.about";
 
+    /*--- Services -------------------------------------------------------- */
+
+    /** SaveEngine: Save properties files in background */
+    public static final String SERVICE_SAVE = "service.save";
+
+    /** AutoSaver: Save the translation to a recovery file */
+    public static final String SERVICE_AUTOSAVE = "service.autosave";
+
     /*--- GUI Objects ----------------------------------------------------- */
 
     /** JTextComponent containing the current translation */
@@ -115,6 +129,15 @@ public interface JinnRegistryKeys {
     /** PropertyModel containing the reference */
     public static final String MODEL_REFERENCE = "model.reference";
 
+    /**
+     * PropertyModel containing the reference that was last merged into the translation.
+     * It is saved next to the translation file, and read again when it is opened.
+     */
+    public static final String MODEL_BASE = "model.base";
+
+    /** BundleFamily the translation and the reference belong to, or null */
+    public static final String MODEL_FAMILY = "model.family";
+
     /** PropertyKeyModel or PropertyKeyRefModel for translation */
     public static final String MODEL_REFERENCE_KEY = "model.referencekey";
 
@@ -44,6 +44,8 @@ public class Registry {
      * notified. The new value may be null.
      * <p>
      * If val is equal to the current value, or if both are null, nothing will happen.
+     * <p>
+     * The listeners are notified in the calling thread.
      *
      * @param key
      *            Registry key to change
@@ -53,15 +55,19 @@ public class Registry {
     public void put(String key, Object val) {
         if (key == null) throw new IllegalArgumentException("key must not be null");
 
+        final Object old;
         synchronized (this) {
-            Object old = mData.get(key);
+            old = mData.get(key);
 
             if (old == null && val == null) return; // Both are null
             if (old != null && old.equals(val)) return; // Unchanged
 
             mData.put(key, val);
-            support.firePropertyChange(key, old, val);
         }
+
+        // Listeners are notified outside of the lock, so they are free to wait for
+        // other threads that access the registry.
+        support.firePropertyChange(key, old, val);
     }
 
     /**
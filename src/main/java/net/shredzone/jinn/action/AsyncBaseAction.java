@@ -25,6 +25,7 @@ import java.awt.event.ActionEvent;
 
 import javax.swing.Icon;
 import javax.swing.KeyStroke;
+import javax.swing.SwingUtilities;
 
 /**
  * The base class for asynchronous actions. The action itself will be executed in a
@@ -34,7 +35,8 @@ import javax.swing.KeyStroke;
  * <p>
  * The <code>perform()</code> method is always executed in an own thread, not in the AWT
  * dispatch thread. If you manipulate Swing objects, remember to use
- * <code>EventQueue.invokeLater()</code>.
+ * <code>EventQueue.invokeLater()</code>. A PropertyModel that is shown in the GUI must
+ * only be accessed through <code>PropertyModel.invoke()</code>.
  *
  * @author Richard "Shred" Körber
  */
@@ -65,28 +67,32 @@ public abstract class AsyncBaseAction extends BaseAction {
      */
     @Override
     public void actionPerformed(final ActionEvent e) {
+        // --- Lock the frame ---
+        // This is still the AWT dispatch thread
+        final Frame frame = getFrame(e);
+        final Cursor cursor = (frame != null ? frame.getCursor() : null);
+        if (frame != null) {
+            frame.setEnabled(false);
+            frame.setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+        }
+
         // --- Create background thread ---
         Thread thread = new Thread(new Runnable() {
             @Override
             public void run() {
-                Cursor cursor = null;
-
-                // --- Lock the frame ---
-                final Frame frame = getFrame(e);
-                if (frame != null) {
-                    frame.setEnabled(false);
-                    cursor = frame.getCursor();
-                    frame.setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
-                }
-
                 // --- Invoke the action ---
                 try {
                     perform(e);
                 } finally {
                     // --- In any case, unlock the frame ---
                     if (frame != null) {
-                        frame.setCursor(cursor);
-                        frame.setEnabled(true);
+                        SwingUtilities.invokeLater(new Runnable() {
+                            @Override
+                            public void run() {
+                                frame.setCursor(cursor);
+                                frame.setEnabled(true);
+                            }
+                        });
                     }
                 }
             }
@@ -0,0 +1,86 @@
+/**
+ * jinn - A property translation editor
+ *
+ * Copyright (C) 2009 Richard "Shred" Körber
+ *   http://jinn.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.shredzone.jinn.action;
+
+import java.awt.event.ActionEvent;
+import java.io.File;
+
+import javax.swing.JFileChooser;
+
+import net.shredzone.jinn.JinnRegistryKeys;
+import net.shredzone.jinn.Registry;
+import net.shredzone.jinn.gui.ExceptionDialog;
+import net.shredzone.jinn.gui.PropertiesFileFilter;
+import net.shredzone.jinn.i18n.L;
+import net.shredzone.jinn.pool.ImgPool;
+import net.shredzone.jinn.property.BundleFamily;
+
+/**
+ * Open a reference properties file together with all its translations, and select the
+ * locale to be translated.
+ *
+ * @author Richard "Shred" Körber
+ */
+public class FamilyAction extends AsyncBaseAction {
+    private static final long serialVersionUID = -4164390716370826120L;
+    protected final Registry registry;
+
+    /**
+     * Create a new FamilyAction.
+     *
+     * @param registry
+     *            The application's Registry
+     */
+    public FamilyAction(Registry registry) {
+        super(L.tr("action.family"), ImgPool.get("open.png"), L.tr("action.family.tt"), null);
+
+        this.registry = registry;
+    }
+
+    /**
+     * The action implementation itself.
+     *
+     * @param e
+     *            ActionEvent, may be null if directly invoked
+     */
+    @Override
+    public void perform(ActionEvent e) {
+        JFileChooser fc = new JFileChooser();
+        fc.setFileFilter(PropertiesFileFilter.DEFAULT);
+        fc.setCurrentDirectory((File) registry.get(JinnRegistryKeys.FILE_LASTDIR));
+        int result = fc.showOpenDialog(getFrame(e));
+        if (result == JFileChooser.APPROVE_OPTION) {
+            final File file = fc.getSelectedFile();
+
+            final BundleFamily family;
+            try {
+                family = new BundleFamily(file);
+                registry.put(JinnRegistryKeys.FILE_LASTDIR, file.getParentFile());
+            } catch (Exception ex) {
+                ExceptionDialog.show(getFrame(e), L.tr("a.family.ex.reading"), ex);
+                return;
+            }
+
+            final LocaleAction locale = (LocaleAction) registry.get(JinnRegistryKeys.ACTION_LOCALE);
+            locale.select(e, family);
+        }
+    }
+
+}
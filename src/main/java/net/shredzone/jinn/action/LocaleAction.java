@@ -0,0 +1,138 @@
+/**
+ * jinn - A property translation editor
+ *
+ * Copyright (C) 2009 Richard "Shred" Körber
+ *   http://jinn.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.shredzone.jinn.action;
+
+import java.awt.event.ActionEvent;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.util.List;
+
+import javax.swing.JOptionPane;
+
+import net.shredzone.jinn.JinnRegistryKeys;
+import net.shredzone.jinn.Registry;
+import net.shredzone.jinn.gui.ExceptionDialog;
+import net.shredzone.jinn.i18n.L;
+import net.shredzone.jinn.property.BundleFamily;
+import net.shredzone.jinn.property.PropertyModel;
+
+/**
+ * Translate another locale of the current bundle family. The reference of the family is
+ * kept, only the translation is read.
+ *
+ * @author Richard "Shred" Körber
+ */
+public class LocaleAction extends AsyncBaseAction {
+    private static final long serialVersionUID = 2316087315032385716L;
+    protected final Registry registry;
+
+    /**
+     * Create a new LocaleAction.
+     *
+     * @param registry
+     *            The application's Registry
+     */
+    public LocaleAction(Registry registry) {
+        super(L.tr("action.locale"), null, L.tr("action.locale.tt"), null);
+
+        this.registry = registry;
+
+        setEnabled(registry.get(JinnRegistryKeys.MODEL_FAMILY) != null);
+
+        registry.addPropertyChangeListener(JinnRegistryKeys.MODEL_FAMILY, new PropertyChangeListener() {
+            @Override
+            public void propertyChange(PropertyChangeEvent evt) {
+                setEnabled(evt.getNewValue() != null);
+            }
+        });
+    }
+
+    /**
+     * The action implementation itself.
+     *
+     * @param e
+     *            ActionEvent, may be null if directly invoked
+     */
+    @Override
+    public void perform(ActionEvent e) {
+        final BundleFamily family = (BundleFamily) registry.get(JinnRegistryKeys.MODEL_FAMILY);
+        if (family != null) {
+            select(e, family);
+        }
+    }
+
+    /**
+     * Ask for a locale of a bundle family, and open its translation. If the family is not
+     * the current one, its reference is used as well.
+     *
+     * @param e
+     *            ActionEvent, may be null
+     * @param family
+     *            BundleFamily to select a locale from
+     */
+    public void select(ActionEvent e, BundleFamily family) {
+        final List<String> locales = family.getLocales();
+        if (locales.isEmpty()) {
+            JOptionPane.showMessageDialog(getFrame(e), L.tr("a.locale.none"), L.tr("a.locale.title"), JOptionPane.INFORMATION_MESSAGE);
+            return;
+        }
+
+        final String locale = (String) JOptionPane.showInputDialog(getFrame(e),
+                L.tr("a.locale.msg"), L.tr("a.locale.title"), JOptionPane.QUESTION_MESSAGE,
+                null, locales.toArray(), locales.get(0));
+        if (locale == null) return;
+
+        if (registry.is(JinnRegistryKeys.FLAG_CHANGED)) {
+            int result = JOptionPane.showConfirmDialog(getFrame(e), L.tr("save.confirm"), L.tr("save.confirm.locale"), JOptionPane.YES_NO_CANCEL_OPTION);
+
+            if (result == JOptionPane.CANCEL_OPTION) {
+                return;
+            }
+
+            if (result == JOptionPane.YES_OPTION) {
+                SaveAction save = (SaveAction) registry.get(JinnRegistryKeys.ACTION_SAVE);
+                if (!save.doSave(getFrame(e))) {
+                    return; // Save failed: do not switch!
+                }
+            }
+        }
+
+        try {
+            final PropertyModel src = family.open(locale);
+            final boolean sameFamily = (registry.get(JinnRegistryKeys.MODEL_FAMILY) == family);
+
+            // If the family's reference is already shown, the translation is merged with
+            // it right away. Otherwise it is merged when the reference is set.
+            registry.put(JinnRegistryKeys.MODEL_FAMILY, family);
+            registry.put(JinnRegistryKeys.FILE_TRANSLATION, family.getFile(locale));
+            registry.put(JinnRegistryKeys.MODEL_BASE, OpenAction.readBase(family.getFile(locale)));
+            registry.put(JinnRegistryKeys.MODEL_TRANSLATION, src);
+            if (!sameFamily) {
+                registry.put(JinnRegistryKeys.FILE_REFERENCE, family.getReferenceFile());
+                registry.put(JinnRegistryKeys.MODEL_REFERENCE, family.getReference());
+            }
+            registry.put(JinnRegistryKeys.FLAG_CHANGED, true);
+
+        } catch (Exception ex) {
+            ExceptionDialog.show(getFrame(e), L.tr("a.locale.ex.reading"), ex);
+        }
+    }
+
+}
@@ -23,11 +23,7 @@ import java.awt.event.ActionEvent;
 import java.awt.event.KeyEvent;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
-import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.IOException;
-import java.io.InputStream;
 
 import javax.swing.JFileChooser;
 import javax.swing.KeyStroke;
@@ -85,27 +81,16 @@ public class MergeAction extends AsyncBaseAction {
         if (result == JFileChooser.APPROVE_OPTION) {
             final File file = fc.getSelectedFile();
 
-            InputStream in = null;
-
             try {
-                PropertyModel src = new PropertyModel();
-                in = new BufferedInputStream(new FileInputStream(file));
-                src.read(in);
+                PropertyModel src = PropertyModel.readReference(file);
                 registry.put(JinnRegistryKeys.FILE_LASTDIR, file.getParentFile());
+                registry.put(JinnRegistryKeys.MODEL_FAMILY, null);
                 registry.put(JinnRegistryKeys.FILE_REFERENCE, file);
                 registry.put(JinnRegistryKeys.MODEL_REFERENCE, src);
                 registry.put(JinnRegistryKeys.FLAG_CHANGED, true);
 
             } catch (Exception ex) {
                 ExceptionDialog.show(getFrame(e), L.tr("a.merge.ex.reading"), ex);
-            } finally {
-                if (in != null) {
-                    try {
-                        in.close();
-                    } catch (IOException ex2) {
-                        ExceptionDialog.show(getFrame(e), L.tr("a.merge.ex.closing"), ex2);
-                    }
-                }
             }
 
         }
@@ -75,9 +75,11 @@ public class NewAction extends BaseAction {
             }
         }
 
+        registry.put(JinnRegistryKeys.MODEL_FAMILY, null);
         registry.put(JinnRegistryKeys.FILE_TRANSLATION, null);
         registry.put(JinnRegistryKeys.MODEL_TRANSLATION, new PropertyModel());
         registry.put(JinnRegistryKeys.FILE_REFERENCE, null);
+        registry.put(JinnRegistryKeys.MODEL_BASE, null);
         registry.put(JinnRegistryKeys.MODEL_REFERENCE, new PropertyModel());
         registry.put(JinnRegistryKeys.FLAG_CHANGED, false);
     }
@@ -21,11 +21,8 @@ package net.shredzone.jinn.action;
 
 import java.awt.event.ActionEvent;
 import java.awt.event.KeyEvent;
-import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 
 import javax.swing.JFileChooser;
 import javax.swing.KeyStroke;
@@ -76,30 +73,45 @@ public class OpenAction extends AsyncBaseAction {
         if (result == JFileChooser.APPROVE_OPTION) {
             final File file = fc.getSelectedFile();
 
-            InputStream in = null;
-
             try {
                 PropertyModel src = new PropertyModel();
-                in = new BufferedInputStream(new FileInputStream(file));
-                src.read(in);
+                src.read(file);
                 registry.put(JinnRegistryKeys.FILE_LASTDIR, file.getParentFile());
                 registry.put(JinnRegistryKeys.FILE_TRANSLATION, file);
+                registry.put(JinnRegistryKeys.MODEL_FAMILY, null);
+                registry.put(JinnRegistryKeys.MODEL_BASE, readBase(file));
                 registry.put(JinnRegistryKeys.MODEL_TRANSLATION, src);
                 registry.put(JinnRegistryKeys.FLAG_CHANGED, false);
 
             } catch (Exception ex) {
                 ExceptionDialog.show(getFrame(e), L.tr("a.open.ex.reading"), ex);
-            } finally {
-                if (in != null) {
-                    try {
-                        in.close();
-                    } catch (IOException ex2) {
-                        ExceptionDialog.show(getFrame(e), L.tr("a.open.ex.closing"), ex2);
-                    }
-                }
             }
 
         }
     }
 
+    /**
+     * Read the base reference of a translation file, which was stored next to it when
+     * the translation was saved (see {@link SaveAction#getBaseFile(File)}).
+     *
+     * @param file
+     *            Translation file
+     * @return PropertyModel of the base reference, or null if there is none or it could
+     *         not be read. The next merge is a two-way merge then.
+     */
+    public static PropertyModel readBase(File file) {
+        final File baseFile = SaveAction.getBaseFile(file);
+        if (!baseFile.isFile()) {
+            return null;
+        }
+
+        try {
+            final PropertyModel base = new PropertyModel();
+            base.read(baseFile);
+            return base;
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
 }
@@ -25,11 +25,9 @@ import java.awt.event.ActionEvent;
 import java.awt.event.KeyEvent;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.OutputStream;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import javax.swing.KeyStroke;
 
@@ -39,6 +37,7 @@ import net.shredzone.jinn.gui.ExceptionDialog;
 import net.shredzone.jinn.i18n.L;
 import net.shredzone.jinn.pool.ImgPool;
 import net.shredzone.jinn.property.PropertyModel;
+import net.shredzone.jinn.property.SaveEngine;
 
 /**
  * Save a properties file
@@ -104,26 +103,24 @@ public class SaveAction extends AsyncBaseAction {
         if (target != null && model != null) {
             // We've got a file we can save into...
 
-            OutputStream out = null;
+            final SaveEngine engine = (SaveEngine) registry.get(JinnRegistryKeys.SERVICE_SAVE);
             try {
-                out = new BufferedOutputStream(new FileOutputStream(target));
-                model.write(out);
-                out.flush();
+                final Future<File> saved = engine.save(model, target);
+                final Future<File> savedBase = saveBase(registry, engine, target);
+                saved.get();
+                if (savedBase != null) {
+                    savedBase.get();
+                }
 
                 registry.put(JinnRegistryKeys.FLAG_CHANGED, false);
 
-            } catch (IOException ex) {
-                ExceptionDialog.show(parent, L.tr("a.save.ex.writing"), ex);
+            } catch (ExecutionException ex) {
+                final Throwable cause = ex.getCause();
+                ExceptionDialog.show(parent, L.tr("a.save.ex.writing"), (cause instanceof Exception ? (Exception) cause : ex));
+                success = false;
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
                 success = false;
-            } finally {
-                if (out != null) {
-                    try {
-                        out.close();
-                    } catch (IOException ex2) {
-                        ExceptionDialog.show(parent, L.tr("a.save.ex.reading"), ex2);
-                        success = false;
-                    }
-                }
             }
 
         } else {
@@ -134,4 +131,37 @@ public class SaveAction extends AsyncBaseAction {
         return success;
     }
 
+    /**
+     * Get the file that keeps the base reference of a translation file. The base
+     * reference is the reference that was last merged into the translation. It is
+     * stored next to the translation, e.g. <code>Messages_de.properties.base</code>.
+     *
+     * @param file
+     *            Translation file
+     * @return Base reference file. It may not exist.
+     */
+    public static File getBaseFile(File file) {
+        return new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".base");
+    }
+
+    /**
+     * Save the base reference next to the translation file, so the next merge after
+     * the translation was opened again is still a three-way merge.
+     *
+     * @param registry
+     *            The application's Registry
+     * @param engine
+     *            SaveEngine to be used
+     * @param target
+     *            Translation file
+     * @return Future of the save request, or null if there is no base reference
+     */
+    static Future<File> saveBase(Registry registry, SaveEngine engine, File target) {
+        final PropertyModel base = (PropertyModel) registry.get(JinnRegistryKeys.MODEL_BASE);
+        if (base == null) {
+            return null;
+        }
+        return engine.saveCopy(base, getBaseFile(target));
+    }
+
 }
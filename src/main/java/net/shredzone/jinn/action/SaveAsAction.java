@@ -24,11 +24,9 @@ import java.awt.event.ActionEvent;
 import java.awt.event.KeyEvent;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.OutputStream;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import javax.swing.JFileChooser;
 import javax.swing.JOptionPane;
@@ -41,6 +39,7 @@ import net.shredzone.jinn.gui.PropertiesFileFilter;
 import net.shredzone.jinn.i18n.L;
 import net.shredzone.jinn.pool.ImgPool;
 import net.shredzone.jinn.property.PropertyModel;
+import net.shredzone.jinn.property.SaveEngine;
 
 /**
  * Save a properties file to another file.
@@ -111,23 +110,21 @@ public class SaveAsAction extends AsyncBaseAction {
             if (model != null) {
                 // We've got a file we can save into...
 
-                OutputStream out = null;
+                final SaveEngine engine = (SaveEngine) registry.get(JinnRegistryKeys.SERVICE_SAVE);
                 try {
-                    out = new BufferedOutputStream(new FileOutputStream(target));
-                    model.write(out);
-                    out.flush();
+                    final Future<File> saved = engine.save(model, target);
+                    final Future<File> savedBase = SaveAction.saveBase(registry, engine, target);
+                    saved.get();
+                    if (savedBase != null) {
+                        savedBase.get();
+                    }
 
                     registry.put(JinnRegistryKeys.FLAG_CHANGED, false);
-                } catch (IOException ex) {
-                    ExceptionDialog.show(getFrame(e), L.tr("a.save.ex.writing"), ex);
-                } finally {
-                    if (out != null) {
-                        try {
-                            out.close();
-                        } catch (IOException ex2) {
-                            ExceptionDialog.show(getFrame(e), L.tr("a.save.ex.reading"), ex2);
-                        }
-                    }
+                } catch (ExecutionException ex) {
+                    final Throwable cause = ex.getCause();
+                    ExceptionDialog.show(getFrame(e), L.tr("a.save.ex.writing"), (cause instanceof Exception ? (Exception) cause : ex));
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
                 }
 
             } else {
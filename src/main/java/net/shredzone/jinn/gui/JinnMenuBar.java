@@ -61,6 +61,8 @@ public class JinnMenuBar extends JMenuBar {
             jmFile.add(getItem(JinnRegistryKeys.ACTION_SAVEAS));
             jmFile.addSeparator();
             jmFile.add(getItem(JinnRegistryKeys.ACTION_MERGE));
+            jmFile.add(getItem(JinnRegistryKeys.ACTION_FAMILY));
+            jmFile.add(getItem(JinnRegistryKeys.ACTION_LOCALE));
             jmFile.addSeparator();
             jmFile.add(getItem(JinnRegistryKeys.ACTION_QUIT));
         }
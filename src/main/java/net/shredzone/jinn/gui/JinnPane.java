@@ -22,7 +22,8 @@ package net.shredzone.jinn.gui;
 import java.awt.BorderLayout;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
-import java.util.Set;
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.swing.BorderFactory;
 import javax.swing.BoxLayout;
@@ -35,6 +36,7 @@ import javax.swing.JScrollPane;
 import javax.swing.JSplitPane;
 import javax.swing.JTextArea;
 import javax.swing.JToolBar;
+import javax.swing.SwingUtilities;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
 import javax.swing.event.ListSelectionEvent;
@@ -50,7 +52,9 @@ import net.shredzone.jinn.action.CleanAction;
 import net.shredzone.jinn.action.RevertAction;
 import net.shredzone.jinn.action.TextComponentAction;
 import net.shredzone.jinn.i18n.L;
+import net.shredzone.jinn.property.BundleFamily;
 import net.shredzone.jinn.property.Line;
+import net.shredzone.jinn.property.MergeResult;
 import net.shredzone.jinn.property.PropertyLine;
 import net.shredzone.jinn.property.PropertyModel;
 
@@ -103,13 +107,23 @@ public class JinnPane extends JPanel {
     }
 
     /**
-     * Set a new PropertyModel which is the target model for translation.
+     * Set a new PropertyModel which is the target model for translation. If it is a
+     * locale of the current bundle family, it is merged with the family's reference,
+     * which is still shown.
      *
      * @param model
      *            PropertyModel with the translation
      */
     public void setTranslationModel(PropertyModel model) {
-        final PropertyKeyModel pkm = new PropertyKeyModel(model);
+        model.confine();
+        final BundleFamily family = (BundleFamily) registry.get(JinnRegistryKeys.MODEL_FAMILY);
+        final PropertyModel refModel = (PropertyModel) registry.get(JinnRegistryKeys.MODEL_REFERENCE);
+        final PropertyKeyModel pkm;
+        if (family != null && refModel == family.getReference()) {
+            pkm = merge(model, refModel);
+        } else {
+            pkm = new PropertyKeyModel(model);
+        }
         setModel(pkm);
         if (pkm.getSize() > 0) {
             selectKey(pkm.getElementAt(0));
@@ -119,23 +133,42 @@ public class JinnPane extends JPanel {
     }
 
     /**
-     * Set a new PropertyModel which is the reference model.
+     * Set a new PropertyModel which is the reference model. If another reference model
+     * was merged into the translation before, it is used as base of a three-way merge.
      *
      * @param model
      *            PropertyModel with the reference text
      */
     public void setReferenceModel(PropertyModel model) {
+        model.confine();
         PropertyModel editModel = (PropertyModel) registry.get(JinnRegistryKeys.MODEL_TRANSLATION);
         if (editModel != null) {
             jlKeys.setModel(new DefaultListModel<String>()); // Remove old model
-            final Set<String> newLines = editModel.merge(model);
-            final PropertyKeyRefModel pkrm = new PropertyKeyRefModel(editModel, model);
-            pkrm.setAddedKeys(newLines);
-            setModel(pkrm);
+            setModel(merge(editModel, model));
         }
         pvReference.setModel(model);
     }
 
+    /**
+     * Merge a reference model into the translation model. The reference model is
+     * remembered as base of the next merge.
+     *
+     * @param editModel
+     *            PropertyModel with the translation
+     * @param refModel
+     *            PropertyModel with the reference text
+     * @return PropertyKeyRefModel of the merged translation
+     */
+    private PropertyKeyRefModel merge(PropertyModel editModel, PropertyModel refModel) {
+        final PropertyModel base = (PropertyModel) registry.get(JinnRegistryKeys.MODEL_BASE);
+        final MergeResult result = editModel.merge(base, refModel);
+        final PropertyKeyRefModel pkrm = new PropertyKeyRefModel(editModel, refModel);
+        pkrm.setAddedKeys(result.getAddedKeys());
+        pkrm.setOutdatedKeys(result.getChangedKeys());
+        registry.put(JinnRegistryKeys.MODEL_BASE, refModel);
+        return pkrm;
+    }
+
     /**
      * Set the PropertyKeyModel to be used.
      *
@@ -185,7 +218,9 @@ public class JinnPane extends JPanel {
                 if (selRefLine != null) {
                     jtaReference.setText(selRefLine.getValue());
                     jtaReference.setCaretPosition(0);
-                    pvReference.setSelectedValue(selRefLine, true);
+                    final int selRefIndex = refModel.getLineIndex(key);
+                    pvReference.setSelectedIndex(selRefIndex);
+                    pvReference.ensureIndexIsVisible(selRefIndex);
                 }
             }
 
@@ -317,7 +352,10 @@ public class JinnPane extends JPanel {
 
     /**
      * This private inner class waits for property changes in the registry, and invokes
-     * appropriate methods for updating the representation.
+     * appropriate methods for updating the representation. Registry changes may come
+     * from any thread, so they are handled in the AWT dispatch thread. The changing
+     * thread waits until the representation was updated. If it is interrupted while
+     * waiting, the change is still applied, but it does not wait for it any more.
      */
     private class MyPropertyChangeListener implements PropertyChangeListener {
 
@@ -340,7 +378,36 @@ public class JinnPane extends JPanel {
          *            PropertyChangeEvent giving further details
          */
         @Override
-        public void propertyChange(PropertyChangeEvent evt) {
+        public void propertyChange(final PropertyChangeEvent evt) {
+            if (!SwingUtilities.isEventDispatchThread()) {
+                // The change is applied exactly once, even if it is also queued by
+                // invokeLater() after an interrupt
+                final AtomicBoolean applied = new AtomicBoolean();
+                final Runnable change = new Runnable() {
+                    @Override
+                    public void run() {
+                        if (applied.compareAndSet(false, true)) {
+                            propertyChange(evt);
+                        }
+                    }
+                };
+
+                try {
+                    SwingUtilities.invokeAndWait(change);
+                } catch (InvocationTargetException ex) {
+                    final Throwable cause = ex.getCause();
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    throw new IllegalStateException(cause);
+                } catch (InterruptedException ex) {
+                    // Do not lose the change, but do not wait for it either
+                    SwingUtilities.invokeLater(change);
+                    Thread.currentThread().interrupt();
+                }
+                return;
+            }
+
             final String prop = evt.getPropertyName();
 
             if (JinnRegistryKeys.MODEL_TRANSLATION.equals(prop)) {
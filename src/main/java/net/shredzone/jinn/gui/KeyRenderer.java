@@ -40,6 +40,7 @@ public class KeyRenderer extends DefaultListCellRenderer {
 
     private static final ImageIcon iconEmpty = ImgPool.get("m-empty.png");
     private static final ImageIcon iconNew = ImgPool.get("m-added.png");
+    private static final ImageIcon iconOutdated = ImgPool.get("m-missing.png");
     private static final ImageIcon iconTranslated = ImgPool.get("m-translated.png");
 
     public KeyRenderer() {
@@ -74,7 +75,11 @@ public class KeyRenderer extends DefaultListCellRenderer {
             final PropertyKeyRefModel ref = (PropertyKeyRefModel) model;
             final String key = value.toString();
 
-            if (ref.isChanged(key)) {
+            if (ref.isOutdated(key)) {
+                comp.setIcon(iconOutdated);
+                final Color bg = getBackground();
+                setBackground(new Color(bg.getRed(), bg.getGreen(), (bg.getBlue() * 90) / 100));
+            } else if (ref.isChanged(key)) {
                 comp.setIcon(iconTranslated);
                 final Color bg = getBackground();
                 setBackground(new Color((bg.getRed() * 95) / 100, bg.getGreen(), (bg.getBlue() * 95) / 100));
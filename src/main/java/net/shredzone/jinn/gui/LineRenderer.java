@@ -22,6 +22,7 @@ package net.shredzone.jinn.gui;
 import java.awt.Color;
 import java.awt.Component;
 import java.awt.Dimension;
+import java.awt.Font;
 import java.awt.FontMetrics;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
@@ -30,6 +31,8 @@ import java.lang.ref.WeakReference;
 import javax.swing.JComponent;
 import javax.swing.JList;
 import javax.swing.ListCellRenderer;
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
 
 import net.shredzone.jinn.property.CommentLine;
 import net.shredzone.jinn.property.EmptyLine;
@@ -56,6 +59,9 @@ public class LineRenderer extends JComponent implements ListCellRenderer<Line> {
     private static final Color BG_PROPERTY = new Color(0xF8, 0xF8, 0xF8);
 
     private int keyWidth; // width of the key column
+    private transient PropertyModel keyModel; // model the key width was computed for
+    private transient Font keyFont; // font the key width was computed for, null if outdated
+    private final transient ListDataListener keyListener = new KeyWidthListener();
     private int currentIndex; // current index (line number)
     private WeakReference<Line> currentLine; // current line
     private int lineWidth; // current width of line
@@ -87,12 +93,21 @@ public class LineRenderer extends JComponent implements ListCellRenderer<Line> {
         final FontMetrics fm = getFontMetrics(list.getFont());
 
         // --- Compute the width of the key column ---
-        // The current solution will iterate through the set of key Strings
-        // and compute the key width, every time the getListCellRendererComponent
-        // method is invoked. This is a poor solution. The result should be
-        // cached somewhere for later use. Very surprisingly, this solution is
-        // really fast, so it will surely do for a while.
-        keyWidth = maxKeyWidth((PropertyModel) list.getModel(), fm);
+        // Iterating through the set of key Strings may be expensive, e.g. for a
+        // MappedPropertyModel, where every key is parsed again. The width is
+        // cached until the model or the font is changed.
+        final PropertyModel model = (PropertyModel) list.getModel();
+        if (model != keyModel || !list.getFont().equals(keyFont)) {
+            if (model != keyModel) {
+                if (keyModel != null) {
+                    keyModel.removeListDataListener(keyListener);
+                }
+                model.addListDataListener(keyListener);
+                keyModel = model;
+            }
+            keyFont = list.getFont();
+            keyWidth = maxKeyWidth(model, fm);
+        }
 
         // --- Compute the width of the largest line numbers ---
         /*
@@ -320,4 +335,24 @@ public class LineRenderer extends JComponent implements ListCellRenderer<Line> {
         g2d.dispose();
     }
 
+    /**
+     * Invalidates the cached key width when the model was changed.
+     */
+    private class KeyWidthListener implements ListDataListener {
+        @Override
+        public void intervalAdded(ListDataEvent e) {
+            keyFont = null;
+        }
+
+        @Override
+        public void intervalRemoved(ListDataEvent e) {
+            keyFont = null;
+        }
+
+        @Override
+        public void contentsChanged(ListDataEvent e) {
+            keyFont = null;
+        }
+    }
+
 }
@@ -21,9 +21,11 @@ package net.shredzone.jinn.gui;
 
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.swing.ListModel;
@@ -42,6 +44,7 @@ import net.shredzone.jinn.property.PropertyModel;
 public class PropertyKeyModel implements ListModel<String> {
     protected final PropertyModel model;
     protected final List<String> lKeys = new ArrayList<String>();
+    protected final Map<String, Integer> mKeyIndex = new HashMap<String, Integer>();
     private final ListDataListener listener = new MyListDataListener();
     private final Set<WeakReference<ListDataListener>> sListener = new HashSet<WeakReference<ListDataListener>>();
 
@@ -88,7 +91,7 @@ public class PropertyKeyModel implements ListModel<String> {
      * @return true: key is known, false: key is unknown.
      */
     public boolean hasKey(String key) {
-        return lKeys.contains(key);
+        return mKeyIndex.containsKey(key);
     }
 
     /**
@@ -99,7 +102,8 @@ public class PropertyKeyModel implements ListModel<String> {
      * @return Index of this key, or -1 if the key was not found
      */
     public int findKey(String key) {
-        return lKeys.indexOf(key);
+        final Integer index = mKeyIndex.get(key);
+        return (index != null ? index : -1);
     }
 
     /**
@@ -154,11 +158,16 @@ public class PropertyKeyModel implements ListModel<String> {
 
         // --- Clear current key list ---
         lKeys.clear();
+        mKeyIndex.clear();
 
         // --- Fetch all PropertyLines ---
         for (Line line : model.getLines()) {
             if (line instanceof PropertyLine) {
-                lKeys.add(((PropertyLine) line).getKey());
+                final String key = ((PropertyLine) line).getKey();
+                if (!mKeyIndex.containsKey(key)) {
+                    mKeyIndex.put(key, lKeys.size());
+                }
+                lKeys.add(key);
             }
         }
 
@@ -174,6 +183,20 @@ public class PropertyKeyModel implements ListModel<String> {
         }
     }
 
+    /**
+     * Find the position of the key of a Line.
+     *
+     * @param line
+     *            Line to be found
+     * @return Index of the Line's key, or -1 if it is not a PropertyLine
+     */
+    private int findKey(Line line) {
+        if (line instanceof PropertyLine) {
+            return findKey(((PropertyLine) line).getKey());
+        }
+        return -1;
+    }
+
     private class MyListDataListener implements ListDataListener {
         @Override
         public void intervalAdded(ListDataEvent e) {
@@ -207,8 +230,8 @@ public class PropertyKeyModel implements ListModel<String> {
                 lastIx--;
             }
 
-            int start = lKeys.indexOf(model.getElementAt(firstIx));
-            int end = lKeys.indexOf(model.getElementAt(lastIx));
+            int start = findKey(model.getElementAt(firstIx));
+            int end = findKey(model.getElementAt(lastIx));
             if (start < 0) start = 0;
             if (end < 0) end = lKeys.size() - 1;
 
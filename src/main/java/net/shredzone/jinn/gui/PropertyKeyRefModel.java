@@ -34,6 +34,7 @@ import net.shredzone.jinn.property.PropertyModel;
 public class PropertyKeyRefModel extends PropertyKeyModel {
     protected final PropertyModel reference;
     private Set<String> sNewKeys = null;
+    private Set<String> sOutdatedKeys = null;
 
     /**
      * Create a new PropertyKeyModel for a given PropertyModel and a reference
@@ -61,7 +62,19 @@ public class PropertyKeyRefModel extends PropertyKeyModel {
     }
 
     /**
-     * Find the next untranslated key. The search is started from the given key
+     * Set a Set of keys whose translation is outdated, because the source text was
+     * changed. Actually you pass the changed keys of the <code>MergeResult</code> of a
+     * three-way merge.
+     *
+     * @param keys
+     *            Set of outdated keys
+     */
+    public void setOutdatedKeys(Set<String> keys) {
+        this.sOutdatedKeys = keys;
+    }
+
+    /**
+     * Find the next untranslated or outdated key. The search is started from the given key
      * (exclusive). If key is set to null, the search will start at the top. If no next
      * untranslated key was found, null will be returned.
      *
@@ -73,14 +86,14 @@ public class PropertyKeyRefModel extends PropertyKeyModel {
         // Compute the starting index
         int ix = 0;
         if (key != null) {
-            ix = lKeys.indexOf(key) + 1;
+            ix = findKey(key) + 1;
         }
 
         // Find the next untranslated key
         final int cnt = lKeys.size();
         while (ix < cnt) {
             final String check = lKeys.get(ix);
-            if (isNew(check) || !isChanged(check)) {
+            if (isNew(check) || isOutdated(check) || !isChanged(check)) {
                 return check;
             }
 
@@ -140,6 +153,22 @@ public class PropertyKeyRefModel extends PropertyKeyModel {
         return (sNewKeys.contains(key));
     }
 
+    /**
+     * Check if a key's translation is outdated.
+     * <p>
+     * This check is true if a set of outdated keys was passed in (using
+     * <code>setOutdatedKeys()</code>), and the set contains the key. This means that the
+     * key's source text was changed since the translation was made.
+     *
+     * @param key
+     *            Key to check
+     * @return true: the key's translation is outdated
+     */
+    public boolean isOutdated(String key) {
+        if (sOutdatedKeys == null) return false;
+        return (sOutdatedKeys.contains(key));
+    }
+
     /**
      * Check if a key is surplus regarding the reference model.
      * <p>
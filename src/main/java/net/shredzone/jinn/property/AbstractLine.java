@@ -21,14 +21,32 @@ package net.shredzone.jinn.property;
 
 import java.beans.PropertyChangeListener;
 import java.beans.PropertyChangeSupport;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 /**
  * This is an abstract implementation of the Line interface.
+ * <p>
+ * Subclasses must invoke {@link #firePropertyChange(String, String, String)} whenever
+ * their content is changed. The source span and the cached encoding of the line are
+ * only valid as long as the line is unchanged.
+ * <p>
+ * A line is usually only watched by the PropertyModel containing it. To keep lines
+ * small, the model is notified directly, and the PropertyChangeSupport is only created
+ * when other PropertyChangeListeners are added. The line also knows its node in the
+ * model's list, so the model finds the line's index without a lookup table.
  *
  * @author Richard "Shred" Körber
  */
 public abstract class AbstractLine implements Line {
-    private PropertyChangeSupport support = new PropertyChangeSupport(this);
+    private static final AtomicReferenceFieldUpdater<AbstractLine, SourceSpan> SPAN
+            = AtomicReferenceFieldUpdater.newUpdater(AbstractLine.class, SourceSpan.class, "span");
+
+    private volatile PropertyChangeSupport support;
+    private PropertyModel owner;
+    LineList.Node node; // managed by the LineList containing this line
+    private volatile SourceSpan span;
+    private volatile int modCount;
+    private volatile Encoding encoding;
 
     /**
      * Clone a Line. The clone returned is independent from the original. The default
@@ -40,7 +58,10 @@ public abstract class AbstractLine implements Line {
     public Object clone() {
         try {
             final AbstractLine cl = (AbstractLine) super.clone();
-            cl.support = new PropertyChangeSupport(cl);
+            cl.support = null;
+            cl.owner = null;
+            cl.node = null;
+            cl.span = null;
             return cl;
         } catch (CloneNotSupportedException ex) {
             throw new InternalError(ex.toString());
@@ -55,7 +76,10 @@ public abstract class AbstractLine implements Line {
      *            PropertyChangeListener to add
      */
     @Override
-    public void addPropertyChangeListener(PropertyChangeListener l) {
+    public synchronized void addPropertyChangeListener(PropertyChangeListener l) {
+        if (support == null) {
+            support = new PropertyChangeSupport(this);
+        }
         support.addPropertyChangeListener(l);
     }
 
@@ -66,8 +90,10 @@ public abstract class AbstractLine implements Line {
      *            PropertyChangeListener to remove
      */
     @Override
-    public void removePropertyChangeListener(PropertyChangeListener l) {
-        support.removePropertyChangeListener(l);
+    public synchronized void removePropertyChangeListener(PropertyChangeListener l) {
+        if (support != null) {
+            support.removePropertyChangeListener(l);
+        }
     }
 
     /**
@@ -82,7 +108,151 @@ public abstract class AbstractLine implements Line {
      */
     protected void firePropertyChange(String key, String old, String val) {
         if (old == null || val == null || !old.equals(val)) {
-            support.firePropertyChange(key, old, val);
+            span = null; // the line does not match its source any more
+            modCount++;  // cached encodings are outdated
+            if (owner != null) {
+                owner.lineChanged(this);
+            }
+            final PropertyChangeSupport pcs = support;
+            if (pcs != null) {
+                pcs.firePropertyChange(key, old, val);
+            }
+        }
+    }
+
+    /**
+     * Attach this line to the PropertyModel containing it. The model is then notified
+     * about changes directly. A line can only be attached to a single model.
+     *
+     * @param model
+     *            PropertyModel containing this line
+     * @return true if the line was attached, false if it is already attached to another
+     *         model
+     */
+    boolean attach(PropertyModel model) {
+        if (owner != null && owner != model) {
+            return false;
+        }
+        owner = model;
+        return true;
+    }
+
+    /**
+     * Detach this line from the PropertyModel that contained it.
+     *
+     * @param model
+     *            PropertyModel that contained this line
+     * @return true if the line was detached, false if it was not attached to that model
+     */
+    boolean detach(PropertyModel model) {
+        if (owner != model) {
+            return false;
+        }
+        owner = null;
+        return true;
+    }
+
+    /**
+     * Get the number of changes of this line. It is used to detect whether the line was
+     * changed while it was being encoded.
+     *
+     * @return Modification counter
+     */
+    int getModCount() {
+        return modCount;
+    }
+
+    /**
+     * Get the cached encoding of this line.
+     *
+     * @param format
+     *            Settings of the PropertiesWriter
+     * @return Encoded line, or null if the line was not encoded with these settings, or
+     *         was changed since.
+     */
+    byte[] getEncoded(PropertiesWriter.Format format) {
+        final Encoding enc = encoding;
+        if (enc != null && enc.modCount == modCount && enc.format.equals(format)) {
+            return enc.bytes;
+        }
+        return null;
+    }
+
+    /**
+     * Cache the encoding of this line.
+     *
+     * @param format
+     *            Settings of the PropertiesWriter
+     * @param modCount
+     *            Modification counter of the line before it was encoded
+     * @param bytes
+     *            Encoded line
+     */
+    void setEncoded(PropertiesWriter.Format format, int modCount, byte[] bytes) {
+        encoding = new Encoding(format, modCount, bytes);
+    }
+
+    /**
+     * Take over the cached encoding of a clone of this line. It is only used if this line
+     * was not changed since it was cloned.
+     *
+     * @param copy
+     *            Clone of this line
+     */
+    void adoptEncoding(AbstractLine copy) {
+        final Encoding enc = copy.encoding;
+        if (enc != null) {
+            encoding = enc;
+        }
+    }
+
+    /**
+     * Get the span of this line in the file it was read from or was last written to. The
+     * span is reset as soon as the content of the line is changed, so a line with a span
+     * is always identical to that span of the file.
+     *
+     * @return SourceSpan, or null if the line has no source or was changed
+     */
+    SourceSpan getSourceSpan() {
+        return span;
+    }
+
+    /**
+     * Set the span of this line in the file it was read from.
+     *
+     * @param span
+     *            SourceSpan, or null if the line has no source
+     */
+    void setSourceSpan(SourceSpan span) {
+        this.span = span;
+    }
+
+    /**
+     * Replace the span of this line, but only if it has not been changed in the meantime.
+     * If the content of the line was changed concurrently, the span remains reset.
+     *
+     * @param expect
+     *            SourceSpan that is expected to be set
+     * @param update
+     *            New SourceSpan
+     * @return true if the span was replaced
+     */
+    boolean updateSourceSpan(SourceSpan expect, SourceSpan update) {
+        return SPAN.compareAndSet(this, expect, update);
+    }
+
+    /**
+     * An encoded line, and the settings and state of the line it was encoded with.
+     */
+    private static final class Encoding {
+        private final PropertiesWriter.Format format;
+        private final int modCount;
+        private final byte[] bytes;
+
+        public Encoding(PropertiesWriter.Format format, int modCount, byte[] bytes) {
+            this.format = format;
+            this.modCount = modCount;
+            this.bytes = bytes;
         }
     }
 
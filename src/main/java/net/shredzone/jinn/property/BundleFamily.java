@@ -0,0 +1,313 @@
+/**
+ * jinn - A property translation editor
+ *
+ * Copyright (C) 2009 Richard "Shred" Körber
+ *   http://jinn.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.shredzone.jinn.property;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * A BundleFamily is a workspace containing a reference .properties file and all its
+ * translations, e.g. <code>Messages.properties</code> and
+ * <code>Messages_de.properties</code>, <code>Messages_fr_CA.properties</code> etc.
+ * <p>
+ * The reference is read by {@link PropertyModel#readReference(File)} when the family
+ * is created, and is kept for the entire family, so opening another locale does not read
+ * or index the reference again. The translations are only read when they are needed.
+ * <p>
+ * The translations are not kept as PropertyModels. Instead, all resource keys of the
+ * family are stored once in a shared dictionary, which gives each key an id. The values
+ * of each locale are kept in a column, which is indexed by that id. Looking up the
+ * values of a key in all locales only takes a single hash probe. The dictionary is
+ * seeded with the keys of the reference model, and a column is read when a value of its
+ * locale is requested for the first time.
+ * <p>
+ * A BundleFamily is thread-safe. The columns contain the values of the files at the time
+ * they were read. Use {@link #open(String)} to get a PropertyModel for editing a locale.
+ *
+ * @author Richard "Shred" Körber
+ */
+public class BundleFamily {
+    private static final String SUFFIX = ".properties";
+    private static final Pattern LOCALE = Pattern.compile("[a-z]{2,3}(_[A-Za-z0-9]+)*");
+
+    private final File reference;
+    private final String baseName;
+    private final PropertyModel referenceModel;
+    private final KeyDictionary dictionary = new KeyDictionary();
+    private final List<String> lLocales = new ArrayList<String>();
+    private final String[][] columns;
+
+    /**
+     * Read a bundle family. All translations in the same directory as the reference file
+     * are found, but they are only read when they are needed.
+     *
+     * @param reference
+     *            Reference .properties file, e.g. <code>Messages.properties</code>
+     * @throws IOException
+     *             if a file could not be read.
+     */
+    public BundleFamily(File reference) throws IOException {
+        final String name = reference.getName();
+        if (!name.endsWith(SUFFIX)) {
+            throw new IllegalArgumentException("Not a properties file: " + reference);
+        }
+
+        this.reference = reference;
+        this.baseName = name.substring(0, name.length() - SUFFIX.length());
+
+        // --- Read the reference ---
+        referenceModel = PropertyModel.readReference(reference);
+
+        // --- Find the translations ---
+        final File[] files = reference.getAbsoluteFile().getParentFile().listFiles();
+        if (files != null) {
+            final String prefix = baseName + '_';
+            for (File file : files) {
+                final String fname = file.getName();
+                if (file.isFile() && fname.startsWith(prefix) && fname.endsWith(SUFFIX)) {
+                    final String locale = fname.substring(prefix.length(), fname.length() - SUFFIX.length());
+                    if (LOCALE.matcher(locale).matches()) {
+                        lLocales.add(locale);
+                    }
+                }
+            }
+        }
+        Collections.sort(lLocales);
+
+        // --- The value columns are read when they are needed ---
+        columns = new String[lLocales.size()][];
+    }
+
+    /**
+     * Get the reference .properties file.
+     *
+     * @return Reference file
+     */
+    public File getReferenceFile() {
+        return reference;
+    }
+
+    /**
+     * Get the reference model. It is read-only, and shared by all locales of the family.
+     *
+     * @return Reference PropertyModel
+     */
+    public PropertyModel getReference() {
+        return referenceModel;
+    }
+
+    /**
+     * Get the locales of all translations that were found, in alphabetical order.
+     *
+     * @return Unmodifiable List of locales, e.g. "de" or "fr_CA"
+     */
+    public List<String> getLocales() {
+        return Collections.unmodifiableList(lLocales);
+    }
+
+    /**
+     * Get the .properties file of a locale.
+     *
+     * @param locale
+     *            Locale, e.g. "de"
+     * @return Translation file. It may not exist yet.
+     */
+    public File getFile(String locale) {
+        return new File(reference.getAbsoluteFile().getParentFile(), baseName + '_' + locale + SUFFIX);
+    }
+
+    /**
+     * Read the translation of a locale into a new PropertyModel, for editing.
+     *
+     * @param locale
+     *            Locale, e.g. "de"
+     * @return PropertyModel containing the translation
+     * @throws IOException
+     *             if it could not read.
+     */
+    public PropertyModel open(String locale) throws IOException {
+        final PropertyModel model = new PropertyModel();
+        model.read(getFile(locale));
+        return model;
+    }
+
+    /**
+     * Get the number of distinct resource keys of the entire family. All translations
+     * are read for counting their keys.
+     *
+     * @return Number of keys
+     * @throws IOException
+     *             if a translation could not be read.
+     */
+    public synchronized int getKeyCount() throws IOException {
+        for (int ix = 0; ix < columns.length; ix++) {
+            column(ix);
+        }
+        return dictionary.size();
+    }
+
+    /**
+     * Get the value of a key in a locale. The translation is read when one of its values
+     * is requested for the first time.
+     *
+     * @param locale
+     *            Locale, e.g. "de"
+     * @param key
+     *            Resource key
+     * @return Value, or null if the locale does not contain the key
+     * @throws IOException
+     *             if the translation could not be read.
+     */
+    public synchronized String getValue(String locale, String key) throws IOException {
+        final int ix = Collections.binarySearch(lLocales, locale);
+        if (ix < 0) return null;
+        final String[] column = column(ix);
+        return value(column, dictionary.getId(key));
+    }
+
+    /**
+     * Get the values of a key in all locales. All translations are read when a value is
+     * requested for the first time.
+     *
+     * @param key
+     *            Resource key
+     * @return Array of values, in the order of {@link #getLocales()}. A value is null if
+     *         the locale does not contain the key.
+     * @throws IOException
+     *             if a translation could not be read.
+     */
+    public synchronized String[] getValues(String key) throws IOException {
+        for (int ix = 0; ix < columns.length; ix++) {
+            column(ix);
+        }
+        final int id = dictionary.getId(key);
+        final String[] result = new String[columns.length];
+        for (int ix = 0; ix < columns.length; ix++) {
+            result[ix] = value(columns[ix], id);
+        }
+        return result;
+    }
+
+    /**
+     * Get the value column of a locale. It is read from the translation file if it was
+     * not read yet. Before the first column is read, the dictionary is seeded with the
+     * keys of the reference model, in their order, so the reference is not parsed again.
+     *
+     * @param ix
+     *            Index of the locale
+     * @return Value column
+     * @throws IOException
+     *             if the translation could not be read.
+     */
+    private String[] column(int ix) throws IOException {
+        if (columns[ix] == null) {
+            if (dictionary.size() == 0) {
+                // The reference may be confined, so its snapshot is used
+                for (Line line : referenceModel.snapshot()) {
+                    if (line instanceof PropertyLine) {
+                        dictionary.add(((PropertyLine) line).getKey());
+                    }
+                }
+            }
+
+            final ColumnHandler handler = new ColumnHandler(new String[dictionary.size()]);
+            parse(getFile(lLocales.get(ix)), handler);
+            columns[ix] = handler.column;
+        }
+        return columns[ix];
+    }
+
+    /**
+     * Get a value from a column.
+     *
+     * @param column
+     *            Column of a locale
+     * @param id
+     *            Key id, or -1
+     * @return Value, or null if there is none
+     */
+    private static String value(String[] column, int id) {
+        return (id >= 0 && id < column.length ? column[id] : null);
+    }
+
+    /**
+     * Parse an ISO-8859-1 encoded .properties file.
+     *
+     * @param file
+     *            File to parse
+     * @param handler
+     *            PropertiesHandler receiving the content
+     * @throws IOException
+     *             if it could not read.
+     */
+    private static void parse(File file, PropertiesHandler handler) throws IOException {
+        final FileInputStream in = new FileInputStream(file);
+        try {
+            new PropertiesReader(in).parse(handler);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Adds the keys of a file to the dictionary, and collects their values in a column.
+     * The key Strings are only created for keys that are not known yet.
+     */
+    private class ColumnHandler implements PropertiesHandler {
+        private String[] column;
+
+        /**
+         * Create a new ColumnHandler.
+         *
+         * @param column
+         *            Initial column
+         */
+        public ColumnHandler(String[] column) {
+            this.column = column;
+        }
+
+        @Override
+        public void onProperty(CharSequence key, CharSequence value) {
+            final int id = dictionary.add(key);
+            if (id >= column.length) {
+                final String[] newColumn = new String[Math.max(id + 1, column.length * 2)];
+                System.arraycopy(column, 0, newColumn, 0, column.length);
+                column = newColumn;
+            }
+            column[id] = value.toString();
+        }
+
+        @Override
+        public void onComment(CharSequence comment) {
+            // Comments are not kept
+        }
+
+        @Override
+        public void onEmpty() {
+            // Empty lines are not kept
+        }
+    }
+
+}
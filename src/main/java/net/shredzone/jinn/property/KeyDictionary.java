@@ -0,0 +1,178 @@
+/**
+ * jinn - A property translation editor
+ *
+ * Copyright (C) 2009 Richard "Shred" Körber
+ *   http://jinn.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.shredzone.jinn.property;
+
+/**
+ * A dictionary of resource keys. Each key is stored once, and is given an id. The ids
+ * are assigned in ascending order, starting from 0.
+ * <p>
+ * Keys are looked up by any CharSequence, so the buffers of a {@link PropertiesHandler}
+ * can be looked up without converting them to a String first. The dictionary uses open
+ * addressing with linear probing, like {@link KeyMap}.
+ *
+ * @author Richard "Shred" Körber
+ */
+final class KeyDictionary {
+    private static final int MIN_CAPACITY = 16;
+
+    private int[] hashes = new int[MIN_CAPACITY];
+    private int[] slots = new int[MIN_CAPACITY]; // id + 1, 0 if the slot is empty
+    private String[] keys = new String[MIN_CAPACITY];
+    private int size;
+
+    /**
+     * Get the number of keys.
+     *
+     * @return Number of keys
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get the key of an id.
+     *
+     * @param id
+     *            Key id
+     * @return Key
+     */
+    public String getKey(int id) {
+        if (id < 0 || id >= size) {
+            throw new IndexOutOfBoundsException("Id: " + id + ", Size: " + size);
+        }
+        return keys[id];
+    }
+
+    /**
+     * Get the id of a key.
+     *
+     * @param key
+     *            Key to find
+     * @return Key id, or -1 if the key is not known
+     */
+    public int getId(CharSequence key) {
+        final int hash = hash(key);
+        final int mask = slots.length - 1;
+        int slot = KeyMap.slot(hash, mask);
+        while (slots[slot] != 0) {
+            if (hashes[slot] == hash && equals(keys[slots[slot] - 1], key)) {
+                return slots[slot] - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Add a key, if it is not known yet.
+     *
+     * @param key
+     *            Key to add
+     * @return Key id
+     */
+    public int add(CharSequence key) {
+        final int hash = hash(key);
+        final int mask = slots.length - 1;
+        int slot = KeyMap.slot(hash, mask);
+        while (slots[slot] != 0) {
+            if (hashes[slot] == hash && equals(keys[slots[slot] - 1], key)) {
+                return slots[slot] - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        if (size == keys.length) {
+            final String[] newKeys = new String[keys.length * 2];
+            System.arraycopy(keys, 0, newKeys, 0, size);
+            keys = newKeys;
+        }
+
+        final int id = size++;
+        keys[id] = key.toString();
+        hashes[slot] = hash;
+        slots[slot] = id + 1;
+        if (size * 4 > slots.length * 3) {
+            resize(slots.length * 2);
+        }
+        return id;
+    }
+
+    /**
+     * Change the capacity of the hash table, and insert all keys again.
+     *
+     * @param capacity
+     *            New capacity, must be a power of 2
+     */
+    private void resize(int capacity) {
+        final int[] oldHashes = hashes;
+        final int[] oldSlots = slots;
+        hashes = new int[capacity];
+        slots = new int[capacity];
+
+        final int mask = capacity - 1;
+        for (int ix = 0; ix < oldSlots.length; ix++) {
+            if (oldSlots[ix] != 0) {
+                int slot = KeyMap.slot(oldHashes[ix], mask);
+                while (slots[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                hashes[slot] = oldHashes[ix];
+                slots[slot] = oldSlots[ix];
+            }
+        }
+    }
+
+    /**
+     * Compute the hash code of a CharSequence. It is identical to the hash code of a
+     * String with the same content.
+     *
+     * @param key
+     *            CharSequence
+     * @return Hash code
+     */
+    private static int hash(CharSequence key) {
+        if (key instanceof String) {
+            return key.hashCode();
+        }
+        int h = 0;
+        final int len = key.length();
+        for (int ix = 0; ix < len; ix++) {
+            h = 31 * h + key.charAt(ix);
+        }
+        return h;
+    }
+
+    /**
+     * Check if a String has the same content as a CharSequence.
+     *
+     * @param str
+     *            String
+     * @param key
+     *            CharSequence
+     * @return true if both are equal
+     */
+    private static boolean equals(String str, CharSequence key) {
+        if (key instanceof String) {
+            return str.equals(key);
+        }
+        return str.contentEquals(key);
+    }
+
+}
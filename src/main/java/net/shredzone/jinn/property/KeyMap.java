@@ -0,0 +1,296 @@
+/**
+ * jinn - A property translation editor
+ *
+ * Copyright (C) 2009 Richard "Shred" Körber
+ *   http://jinn.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.shredzone.jinn.property;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A compact Map of PropertyLines by their keys.
+ * <p>
+ * The map uses open addressing with linear probing. It only consists of two arrays, one
+ * with the hash codes of the keys and one with the PropertyLines. The keys themselves
+ * are not stored, but are taken from the PropertyLines. Unlike a HashMap, no entry object
+ * is created for each mapping. Entries are only created as views on demand, while
+ * iterating over the {@link #entrySet()}.
+ * <p>
+ * A PropertyLine must always be stored under its own key.
+ *
+ * @author Richard "Shred" Körber
+ */
+final class KeyMap extends AbstractMap<String, PropertyLine> {
+    private static final int MIN_CAPACITY = 16;
+
+    private int[] hashes = new int[MIN_CAPACITY];
+    private PropertyLine[] lines = new PropertyLine[MIN_CAPACITY];
+    private int size;
+    private int modCount;
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public PropertyLine get(Object key) {
+        final int slot = find(key);
+        return (slot >= 0 ? lines[slot] : null);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return find(key) >= 0;
+    }
+
+    @Override
+    public PropertyLine put(String key, PropertyLine line) {
+        assert key.equals(line.getKey()) : "Line must be stored under its own key";
+
+        final int hash = key.hashCode();
+        final int mask = lines.length - 1;
+        int slot = slot(hash, mask);
+        while (lines[slot] != null) {
+            if (hashes[slot] == hash && lines[slot].getKey().equals(key)) {
+                final PropertyLine old = lines[slot];
+                lines[slot] = line;
+                return old;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        hashes[slot] = hash;
+        lines[slot] = line;
+        size++;
+        modCount++;
+        if (size * 4 > lines.length * 3) {
+            resize(lines.length * 2);
+        }
+        return null;
+    }
+
+    @Override
+    public PropertyLine remove(Object key) {
+        final int slot = find(key);
+        if (slot < 0) return null;
+
+        final PropertyLine old = lines[slot];
+        delete(slot, null);
+        return old;
+    }
+
+    @Override
+    public void clear() {
+        if (size == 0) return;
+        hashes = new int[MIN_CAPACITY];
+        lines = new PropertyLine[MIN_CAPACITY];
+        size = 0;
+        modCount++;
+    }
+
+    @Override
+    public Set<Entry<String, PropertyLine>> entrySet() {
+        return new AbstractSet<Entry<String, PropertyLine>>() {
+            @Override
+            public int size() {
+                return size;
+            }
+
+            @Override
+            public Iterator<Entry<String, PropertyLine>> iterator() {
+                return new EntryIterator();
+            }
+        };
+    }
+
+    /**
+     * Find the slot of a key.
+     *
+     * @param key
+     *            Key to find
+     * @return Slot of the key, or -1 if it is not mapped
+     */
+    private int find(Object key) {
+        if (!(key instanceof String)) return -1;
+
+        final int hash = key.hashCode();
+        final int mask = lines.length - 1;
+        int slot = slot(hash, mask);
+        while (lines[slot] != null) {
+            if (hashes[slot] == hash && lines[slot].getKey().equals(key)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Delete the line at a slot. Following lines of the same cluster are moved into the
+     * hole if they belong there, so no tombstones are needed.
+     *
+     * @param hole
+     *            Slot of the line to be deleted
+     * @param wrapped
+     *            Receives the lines that were moved from the start of the table to its
+     *            end, or null
+     */
+    private void delete(int hole, List<PropertyLine> wrapped) {
+        lines[hole] = null;
+        size--;
+        modCount++;
+
+        // Move following lines of the same cluster into the hole, if they belong there
+        final int mask = lines.length - 1;
+        int slot = hole;
+        while (true) {
+            slot = (slot + 1) & mask;
+            if (lines[slot] == null) break;
+
+            final int home = slot(hashes[slot], mask);
+            if (((slot - home) & mask) >= ((slot - hole) & mask)) {
+                if (wrapped != null && slot < hole) {
+                    wrapped.add(lines[slot]);
+                }
+                hashes[hole] = hashes[slot];
+                lines[hole] = lines[slot];
+                lines[slot] = null;
+                hole = slot;
+            }
+        }
+    }
+
+    /**
+     * Change the capacity of the map, and insert all mappings again.
+     *
+     * @param capacity
+     *            New capacity, must be a power of 2
+     */
+    private void resize(int capacity) {
+        final int[] oldHashes = hashes;
+        final PropertyLine[] oldLines = lines;
+        hashes = new int[capacity];
+        lines = new PropertyLine[capacity];
+
+        final int mask = capacity - 1;
+        for (int ix = 0; ix < oldLines.length; ix++) {
+            if (oldLines[ix] != null) {
+                int slot = slot(oldHashes[ix], mask);
+                while (lines[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                hashes[slot] = oldHashes[ix];
+                lines[slot] = oldLines[ix];
+            }
+        }
+    }
+
+    /**
+     * Compute the home slot of a hash code. The bits are spread first, since the hash
+     * codes of similar keys often only differ in their lower bits.
+     *
+     * @param hash
+     *            Hash code
+     * @param mask
+     *            Capacity minus one
+     * @return Home slot
+     */
+    static int slot(int hash, int mask) {
+        final int h = hash * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    /**
+     * Iterates over all mappings, from the last slot to the first one.
+     * <p>
+     * When a line is removed, following lines of its cluster are moved into the hole.
+     * The iterator has already passed the hole, so a line that is moved there from the
+     * start of the table (where the cluster wraps around) would be skipped. Such lines
+     * are collected, and returned after the table was iterated.
+     */
+    private class EntryIterator implements Iterator<Entry<String, PropertyLine>> {
+        private int expectedModCount = modCount;
+        private int slot = lines.length;
+        private int remaining = size;
+        private int last = -1;
+        private PropertyLine lastLine;
+        private List<PropertyLine> wrapped;
+
+        @Override
+        public boolean hasNext() {
+            return remaining > 0;
+        }
+
+        @Override
+        public Entry<String, PropertyLine> next() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (remaining == 0) {
+                throw new NoSuchElementException();
+            }
+            remaining--;
+
+            while (true) {
+                if (--slot < 0) {
+                    // The table was iterated, continue with the wrapped lines
+                    last = -1;
+                    lastLine = wrapped.get(-slot - 1);
+                    break;
+                }
+                if (lines[slot] != null) {
+                    last = slot;
+                    lastLine = lines[slot];
+                    break;
+                }
+            }
+            return new SimpleImmutableEntry<String, PropertyLine>(lastLine.getKey(), lastLine);
+        }
+
+        @Override
+        public void remove() {
+            if (lastLine == null) {
+                throw new IllegalStateException();
+            }
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+
+            if (last >= 0) {
+                if (wrapped == null) {
+                    wrapped = new ArrayList<PropertyLine>(2);
+                }
+                delete(last, wrapped);
+            } else {
+                // All unvisited lines are in the wrapped list now, so moving lines
+                // around in the table does not matter any more
+                KeyMap.this.remove(lastLine.getKey());
+            }
+            lastLine = null;
+            expectedModCount = modCount;
+        }
+    }
+
+}
@@ -0,0 +1,633 @@
+/**
+ * jinn - A property translation editor
+ *
+ * Copyright (C) 2009 Richard "Shred" Körber
+ *   http://jinn.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.shredzone.jinn.property;
+
+import java.util.AbstractList;
+import java.util.ArrayDeque;
+import java.util.ConcurrentModificationException;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * A List of Lines that is stored in a balanced tree (an AVL tree, ordered by position).
+ * Positional access, insertion and removal take O(log n) time, independent of the
+ * position. Iteration takes O(1) time per element.
+ * <p>
+ * Lines are compared by identity. Each Line knows its tree node, so
+ * {@link #indexOf(Object)}, {@link #contains(Object)} and {@link #remove(Object)} also
+ * take O(log n) time. A Line must not be contained in the list more than once.
+ * <p>
+ * An {@link AbstractLine} keeps a reference to its node, so no map of the lines is
+ * required. Other Line implementations, and AbstractLines that are already contained in
+ * another LineList, are mapped to their nodes by an IdentityHashMap.
+ * <p>
+ * The iterator does not support removal.
+ * <p>
+ * {@link #snapshot()} returns an immutable view of the current content in O(1) time.
+ * The tree is persistent: nodes that are part of a snapshot are never changed again.
+ * Instead, a modification copies the nodes on its path to the root, so the snapshot and
+ * the list share all other nodes. Parent pointers are not part of a snapshot, they
+ * only belong to the current content.
+ *
+ * @author Richard "Shred" Körber
+ */
+final class LineList extends AbstractList<Line> {
+    private Map<Line, Node> mNodes;
+    private Node root;
+    private int epoch;
+
+    @Override
+    public int size() {
+        return size(root);
+    }
+
+    @Override
+    public Line get(int index) {
+        return node(index).line;
+    }
+
+    @Override
+    public Line set(int index, Line line) {
+        final Node node = thaw(node(index));
+        final Line old = node.line;
+        unmap(old, node);
+        node.line = line;
+        map(line, node);
+        return old;
+    }
+
+    @Override
+    public boolean add(Line line) {
+        add(size(), line);
+        return true;
+    }
+
+    @Override
+    public void add(int index, Line line) {
+        final int size = size();
+        if (index < 0 || index > size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+
+        final Node node;
+        if (root == null) {
+            node = root = new Node(line, null, epoch);
+
+        } else if (index == size) {
+            // Append after the last node
+            Node parent = root;
+            while (parent.right != null) {
+                parent = parent.right;
+            }
+            parent = thaw(parent);
+            node = parent.right = new Node(line, parent, epoch);
+
+        } else {
+            // Insert before the node that is currently at that position
+            Node parent = node(index);
+            if (parent.left == null) {
+                parent = thaw(parent);
+                node = parent.left = new Node(line, parent, epoch);
+            } else {
+                parent = parent.left;
+                while (parent.right != null) {
+                    parent = parent.right;
+                }
+                parent = thaw(parent);
+                node = parent.right = new Node(line, parent, epoch);
+            }
+        }
+
+        map(line, node);
+        rebalanceFrom(node.parent);
+        modCount++;
+    }
+
+    @Override
+    public Line remove(int index) {
+        final Node node = thaw(node(index));
+        final Line removed = node.line;
+        unmap(removed, node);
+
+        Node delete = node;
+        if (node.left != null && node.right != null) {
+            // Move the successor's line here, then delete the successor's node instead
+            Node successor = node.right;
+            while (successor.left != null) {
+                successor = successor.left;
+            }
+            successor = thaw(successor);
+            node.line = successor.line;
+            remap(node.line, successor, node);
+            delete = successor;
+        }
+
+        final Node child = (delete.left != null ? delete.left : delete.right);
+        final Node parent = delete.parent;
+        if (child != null) {
+            child.parent = parent;
+        }
+        replaceChild(parent, delete, child);
+        rebalanceFrom(parent);
+        modCount++;
+        return removed;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        final int index = indexOf(o);
+        if (index < 0) return false;
+        remove(index);
+        return true;
+    }
+
+    @Override
+    public int indexOf(Object o) {
+        if (o instanceof AbstractLine) {
+            final Node node = ((AbstractLine) o).node;
+            if (node != null) {
+                final int rank = rank(node);
+                if (rank >= 0) return rank;
+            }
+        }
+
+        final Node node = (mNodes != null ? mNodes.get(o) : null);
+        return (node != null ? rank(node) : -1);
+    }
+
+    @Override
+    public int lastIndexOf(Object o) {
+        return indexOf(o);
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return indexOf(o) >= 0;
+    }
+
+    @Override
+    public void clear() {
+        if (root != null) {
+            // Release the back references of the lines
+            final Deque<Node> stack = new ArrayDeque<Node>();
+            stack.push(root);
+            while (!stack.isEmpty()) {
+                final Node node = stack.pop();
+                unmap(node.line, node);
+                if (node.left != null) {
+                    stack.push(node.left);
+                }
+                if (node.right != null) {
+                    stack.push(node.right);
+                }
+            }
+        }
+        root = null;
+        mNodes = null;
+        modCount++;
+    }
+
+    @Override
+    public Iterator<Line> iterator() {
+        return new LineIterator();
+    }
+
+    /**
+     * Get an immutable view of the current content. It takes O(1) time. Later
+     * modifications of this list do not change the view.
+     * <p>
+     * The view can safely be read by other threads, without locking. Note that it
+     * contains the same Line objects as this list, so changes to the content of a Line
+     * are still visible in the view.
+     *
+     * @return Immutable List of the current lines
+     */
+    public List<Line> snapshot() {
+        epoch++;
+        return new FrozenList(root);
+    }
+
+    /**
+     * Find the node at the given position.
+     *
+     * @param index
+     *            Position
+     * @return Node at that position
+     */
+    private Node node(int index) {
+        return node(root, index);
+    }
+
+    /**
+     * Find the node at the given position of a tree.
+     *
+     * @param root
+     *            Root node of the tree
+     * @param index
+     *            Position
+     * @return Node at that position
+     */
+    private static Node node(Node root, int index) {
+        if (index < 0 || index >= size(root)) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size(root));
+        }
+
+        Node node = root;
+        while (true) {
+            final int leftSize = size(node.left);
+            if (index < leftSize) {
+                node = node.left;
+            } else if (index == leftSize) {
+                return node;
+            } else {
+                index -= leftSize + 1;
+                node = node.right;
+            }
+        }
+    }
+
+    /**
+     * Compute the position of a node.
+     *
+     * @param node
+     *            Node
+     * @return Position of that node, or -1 if the node is not part of this list
+     */
+    private int rank(Node node) {
+        int rank = size(node.left);
+        while (node.parent != null) {
+            if (node == node.parent.right) {
+                rank += size(node.parent.left) + 1;
+            }
+            node = node.parent;
+        }
+        return (node == root ? rank : -1);
+    }
+
+    /**
+     * Map a Line to its node. An AbstractLine refers to the node itself, unless it is
+     * already contained in another list.
+     *
+     * @param line
+     *            Line
+     * @param node
+     *            Node of the Line
+     */
+    private void map(Line line, Node node) {
+        if (line instanceof AbstractLine) {
+            final AbstractLine al = (AbstractLine) line;
+            if (al.node == null) {
+                al.node = node;
+                return;
+            }
+        }
+
+        if (mNodes == null) {
+            mNodes = new IdentityHashMap<Line, Node>();
+        }
+        mNodes.put(line, node);
+    }
+
+    /**
+     * Map a Line to another node, if it is currently mapped to the given node.
+     *
+     * @param line
+     *            Line
+     * @param from
+     *            Current node of the Line
+     * @param to
+     *            New node of the Line
+     */
+    private void remap(Line line, Node from, Node to) {
+        if (line instanceof AbstractLine && ((AbstractLine) line).node == from) {
+            ((AbstractLine) line).node = to;
+        } else if (mNodes != null && mNodes.get(line) == from) {
+            mNodes.put(line, to);
+        }
+    }
+
+    /**
+     * Remove the mapping of a Line, if it is mapped to the given node.
+     *
+     * @param line
+     *            Line
+     * @param node
+     *            Node of the Line
+     */
+    private void unmap(Line line, Node node) {
+        if (line instanceof AbstractLine && ((AbstractLine) line).node == node) {
+            ((AbstractLine) line).node = null;
+        } else if (mNodes != null && mNodes.get(line) == node) {
+            mNodes.remove(line);
+        }
+    }
+
+    /**
+     * Make sure that a node can be modified. If the node is part of a snapshot, it is
+     * replaced by a copy. Its ancestors are made modifiable as well, so the copy can be
+     * linked into the tree.
+     *
+     * @param node
+     *            Node of the current content
+     * @return Node that can be modified, and has taken the node's place
+     */
+    private Node thaw(Node node) {
+        if (node.epoch == epoch) return node;
+
+        final Node parent = (node.parent != null ? thaw(node.parent) : null);
+        final Node copy = new Node(node.line, parent, epoch);
+        copy.left = node.left;
+        copy.right = node.right;
+        copy.size = node.size;
+        copy.height = node.height;
+        if (copy.left != null) {
+            copy.left.parent = copy;
+        }
+        if (copy.right != null) {
+            copy.right.parent = copy;
+        }
+        replaceChild(parent, node, copy);
+        remap(copy.line, node, copy);
+        return copy;
+    }
+
+    /**
+     * Restore the balance of all nodes from the given node up to the root.
+     *
+     * @param node
+     *            Node to start with, may be null
+     */
+    private void rebalanceFrom(Node node) {
+        while (node != null) {
+            node = rebalance(node).parent;
+        }
+    }
+
+    /**
+     * Update a node and restore its balance by rotation, if necessary.
+     *
+     * @param node
+     *            Node to be balanced
+     * @return Node that took the node's place
+     */
+    private Node rebalance(Node node) {
+        node.update();
+        final int balance = height(node.left) - height(node.right);
+        if (balance > 1) {
+            if (height(node.left.left) < height(node.left.right)) {
+                rotateLeft(node.left);
+            }
+            return rotateRight(node);
+        } else if (balance < -1) {
+            if (height(node.right.right) < height(node.right.left)) {
+                rotateRight(node.right);
+            }
+            return rotateLeft(node);
+        }
+        return node;
+    }
+
+    /**
+     * Rotate a node to the left, so its right child takes its place.
+     *
+     * @param node
+     *            Node to be rotated
+     * @return Node that took the node's place
+     */
+    private Node rotateLeft(Node node) {
+        node = thaw(node);
+        final Node pivot = thaw(node.right);
+        node.right = pivot.left;
+        if (pivot.left != null) {
+            pivot.left.parent = node;
+        }
+        pivot.parent = node.parent;
+        replaceChild(node.parent, node, pivot);
+        pivot.left = node;
+        node.parent = pivot;
+        node.update();
+        pivot.update();
+        return pivot;
+    }
+
+    /**
+     * Rotate a node to the right, so its left child takes its place.
+     *
+     * @param node
+     *            Node to be rotated
+     * @return Node that took the node's place
+     */
+    private Node rotateRight(Node node) {
+        node = thaw(node);
+        final Node pivot = thaw(node.left);
+        node.left = pivot.right;
+        if (pivot.right != null) {
+            pivot.right.parent = node;
+        }
+        pivot.parent = node.parent;
+        replaceChild(node.parent, node, pivot);
+        pivot.right = node;
+        node.parent = pivot;
+        node.update();
+        pivot.update();
+        return pivot;
+    }
+
+    /**
+     * Replace a child of a node.
+     *
+     * @param parent
+     *            Parent node, or null if the child is the root
+     * @param child
+     *            Child to be replaced
+     * @param replacement
+     *            Replacement, may be null
+     */
+    private void replaceChild(Node parent, Node child, Node replacement) {
+        if (parent == null) {
+            root = replacement;
+        } else if (parent.left == child) {
+            parent.left = replacement;
+        } else {
+            parent.right = replacement;
+        }
+    }
+
+    private static int size(Node node) {
+        return (node != null ? node.size : 0);
+    }
+
+    private static int height(Node node) {
+        return (node != null ? node.height : 0);
+    }
+
+    /* ------------------------------------------------------------------------ */
+
+    /**
+     * A node of the tree. It knows the size and height of its subtree, and the epoch it
+     * was created in. If the epoch is older than the list's epoch, the node is part of a
+     * snapshot and must not be modified, except for its parent pointer.
+     */
+    static final class Node {
+        private final int epoch;
+        private Line line;
+        private Node parent;
+        private Node left;
+        private Node right;
+        private int size = 1;
+        private int height = 1;
+
+        public Node(Line line, Node parent, int epoch) {
+            this.line = line;
+            this.parent = parent;
+            this.epoch = epoch;
+        }
+
+        /**
+         * Update size and height after the children have changed.
+         */
+        public void update() {
+            size = size(left) + size(right) + 1;
+            height = Math.max(height(left), height(right)) + 1;
+        }
+    }
+
+    /**
+     * Iterates over the Lines by walking the tree in order.
+     */
+    private class LineIterator implements Iterator<Line> {
+        private final int expectedModCount = modCount;
+        private Node next;
+
+        public LineIterator() {
+            next = root;
+            if (next != null) {
+                while (next.left != null) {
+                    next = next.left;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Line next() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+
+            final Node current = next;
+            if (next.right != null) {
+                next = next.right;
+                while (next.left != null) {
+                    next = next.left;
+                }
+            } else {
+                while (next.parent != null && next == next.parent.right) {
+                    next = next.parent;
+                }
+                next = next.parent;
+            }
+            return current.line;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * An immutable view of the tree at the time of a snapshot. It never uses parent
+     * pointers, since they are changed by later modifications.
+     */
+    private static final class FrozenList extends AbstractList<Line> {
+        private final Node root;
+
+        public FrozenList(Node root) {
+            this.root = root;
+        }
+
+        @Override
+        public int size() {
+            return LineList.size(root);
+        }
+
+        @Override
+        public Line get(int index) {
+            return node(root, index).line;
+        }
+
+        @Override
+        public Iterator<Line> iterator() {
+            return new FrozenIterator(root);
+        }
+    }
+
+    /**
+     * Iterates over a snapshot by walking the tree in order, using a stack of the nodes
+     * still to be visited.
+     */
+    private static final class FrozenIterator implements Iterator<Line> {
+        private final Deque<Node> stack = new ArrayDeque<Node>();
+
+        public FrozenIterator(Node root) {
+            pushLeft(root);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !stack.isEmpty();
+        }
+
+        @Override
+        public Line next() {
+            if (stack.isEmpty()) {
+                throw new NoSuchElementException();
+            }
+            final Node current = stack.pop();
+            pushLeft(current.right);
+            return current.line;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        private void pushLeft(Node node) {
+            while (node != null) {
+                stack.push(node);
+                node = node.left;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,739 @@
+/**
+ * jinn - A property translation editor
+ *
+ * Copyright (C) 2009 Richard "Shred" Körber
+ *   http://jinn.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.shredzone.jinn.property;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.Set;
+
+/**
+ * A read-only PropertyModel that keeps its content off the Java heap. It is meant for
+ * reference models, which are never edited.
+ * <p>
+ * The .properties file is memory mapped, and the lines are kept there in their escaped
+ * form. An index of the line positions and a hash index of the resource keys are kept in
+ * direct buffers. No Line object is held on the heap. Lines are parsed from the mapped
+ * file when they are requested, and only a few recently used lines are cached. This
+ * means that two requests for the same line may return different, but equal Line
+ * objects. Use {@link #getLineIndex(String)} to find the line of a key.
+ * <p>
+ * The returned Line objects must not be modified, as the changes would not be stored.
+ * All methods that would change this model throw an UnsupportedOperationException.
+ * Since the content is immutable, this model can also be read by other threads than the
+ * AWT event dispatch thread, even if it is confined.
+ * <p>
+ * Only ISO-8859-1 encoded files can be read. Not the file itself is mapped, but a
+ * private copy of it in the temporary directory. If the file is changed or truncated
+ * while it is used by this model, e.g. by a version control checkout, the mapped memory
+ * stays readable, and the model keeps the content at the time it was read.
+ *
+ * @author Richard "Shred" Körber
+ */
+public class MappedPropertyModel extends PropertyModel {
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+    private static final int SEGMENT_SIZE = 1 << 30;
+    private static final int CACHE_SIZE = 256;
+    private static final String READ_ONLY = "MappedPropertyModel is read-only";
+
+    private final int segmentSize;
+    private volatile Store store = new Builder().build();
+    private final CachedLine[] cache = new CachedLine[CACHE_SIZE];
+
+    /**
+     * Create a new, empty MappedPropertyModel.
+     */
+    public MappedPropertyModel() {
+        this(SEGMENT_SIZE);
+    }
+
+    /**
+     * Create a new, empty MappedPropertyModel that maps its files in segments of the
+     * given size. It is used by the unit tests, so small files are mapped in several
+     * segments.
+     *
+     * @param segmentSize
+     *            Maximum size of a mapped segment. Lines must be shorter.
+     */
+    MappedPropertyModel(int segmentSize) {
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Read an ISO-8859-1 encoded .properties file. The current content is replaced.
+     *
+     * @param file
+     *            .properties file to read
+     * @throws IOException
+     *             if it could not read.
+     */
+    @Override
+    public void read(File file) throws IOException {
+        read(file, ISO_8859_1);
+    }
+
+    /**
+     * Read a .properties file. The current content is replaced.
+     *
+     * @param file
+     *            .properties file to read
+     * @param charset
+     *            Charset of the file, must be ISO-8859-1
+     * @throws IOException
+     *             if it could not read.
+     * @throws IllegalArgumentException
+     *             if the Charset is not ISO-8859-1
+     */
+    @Override
+    public void read(File file, Charset charset) throws IOException {
+        if (!ISO_8859_1.equals(charset)) {
+            throw new IllegalArgumentException("Only ISO-8859-1 encoded files can be mapped");
+        }
+
+        final Builder builder = new Builder();
+        final File copy = copy(file);
+        try {
+            final FileInputStream in = new FileInputStream(copy);
+            try {
+                final FileChannel fc = in.getChannel();
+                final long size = fc.size();
+                long pos = 0;
+                while (pos < size) {
+                    // Lines may not cross segment borders, so every segment starts with
+                    // the last line of the previous segment, which was possibly incomplete.
+                    final boolean last = (size - pos <= segmentSize);
+                    final ByteBuffer segment = fc.map(FileChannel.MapMode.READ_ONLY, pos,
+                            last ? size - pos : segmentSize);
+                    final int consumed = builder.scan(segment, last);
+                    if (consumed == 0) {
+                        throw new IOException("Line at offset " + pos + " exceeds " + segmentSize + " bytes");
+                    }
+                    pos += consumed;
+                }
+            } finally {
+                in.close();
+            }
+        } finally {
+            // The mapped segments stay valid when the copy is deleted. Some platforms
+            // refuse to delete a mapped file, then it is deleted on exit.
+            if (!copy.delete()) {
+                copy.deleteOnExit();
+            }
+        }
+
+        final int oldSize = store.size;
+        store = builder.build();
+
+        if (oldSize > 0) {
+            fireDataRemoved(0, oldSize - 1);
+        }
+        if (store.size > 0) {
+            fireDataAdded(0, store.size - 1);
+        }
+    }
+
+    @Override
+    public void clear() {
+        throw new UnsupportedOperationException(READ_ONLY);
+    }
+
+    @Override
+    protected void addLine(Line line) {
+        throw new UnsupportedOperationException(READ_ONLY);
+    }
+
+    @Override
+    protected void insertLine(int index, Line line) {
+        throw new UnsupportedOperationException(READ_ONLY);
+    }
+
+    @Override
+    protected void removeLine(Line line) {
+        throw new UnsupportedOperationException(READ_ONLY);
+    }
+
+    /**
+     * Get a List of all lines contained in this model. The lines are parsed when they
+     * are fetched from the list.
+     *
+     * @return Unmodifiable List containing all Line objects of this model
+     */
+    @Override
+    public List<Line> getLines() {
+        return new LineView(store);
+    }
+
+    /**
+     * Get an immutable snapshot of all lines contained in this model. Since this model is
+     * immutable, it is identical to {@link #getLines()}.
+     *
+     * @return Immutable List containing all Line objects of this model
+     */
+    @Override
+    public List<Line> snapshot() {
+        return getLines();
+    }
+
+    /**
+     * Get a Map of all PropertyLines contained in this model. The PropertyLines are
+     * parsed when they are fetched from the Map. Looking up keys is cheaper, though.
+     *
+     * @return Unmodifiable Map containing all PropertyLine objects.
+     */
+    @Override
+    public Map<String, PropertyLine> getResourceMap() {
+        return new ResourceView(store);
+    }
+
+    @Override
+    public PropertyLine getPropertyLine(String key) {
+        final Store s = store;
+        final int index = s.find(key);
+        return (index >= 0 ? (PropertyLine) getLine(s, index) : null);
+    }
+
+    @Override
+    public int getLineIndex(String key) {
+        return store.find(key);
+    }
+
+    @Override
+    public int getSize() {
+        return store.size;
+    }
+
+    @Override
+    public Line getElementAt(int index) {
+        return getLine(store, index);
+    }
+
+    /**
+     * Get a Line of a Store. Recently used lines are taken from the cache, so the
+     * ListModel does not need to parse the visible lines on every repaint.
+     *
+     * @param s
+     *            Store to read from
+     * @param index
+     *            Line index
+     * @return Line
+     */
+    private Line getLine(Store s, int index) {
+        if (index < 0 || index >= s.size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + s.size);
+        }
+
+        final int slot = index & (CACHE_SIZE - 1);
+        final CachedLine cached = cache[slot];
+        if (cached != null && cached.store == s && cached.index == index) {
+            return cached.line;
+        }
+
+        final Line line = s.parse(index);
+        cache[slot] = new CachedLine(s, index, line);
+        return line;
+    }
+
+    /**
+     * Parse a single line of a segment.
+     * <p>
+     * The PropertiesReader is reset to the line, so no reader and no char buffer is
+     * allocated for each line. Since a model may be read by several threads, the reader
+     * is locked while the line is parsed.
+     *
+     * @param reader
+     *            PropertiesReader to be reused
+     * @param segment
+     *            Segment of the mapped file
+     * @param offset
+     *            Offset of the line in that segment
+     * @param length
+     *            Length of the line, including its termination
+     * @return Line that was parsed
+     */
+    private static Line parse(PropertiesReader reader, ByteBuffer segment, int offset, int length) {
+        final ByteBuffer slice = segment.duplicate();
+        ((Buffer) slice).limit(offset + length);
+        ((Buffer) slice).position(offset);
+        synchronized (reader) {
+            try {
+                reader.reset(slice);
+                return reader.readLine();
+            } catch (IOException ex) {
+                // Cannot happen, the line is parsed from memory
+                throw new IllegalStateException(ex);
+            }
+        }
+    }
+
+    /**
+     * Copy a file to a new file in the temporary directory.
+     *
+     * @param file
+     *            File to copy
+     * @return Copy of the file
+     * @throws IOException
+     *             if it could not copy.
+     */
+    private static File copy(File file) throws IOException {
+        final File copy = File.createTempFile("jinn-", ".properties");
+        boolean done = false;
+        try {
+            Files.copy(file.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            done = true;
+        } finally {
+            if (!done) {
+                copy.delete();
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Create a PropertiesReader that is reused by {@link #parse(PropertiesReader,
+     * ByteBuffer, int, int)}.
+     *
+     * @return PropertiesReader
+     */
+    private static PropertiesReader createReader() {
+        return new PropertiesReader(ByteBuffer.allocate(0));
+    }
+
+    /**
+     * Allocate a direct IntBuffer.
+     *
+     * @param capacity
+     *            Number of ints
+     * @return IntBuffer, filled with zeros
+     */
+    private static IntBuffer allocate(int capacity) {
+        return ByteBuffer.allocateDirect(capacity * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+    }
+
+    /* ------------------------------------------------------------------------ */
+
+    /**
+     * The immutable content of a MappedPropertyModel.
+     * <p>
+     * <code>lines</code> contains two ints for each line, its offset in the segment and
+     * its length. <code>keys</code> is an open addressing hash table with linear
+     * probing, containing two ints for each slot, the hash code of the key and the line
+     * index plus one. A slot with a zero line is empty.
+     */
+    private static final class Store {
+        final ByteBuffer[] segments;
+        final int[] firstLines;
+        final IntBuffer lines;
+        final int size;
+        final IntBuffer keys;
+        final int keyCapacity;
+        final int keyCount;
+        final PropertiesReader reader = createReader();
+
+        Store(ByteBuffer[] segments, int[] firstLines, IntBuffer lines, int size,
+                IntBuffer keys, int keyCapacity, int keyCount) {
+            this.segments = segments;
+            this.firstLines = firstLines;
+            this.lines = lines;
+            this.size = size;
+            this.keys = keys;
+            this.keyCapacity = keyCapacity;
+            this.keyCount = keyCount;
+        }
+
+        /**
+         * Parse a line.
+         *
+         * @param index
+         *            Line index
+         * @return Line that was parsed
+         */
+        Line parse(int index) {
+            return MappedPropertyModel.parse(reader,
+                    segments[segmentOf(firstLines, segments.length, index)],
+                    lines.get(index * 2), lines.get(index * 2 + 1));
+        }
+
+        /**
+         * Find the line of a resource key.
+         *
+         * @param key
+         *            Resource key
+         * @return Line index, or -1 if the key is not known
+         */
+        int find(Object key) {
+            if (!(key instanceof String)) return -1;
+
+            final int hash = key.hashCode();
+            final int mask = keyCapacity - 1;
+            int slot = KeyMap.slot(hash, mask);
+            int line;
+            while ((line = keys.get(slot * 2 + 1)) != 0) {
+                if (keys.get(slot * 2) == hash && key.equals(((PropertyLine) parse(line - 1)).getKey())) {
+                    return line - 1;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        /**
+         * Find the segment containing a line.
+         *
+         * @param firstLines
+         *            Index of the first line of each segment
+         * @param count
+         *            Number of segments
+         * @param index
+         *            Line index
+         * @return Segment number
+         */
+        static int segmentOf(int[] firstLines, int count, int index) {
+            int low = 0;
+            int high = count - 1;
+            while (low < high) {
+                final int mid = (low + high + 1) >>> 1;
+                if (firstLines[mid] <= index) {
+                    low = mid;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return low;
+        }
+    }
+
+    /**
+     * Builds a Store while the mapped file is scanned.
+     */
+    private static final class Builder {
+        private final List<ByteBuffer> segments = new ArrayList<ByteBuffer>();
+        private int[] firstLines = new int[4];
+        private IntBuffer lines = allocate(2 * 1024);
+        private int size = 0;
+        private IntBuffer keys = allocate(2 * 1024);
+        private int keyCapacity = 1024;
+        private int keyCount = 0;
+        private final PropertiesReader reader = createReader();
+
+        /**
+         * Scan a segment of the mapped file for lines.
+         *
+         * @param segment
+         *            Segment to scan
+         * @param last
+         *            true: this is the last segment of the file. Otherwise the last line
+         *            of the segment is not added, since it may be incomplete.
+         * @return Number of bytes of the segment that were consumed
+         */
+        int scan(ByteBuffer segment, boolean last) throws IOException {
+            if (segments.size() == firstLines.length) {
+                final int[] newFirstLines = new int[firstLines.length * 2];
+                System.arraycopy(firstLines, 0, newFirstLines, 0, firstLines.length);
+                firstLines = newFirstLines;
+            }
+            firstLines[segments.size()] = size;
+            segments.add(segment);
+
+            final PropertiesReader reader = new PropertiesReader(segment.duplicate());
+            reader.setSourceTag(segment);
+
+            AbstractLine pending = null;
+            int consumed = 0;
+            while (true) {
+                final AbstractLine line;
+                try {
+                    line = (AbstractLine) reader.readLine();
+                } catch (IOException | IllegalArgumentException ex) {
+                    // The last line of a segment may be cut anywhere. It is read again
+                    // at the start of the next segment, and fails there if it is invalid.
+                    if (last || pending == null) throw ex;
+                    break;
+                }
+                if (line == null) break;
+
+                if (pending != null) {
+                    consumed = add(pending);
+                }
+                pending = line;
+            }
+            if (last && pending != null) {
+                consumed = add(pending);
+            }
+
+            if (firstLines[segments.size() - 1] == size) {
+                // No line was added, so the segment is not used
+                segments.remove(segments.size() - 1);
+            }
+            return consumed;
+        }
+
+        /**
+         * Add a line that was scanned.
+         *
+         * @param line
+         *            Line with a SourceSpan inside the current segment
+         * @return End of the line in the current segment
+         */
+        private int add(AbstractLine line) {
+            final SourceSpan span = line.getSourceSpan();
+            final int offset = (int) span.getOffset();
+            final int length = span.getLength();
+
+            if (lines.capacity() < (size + 1) * 2) {
+                lines = grow(lines, lines.capacity() * 2);
+            }
+            lines.put(size * 2, offset);
+            lines.put(size * 2 + 1, length);
+            final int index = size++;
+
+            if (line instanceof PropertyLine) {
+                putKey(((PropertyLine) line).getKey(), index);
+            }
+            return offset + length;
+        }
+
+        /**
+         * Add a key to the hash index. If the key is used more than once, the last line
+         * is found, like in a {@link PropertyModel}.
+         *
+         * @param key
+         *            Resource key
+         * @param index
+         *            Line index
+         */
+        private void putKey(String key, int index) {
+            final int hash = key.hashCode();
+            final int mask = keyCapacity - 1;
+            int slot = KeyMap.slot(hash, mask);
+            int line;
+            while ((line = keys.get(slot * 2 + 1)) != 0) {
+                if (keys.get(slot * 2) == hash && key.equals(keyOf(line - 1))) {
+                    keys.put(slot * 2 + 1, index + 1);
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+
+            keys.put(slot * 2, hash);
+            keys.put(slot * 2 + 1, index + 1);
+            keyCount++;
+            if (keyCount * 2 > keyCapacity) {
+                rehash(keyCapacity * 2);
+            }
+        }
+
+        /**
+         * Get the key of a line that was already added.
+         *
+         * @param index
+         *            Line index
+         * @return Resource key
+         */
+        private String keyOf(int index) {
+            final ByteBuffer segment = segments.get(Store.segmentOf(firstLines, segments.size(), index));
+            return ((PropertyLine) parse(reader, segment, lines.get(index * 2), lines.get(index * 2 + 1))).getKey();
+        }
+
+        /**
+         * Change the capacity of the hash index, and insert all keys again.
+         *
+         * @param capacity
+         *            New capacity, must be a power of 2
+         */
+        private void rehash(int capacity) {
+            final IntBuffer oldKeys = keys;
+            final int oldCapacity = keyCapacity;
+            keys = allocate(capacity * 2);
+            keyCapacity = capacity;
+
+            final int mask = capacity - 1;
+            for (int ix = 0; ix < oldCapacity; ix++) {
+                final int line = oldKeys.get(ix * 2 + 1);
+                if (line != 0) {
+                    final int hash = oldKeys.get(ix * 2);
+                    int slot = KeyMap.slot(hash, mask);
+                    while (keys.get(slot * 2 + 1) != 0) {
+                        slot = (slot + 1) & mask;
+                    }
+                    keys.put(slot * 2, hash);
+                    keys.put(slot * 2 + 1, line);
+                }
+            }
+        }
+
+        /**
+         * Copy an IntBuffer into a larger one.
+         *
+         * @param buffer
+         *            IntBuffer to copy
+         * @param capacity
+         *            New capacity
+         * @return New IntBuffer
+         */
+        private static IntBuffer grow(IntBuffer buffer, int capacity) {
+            final IntBuffer result = allocate(capacity);
+            final IntBuffer source = buffer.duplicate();
+            ((Buffer) source).clear();
+            result.put(source);
+            ((Buffer) result).clear();
+            return result;
+        }
+
+        /**
+         * Build the Store.
+         *
+         * @return Store with all lines that were scanned
+         */
+        Store build() {
+            return new Store(segments.toArray(new ByteBuffer[segments.size()]), firstLines,
+                    lines, size, keys, keyCapacity, keyCount);
+        }
+    }
+
+    /**
+     * A Line in the cache.
+     */
+    private static final class CachedLine {
+        final Store store;
+        final int index;
+        final Line line;
+
+        CachedLine(Store store, int index, Line line) {
+            this.store = store;
+            this.index = index;
+            this.line = line;
+        }
+    }
+
+    /**
+     * An unmodifiable List view of the lines of a Store.
+     */
+    private class LineView extends AbstractList<Line> implements RandomAccess {
+        private final Store s;
+
+        LineView(Store s) {
+            this.s = s;
+        }
+
+        @Override
+        public Line get(int index) {
+            return getLine(s, index);
+        }
+
+        @Override
+        public int size() {
+            return s.size;
+        }
+    }
+
+    /**
+     * An unmodifiable Map view of the resource keys of a Store.
+     */
+    private class ResourceView extends AbstractMap<String, PropertyLine> {
+        private final Store s;
+
+        ResourceView(Store s) {
+            this.s = s;
+        }
+
+        @Override
+        public int size() {
+            return s.keyCount;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return s.find(key) >= 0;
+        }
+
+        @Override
+        public PropertyLine get(Object key) {
+            final int index = s.find(key);
+            return (index >= 0 ? (PropertyLine) getLine(s, index) : null);
+        }
+
+        @Override
+        public Set<Entry<String, PropertyLine>> entrySet() {
+            return new AbstractSet<Entry<String, PropertyLine>>() {
+                @Override
+                public int size() {
+                    return s.keyCount;
+                }
+
+                @Override
+                public Iterator<Entry<String, PropertyLine>> iterator() {
+                    return new EntryIterator();
+                }
+            };
+        }
+
+        /**
+         * Iterates over all keys, in the sequence of their slots.
+         */
+        private class EntryIterator implements Iterator<Entry<String, PropertyLine>> {
+            private int next = advance(0);
+
+            @Override
+            public boolean hasNext() {
+                return next < s.keyCapacity;
+            }
+
+            @Override
+            public Entry<String, PropertyLine> next() {
+                if (next >= s.keyCapacity) {
+                    throw new NoSuchElementException();
+                }
+                final PropertyLine line = (PropertyLine) getLine(s, s.keys.get(next * 2 + 1) - 1);
+                next = advance(next + 1);
+                return new SimpleImmutableEntry<String, PropertyLine>(line.getKey(), line);
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+
+            private int advance(int slot) {
+                while (slot < s.keyCapacity && s.keys.get(slot * 2 + 1) == 0) {
+                    slot++;
+                }
+                return slot;
+            }
+        }
+    }
+
+}
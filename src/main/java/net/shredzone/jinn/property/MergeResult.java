@@ -0,0 +1,126 @@
+/**
+ * jinn - A property translation editor
+ *
+ * Copyright (C) 2009 Richard "Shred" Körber
+ *   http://jinn.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.shredzone.jinn.property;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The result of a merge. It classifies the resource keys by the way they were changed.
+ *
+ * @author Richard "Shred" Körber
+ * @see PropertyModel#merge(PropertyModel, PropertyModel)
+ */
+public class MergeResult {
+
+    /**
+     * The ways a resource key can be changed by a merge.
+     */
+    public enum Change {
+        /** The key was not translated yet, and was added by the merge. */
+        ADDED,
+
+        /** The key's source text was changed, so the translation needs to be reviewed. */
+        CHANGED,
+
+        /** The key was removed by the merge, since it is not used any more. */
+        REMOVED,
+
+        /** The key is unchanged. */
+        UNCHANGED
+    }
+
+    private final Set<String> sAdded = new HashSet<String>();
+    private final Set<String> sChanged = new HashSet<String>();
+    private final Set<String> sRemoved = new HashSet<String>();
+
+    /**
+     * Get the keys that were added by the merge. The translator will have to translate
+     * these keys because they were freshly added.
+     *
+     * @return Set of added keys
+     */
+    public Set<String> getAddedKeys() {
+        return Collections.unmodifiableSet(sAdded);
+    }
+
+    /**
+     * Get the keys whose source text was changed since the base reference. They are
+     * still translated, but the translation refers to the old source text and needs to
+     * be reviewed.
+     *
+     * @return Set of keys with a changed source text
+     */
+    public Set<String> getChangedKeys() {
+        return Collections.unmodifiableSet(sChanged);
+    }
+
+    /**
+     * Get the keys that were removed by the merge.
+     *
+     * @return Set of removed keys
+     */
+    public Set<String> getRemovedKeys() {
+        return Collections.unmodifiableSet(sRemoved);
+    }
+
+    /**
+     * Get the way a key was changed by the merge.
+     *
+     * @param key
+     *            Resource key
+     * @return Change of that key, {@link Change#UNCHANGED} if it is unchanged or unknown
+     */
+    public Change getChange(String key) {
+        if (sAdded.contains(key)) return Change.ADDED;
+        if (sChanged.contains(key)) return Change.CHANGED;
+        if (sRemoved.contains(key)) return Change.REMOVED;
+        return Change.UNCHANGED;
+    }
+
+    /**
+     * Classify a key.
+     *
+     * @param key
+     *            Resource key
+     * @param change
+     *            Change of that key
+     */
+    void put(String key, Change change) {
+        switch (change) {
+        case ADDED:
+            sAdded.add(key);
+            break;
+
+        case CHANGED:
+            sChanged.add(key);
+            break;
+
+        case REMOVED:
+            sRemoved.add(key);
+            break;
+
+        default:
+            // unchanged keys are not recorded
+        }
+    }
+
+}
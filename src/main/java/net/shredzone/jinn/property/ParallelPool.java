@@ -0,0 +1,42 @@
+/**
+ * jinn - A property translation editor
+ *
+ * Copyright (C) 2009 Richard "Shred" Körber
+ *   http://jinn.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.shredzone.jinn.property;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Holds the {@link ForkJoinPool} that is shared by {@link ParallelPropertiesReader} and
+ * {@link ParallelPropertiesWriter}. Both keep all processors busy, so a pool of their
+ * own would only add idle threads. The pool is created on first use.
+ *
+ * @author Richard "Shred" Körber
+ */
+final class ParallelPool {
+
+    /**
+     * The shared ForkJoinPool.
+     */
+    static final ForkJoinPool POOL = new ForkJoinPool();
+
+    private ParallelPool() {
+        // utility class without instances
+    }
+
+}
@@ -0,0 +1,215 @@
+/**
+ * jinn - A property translation editor
+ *
+ * Copyright (C) 2009 Richard "Shred" Körber
+ *   http://jinn.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.shredzone.jinn.property;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Reads a properties file in parallel. The file content is split into chunks at logical
+ * line boundaries, and each chunk is parsed by a separate {@link PropertiesReader} on a
+ * {@link ForkJoinPool}. The resulting Line objects are returned in the original sequence.
+ * <p>
+ * The result is identical to reading the file with a single PropertiesReader.
+ *
+ * @author Richard "Shred" Körber
+ */
+final class ParallelPropertiesReader {
+
+    /**
+     * Chunks are never made smaller than this number of bytes.
+     */
+    private static final int MIN_CHUNK_SIZE = 1024 * 1024;
+
+    /**
+     * Read all lines of a properties file.
+     *
+     * @param buffer
+     *            ByteBuffer containing the properties file, from its current position up
+     *            to its limit. The buffer's position is not changed.
+     * @param sourceTag
+     *            Object identifying the source file (see
+     *            {@link PropertiesReader#setSourceTag(Object)}), or null
+     * @return List of all Line objects, in the sequence of the file.
+     * @throws IOException
+     *             if it could not read.
+     */
+    public static List<Line> read(ByteBuffer buffer, Object sourceTag) throws IOException {
+        final int chunkSize = Math.max(MIN_CHUNK_SIZE,
+                (buffer.limit() - buffer.position()) / (ParallelPool.POOL.getParallelism() * 4));
+        return read(buffer, sourceTag, chunkSize);
+    }
+
+    /**
+     * Read all lines of a properties file, split into chunks of the given size. The unit
+     * tests use tiny chunks, so every position of a file becomes a split point.
+     *
+     * @param buffer
+     *            ByteBuffer containing the properties file, from its current position up
+     *            to its limit. The buffer's position is not changed.
+     * @param sourceTag
+     *            Object identifying the source file, or null
+     * @param chunkSize
+     *            Minimum size of a chunk. A chunk is extended to the next logical line
+     *            boundary.
+     * @return List of all Line objects, in the sequence of the file.
+     * @throws IOException
+     *             if it could not read.
+     */
+    static List<Line> read(ByteBuffer buffer, Object sourceTag, int chunkSize) throws IOException {
+        final int start = buffer.position();
+        final int end = buffer.limit();
+
+        // --- Split into chunks ---
+        final List<ChunkTask> lTasks = new ArrayList<ChunkTask>();
+        int chunkStart = start;
+        while (chunkStart < end) {
+            final int chunkEnd = findBoundary(buffer, (int) Math.min((long) chunkStart + chunkSize, end), end);
+            lTasks.add(new ChunkTask(buffer, chunkStart, chunkEnd, sourceTag));
+            chunkStart = chunkEnd;
+        }
+
+        // --- Parse all chunks ---
+        for (ChunkTask task : lTasks) {
+            ParallelPool.POOL.execute(task);
+        }
+
+        // --- Join the results in sequence ---
+        final List<Line> result = new ArrayList<Line>();
+        for (ChunkTask task : lTasks) {
+            final ChunkResult chunk = task.join();
+            if (chunk.exception instanceof IOException) {
+                throw (IOException) chunk.exception;
+            } else if (chunk.exception instanceof RuntimeException) {
+                throw (RuntimeException) chunk.exception;
+            }
+            result.addAll(chunk.lines);
+        }
+        return result;
+    }
+
+    /**
+     * Find the next logical line boundary at or after the given position.
+     * <p>
+     * A line terminator (LF, CR, or CRLF) that is not preceded by a backslash always ends
+     * a logical line, so the position right after it is a safe boundary. Line
+     * terminators after a backslash are skipped, since they may be line wraps.
+     *
+     * @param buffer
+     *            ByteBuffer to search in
+     * @param pos
+     *            Position to start searching at
+     * @param end
+     *            End of the searched range
+     * @return Position after the next line terminator, or end if there is none.
+     */
+    static int findBoundary(ByteBuffer buffer, int pos, int end) {
+        while (pos < end) {
+            final byte ch = buffer.get(pos);
+            if (ch == '\n' || ch == '\r') {
+                int termStart = pos;
+                int termEnd = pos + 1;
+                if (ch == '\r' && termEnd < end && buffer.get(termEnd) == '\n') {
+                    termEnd++;
+                } else if (ch == '\n' && pos > 0 && buffer.get(pos - 1) == '\r') {
+                    termStart--;
+                }
+
+                if (termStart == 0 || buffer.get(termStart - 1) != '\\') {
+                    return termEnd;
+                }
+                pos = termEnd;
+            } else {
+                pos++;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * The outcome of parsing a single chunk. It is either a List of Lines, or the
+     * exception that aborted parsing.
+     */
+    private static class ChunkResult {
+        private List<Line> lines;
+        private Exception exception;
+    }
+
+    /**
+     * A task that parses a single chunk of the file.
+     */
+    private static class ChunkTask extends RecursiveTask<ChunkResult> {
+        private static final long serialVersionUID = 4620834113561468521L;
+
+        private final ByteBuffer buffer;
+        private final int start;
+        private final int end;
+        private final Object sourceTag;
+
+        /**
+         * Create a new ChunkTask.
+         *
+         * @param buffer
+         *            ByteBuffer containing the file
+         * @param start
+         *            Start position of the chunk
+         * @param end
+         *            End position of the chunk (exclusive)
+         * @param sourceTag
+         *            Object identifying the source file, or null
+         */
+        public ChunkTask(ByteBuffer buffer, int start, int end, Object sourceTag) {
+            this.buffer = buffer;
+            this.start = start;
+            this.end = end;
+            this.sourceTag = sourceTag;
+        }
+
+        @Override
+        protected ChunkResult compute() {
+            final ByteBuffer chunk = buffer.duplicate();
+            ((Buffer) chunk).limit(end);
+            ((Buffer) chunk).position(start);
+
+            final ChunkResult result = new ChunkResult();
+            final List<Line> lLines = new ArrayList<Line>();
+            try {
+                final PropertiesReader in = new PropertiesReader(chunk);
+                in.setSourceTag(sourceTag);
+                Line readLine;
+                while ((readLine = in.readLine()) != null) {
+                    lLines.add(readLine);
+                }
+                result.lines = lLines;
+            } catch (IOException ex) {
+                result.exception = ex;
+            } catch (RuntimeException ex) {
+                result.exception = ex;
+            }
+            return result;
+        }
+    }
+
+}
@@ -0,0 +1,192 @@
+/**
+ * jinn - A property translation editor
+ *
+ * Copyright (C) 2009 Richard "Shred" Körber
+ *   http://jinn.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.shredzone.jinn.property;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Writes a properties file in parallel. The lines are split into chunks, and each chunk
+ * is encoded into its own buffer by a separate {@link PropertiesWriter} on a
+ * {@link ForkJoinPool}. The buffers are then written in the original sequence, by a
+ * single gathering write.
+ * <p>
+ * The result is identical to writing the lines with a single PropertiesWriter having the
+ * same settings.
+ *
+ * @author Richard "Shred" Körber
+ */
+final class ParallelPropertiesWriter {
+
+    /**
+     * Chunks are never made smaller than this number of lines.
+     */
+    private static final int MIN_CHUNK_LINES = 8 * 1024;
+
+    /**
+     * Write all lines of a properties file.
+     * <p>
+     * The lines are read concurrently, so they must not be modified until this method
+     * returns.
+     *
+     * @param lines
+     *            List of all Line objects to be written, in sequence
+     * @param format
+     *            PropertiesWriter whose settings (line separator, indents, line length)
+     *            are used. Nothing is written to it.
+     * @param out
+     *            GatheringByteChannel to write to, at its current position
+     * @param lengths
+     *            Receives the number of bytes written for each line, or null
+     * @return Number of bytes that were written
+     * @throws IOException
+     *             if it could not write.
+     */
+    public static long write(List<Line> lines, PropertiesWriter format,
+        GatheringByteChannel out, int[] lengths) throws IOException {
+        final int size = lines.size();
+        final int chunkSize = Math.max(MIN_CHUNK_LINES, size / (ParallelPool.POOL.getParallelism() * 4));
+
+        // --- Split into chunks ---
+        final List<ChunkTask> lTasks = new ArrayList<ChunkTask>();
+        for (int chunkStart = 0; chunkStart < size; chunkStart += chunkSize) {
+            final int chunkEnd = Math.min(chunkStart + chunkSize, size);
+            lTasks.add(new ChunkTask(lines, chunkStart, chunkEnd, format, lengths));
+        }
+
+        // --- Serialize all chunks ---
+        for (ChunkTask task : lTasks) {
+            ParallelPool.POOL.execute(task);
+        }
+
+        // --- Collect the buffers in sequence ---
+        final ByteBuffer[] buffers = new ByteBuffer[lTasks.size()];
+        long total = 0;
+        for (int ix = 0; ix < buffers.length; ix++) {
+            final ChunkResult chunk = lTasks.get(ix).join();
+            if (chunk.exception instanceof IOException) {
+                throw (IOException) chunk.exception;
+            } else if (chunk.exception instanceof RuntimeException) {
+                throw (RuntimeException) chunk.exception;
+            }
+            buffers[ix] = chunk.buffer;
+            total += chunk.buffer.remaining();
+        }
+
+        // --- Write all buffers at once ---
+        long written = 0;
+        while (written < total) {
+            written += out.write(buffers);
+        }
+        return written;
+    }
+
+    /**
+     * A ByteArrayOutputStream that gives access to its content without copying it.
+     */
+    private static class ChunkBuffer extends ByteArrayOutputStream {
+        public ChunkBuffer(int size) {
+            super(size);
+        }
+
+        /**
+         * Get the content as a ByteBuffer. It is backed by the internal buffer, so the
+         * stream must not be written to any more.
+         *
+         * @return ByteBuffer wrapping the content
+         */
+        public ByteBuffer toByteBuffer() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+    }
+
+    /**
+     * The outcome of serializing a single chunk. It is either a ByteBuffer, or the
+     * exception that aborted serialization.
+     */
+    private static class ChunkResult {
+        private ByteBuffer buffer;
+        private Exception exception;
+    }
+
+    /**
+     * A task that serializes a single chunk of lines.
+     */
+    private static class ChunkTask extends RecursiveTask<ChunkResult> {
+        private static final long serialVersionUID = -3398431716208537106L;
+
+        private final List<Line> lines;
+        private final int start;
+        private final int end;
+        private final PropertiesWriter format;
+        private final int[] lengths;
+
+        /**
+         * Create a new ChunkTask.
+         *
+         * @param lines
+         *            List of all lines
+         * @param start
+         *            Index of the first line of the chunk
+         * @param end
+         *            Index of the last line of the chunk (exclusive)
+         * @param format
+         *            PropertiesWriter providing the settings
+         * @param lengths
+         *            Receives the number of bytes of each line, or null
+         */
+        public ChunkTask(List<Line> lines, int start, int end, PropertiesWriter format, int[] lengths) {
+            this.lines = lines;
+            this.start = start;
+            this.end = end;
+            this.format = format;
+            this.lengths = lengths;
+        }
+
+        @Override
+        protected ChunkResult compute() {
+            final ChunkResult result = new ChunkResult();
+            final ChunkBuffer buffer = new ChunkBuffer((end - start) * 64);
+            try {
+                final PropertiesWriter pw = new PropertiesWriter(buffer, format);
+                for (int ix = start; ix < end; ix++) {
+                    final byte[] bytes = pw.encode(lines.get(ix));
+                    buffer.write(bytes);
+                    if (lengths != null) {
+                        lengths[ix] = bytes.length;
+                    }
+                }
+                result.buffer = buffer.toByteBuffer();
+            } catch (IOException ex) {
+                result.exception = ex;
+            } catch (RuntimeException ex) {
+                result.exception = ex;
+            }
+            return result;
+        }
+    }
+
+}
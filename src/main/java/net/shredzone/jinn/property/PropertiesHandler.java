@@ -0,0 +1,56 @@
+/**
+ * jinn - A property translation editor
+ *
+ * Copyright (C) 2009 Richard "Shred" Körber
+ *   http://jinn.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.shredzone.jinn.property;
+
+/**
+ * A PropertiesHandler receives the content of a properties file while it is parsed by
+ * {@link PropertiesReader#parse(PropertiesHandler)}. No Line objects are created.
+ * <p>
+ * The CharSequences passed to the handler are reused by the parser. They are only valid
+ * until the method returns. Use <code>toString()</code> if you need to keep them.
+ *
+ * @author Richard "Shred" Körber
+ */
+public interface PropertiesHandler {
+
+    /**
+     * A property line was read.
+     *
+     * @param key
+     *            Unescaped property key
+     * @param value
+     *            Unescaped property value, may be empty
+     */
+    public void onProperty(CharSequence key, CharSequence value);
+
+    /**
+     * A comment line was read.
+     *
+     * @param comment
+     *            Unescaped comment, including the leading comment character
+     */
+    public void onComment(CharSequence comment);
+
+    /**
+     * An empty line was read.
+     */
+    public void onEmpty();
+
+}
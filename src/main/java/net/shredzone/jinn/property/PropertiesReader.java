@@ -22,113 +22,367 @@ package net.shredzone.jinn.property;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Reader;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
 
 /**
  * This Reader reads a properties file and converts it into a uniform stream.
  * <p>
  * While reading, unicode escape sequences will be decoded, and extended lines (using a
  * backslash at the end of a line) will be joined into a single line.
+ * <p>
+ * By specification, a properties file is ISO-8859-1 encoded. Anyhow, sometimes you might
+ * get a properties file with a different encoding. For those files, a Charset can be
+ * passed to the constructor. The file is then decoded with that Charset, and can later be
+ * saved in a conformous fashion.
  *
  * @author Richard "Shred" Körber
  */
 public class PropertiesReader extends Reader {
+    private static final int BUFFER_SIZE = 8192;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
     private final InputStream in;
-    private boolean stage0sto = false;
-    private int stage0char;
-    private boolean stage1sto = false;
-    private int stage1char;
+    private ByteBuffer input;
+    private final char[] chars = new char[BUFFER_SIZE];
+    private CharsetDecoder decoder;
+    private CharBuffer decoded;
+    private boolean detect;
+    private boolean started = false;
+    private boolean endOfInput;
+    private boolean flushed = false;
+    private int cpos = 0;
+    private int climit = 0;
+    private boolean eof = false;
+    private long offset;
+    private long base;
+    private long lineStart;
+    private long lineEnd;
+    private Object sourceTag;
 
     /**
-     * Create a new PropertiesReader for the given InputStream
+     * Create a new PropertiesReader for the given InputStream, which is ISO-8859-1
+     * encoded.
      *
      * @param in
      *            InputStream to be used
      */
     public PropertiesReader(InputStream in) {
         this.in = in;
+        this.input = ByteBuffer.allocate(BUFFER_SIZE);
+        ((Buffer) this.input).flip();
+        this.endOfInput = false;
+        this.offset = 0;
+        this.base = 0;
+    }
+
+    /**
+     * Create a new PropertiesReader for the given ByteBuffer, which is ISO-8859-1
+     * encoded. The bytes are read in place, from the current position up to the limit of
+     * the buffer. This is meant to be used with memory mapped files, which are then
+     * neither copied into a stream buffer nor held on the heap.
+     *
+     * @param source
+     *            ByteBuffer to be used
+     */
+    public PropertiesReader(ByteBuffer source) {
+        this.in = null;
+        this.input = source;
+        this.endOfInput = true;
+        this.offset = source.position();
+        this.base = offset;
+    }
+
+    /**
+     * Create a new PropertiesReader for the given InputStream, using the given Charset.
+     *
+     * @param in
+     *            InputStream to be used
+     * @param charset
+     *            Charset of the file, or null to detect it (see
+     *            {@link #setCharset(Charset)})
+     */
+    public PropertiesReader(InputStream in, Charset charset) {
+        this(in);
+        setCharset(charset);
+    }
+
+    /**
+     * Create a new PropertiesReader for the given ByteBuffer, using the given Charset.
+     *
+     * @param source
+     *            ByteBuffer to be used
+     * @param charset
+     *            Charset of the file, or null to detect it (see
+     *            {@link #setCharset(Charset)})
+     */
+    public PropertiesReader(ByteBuffer source, Charset charset) {
+        this(source);
+        setCharset(charset);
+    }
+
+    /**
+     * Set the Charset of the properties file. It must be set before the first character
+     * is read.
+     * <p>
+     * If null is passed, the Charset is detected when reading starts. A byte order mark
+     * selects UTF-8 or UTF-16. Otherwise, the first block of the file is checked. If it
+     * contains non-ASCII characters, and all of them are valid UTF-8 sequences, UTF-8 is
+     * used. In any other case, the file is read as ISO-8859-1.
+     * <p>
+     * A leading UTF-8 byte order mark is always skipped.
+     *
+     * @param charset
+     *            Charset to be used, or null for detection
+     */
+    public void setCharset(Charset charset) {
+        synchronized (lock) {
+            if (started) {
+                throw new IllegalStateException("Reading has already started");
+            }
+
+            detect = (charset == null);
+            decoder = (charset != null ? charset.newDecoder() : null);
+        }
+    }
+
+    /**
+     * Set an object identifying the source file. If set, every Line read from an
+     * ISO-8859-1 encoded file carries a {@link SourceSpan} referring to this object.
+     *
+     * @param sourceTag
+     *            Opaque object identifying the source, or null
+     */
+    void setSourceTag(Object sourceTag) {
+        this.sourceTag = sourceTag;
+    }
+
+    /**
+     * Continue reading from another ISO-8859-1 encoded ByteBuffer, from its current
+     * position up to its limit. The buffers of this reader are reused, so a single line
+     * can be parsed without allocating a new reader.
+     * <p>
+     * This is only possible for readers that were created for a ByteBuffer, without a
+     * Charset.
+     *
+     * @param source
+     *            ByteBuffer to be used
+     * @throws IllegalStateException
+     *             if this reader does not read an ISO-8859-1 encoded ByteBuffer
+     */
+    void reset(ByteBuffer source) {
+        synchronized (lock) {
+            if (in != null || decoder != null || detect) {
+                throw new IllegalStateException("Only ISO-8859-1 ByteBuffer readers can be reset");
+            }
+
+            input = source;
+            offset = source.position();
+            base = offset;
+            cpos = 0;
+            climit = 0;
+            eof = false;
+        }
     }
 
     /*--------------------------------------------------------------------------
      * Part 1: the elementary methods for reading from the InputStream.
      * There are three stages of reading:
-     *   0) Read the raw data from InputStream.
+     *   0) Read the raw data from InputStream or ByteBuffer, block by
+     *      block, and decode it into a char buffer.
      *   1) Read the data from stage 0 and convert all CRLF and CR to LF.
      *   2) Read data from stage 1 and join two lines if a line ends with
      *      backslash and LF.
-     * All stages allow to put back one character into the stream for later
-     * reading.
+     * Stage 1 and 2 work on the char buffer by index, so a character is
+     * never put back into the stream, but just looked at in advance.
      */
 
     /**
-     * Stage 0: A simple read/unread mechanism.
+     * Stage 0: Make sure that there is at least one character available in the char
+     * buffer. If the buffer is exhausted, it is filled with the next block of the
+     * InputStream or ByteBuffer.
      *
-     * @return A single character, or -1 if EOF was found.
+     * @return true if a character is available, false if EOF was reached.
      * @throws IOException
      *             if it did not read.
      */
-    private int readChar() throws IOException {
-        if (stage0sto) {
-            stage0sto = false;
-            return stage0char;
+    private boolean available() throws IOException {
+        while (cpos >= climit) {
+            if (eof) return false;
+
+            if (!started) {
+                start();
+            }
+
+            final int cnt = (decoder != null ? decode() : copy());
+            if (cnt < 0) {
+                eof = true;
+                return false;
+            }
+            cpos = 0;
+            climit = cnt;
         }
-        return in.read();
+        return true;
     }
 
     /**
-     * Stage 0: Unread a single character.
+     * Stage 0: Prepare reading. The Charset is detected if necessary, and a UTF-8 byte
+     * order mark is skipped.
      *
-     * @param ch
-     *            Character to unread
      * @throws IOException
-     *             if it did not unread.
+     *             if it did not read.
      */
-    private void unreadChar(int ch) throws IOException {
-        if (stage0sto) {
-            throw new IOException("Stage 0 character store is full");
+    private void start() throws IOException {
+        started = true;
+        if (decoder == null && !detect) return; // plain ISO-8859-1
+
+        while (input.remaining() < 3 && refill()) {
+            // make sure the byte order mark can be checked
+        }
+
+        Charset charset = (decoder != null ? decoder.charset() : null);
+        final int pos = input.position();
+        final int avail = input.remaining();
+        if (avail >= 3 && (input.get(pos) & 0xFF) == 0xEF
+                && (input.get(pos + 1) & 0xFF) == 0xBB && (input.get(pos + 2) & 0xFF) == 0xBF) {
+            if (charset == null || charset.equals(UTF_8)) {
+                ((Buffer) input).position(pos + 3);
+                charset = UTF_8;
+            }
+        } else if (charset == null && avail >= 2) {
+            final int b0 = input.get(pos) & 0xFF;
+            final int b1 = input.get(pos + 1) & 0xFF;
+            if ((b0 == 0xFE && b1 == 0xFF) || (b0 == 0xFF && b1 == 0xFE)) {
+                // The UTF-16 decoder evaluates the byte order mark itself
+                charset = Charset.forName("UTF-16");
+            }
+        }
+
+        if (charset == null && isUtf8(input)) {
+            charset = UTF_8;
         }
-        stage0char = ch;
-        stage0sto = true;
+
+        if (charset != null) {
+            decoder = charset.newDecoder();
+            decoded = CharBuffer.wrap(chars);
+        }
+    }
+
+    /**
+     * Stage 0: Copy the next block of ISO-8859-1 encoded bytes into the char buffer.
+     *
+     * @return Number of characters, or -1 if EOF was reached.
+     * @throws IOException
+     *             if it did not read.
+     */
+    private int copy() throws IOException {
+        while (!input.hasRemaining()) {
+            if (!refill()) return -1;
+        }
+
+        // ISO-8859-1 is mapped 1:1 to the first 256 unicode characters
+        final int cnt = Math.min(chars.length, input.remaining());
+        for (int ix = 0; ix < cnt; ix++) {
+            chars[ix] = (char) (input.get() & 0xFF);
+        }
+
+        // Each byte is a char, so we are able to keep track of the file position
+        base = offset;
+        offset += cnt;
+        return cnt;
+    }
+
+    /**
+     * Stage 0: Decode the next block of bytes into the char buffer, using the
+     * CharsetDecoder.
+     *
+     * @return Number of characters, or -1 if EOF was reached.
+     * @throws IOException
+     *             if it did not read, or if the input was not properly encoded.
+     */
+    private int decode() throws IOException {
+        if (flushed) return -1;
+
+        ((Buffer) decoded).clear();
+        while (decoded.position() == 0) {
+            final CoderResult result = decoder.decode(input, decoded, endOfInput);
+            if (result.isError()) {
+                result.throwException();
+            }
+
+            if (result.isUnderflow() && decoded.position() == 0) {
+                if (endOfInput) {
+                    decoder.flush(decoded);
+                    flushed = true;
+                    break;
+                }
+                refill();
+            }
+        }
+        return (decoded.position() > 0 ? decoded.position() : -1);
+    }
+
+    /**
+     * Stage 0: Read the next block of bytes from the InputStream into the input buffer.
+     * Bytes that have not been consumed yet are kept.
+     *
+     * @return true if bytes were read, false if the end of the input was reached.
+     * @throws IOException
+     *             if it did not read.
+     */
+    private boolean refill() throws IOException {
+        if (endOfInput) return false;
+
+        input.compact();
+        final int cnt = in.read(input.array(), input.arrayOffset() + input.position(), input.remaining());
+        if (cnt > 0) {
+            ((Buffer) input).position(input.position() + cnt);
+        }
+        ((Buffer) input).flip();
+
+        if (cnt < 0) {
+            endOfInput = true;
+        }
+        return !endOfInput;
     }
 
     /**
-     * Stage 1: Read a single character from the raw input stream. Convert all CRLF and CR
-     * to LF.
+     * Stage 1: Read a single character from the char buffer. Convert all CRLF and CR to
+     * LF.
      *
      * @return A single character, or -1 if EOF was found.
      * @throws IOException
      *             if it did not read.
      */
     private int readUniform() throws IOException {
-        if (stage1sto) {
-            stage1sto = false;
-            return stage1char;
-        }
+        if (!available()) return -1;
 
-        int ch = readChar();
+        final char ch = chars[cpos++];
         if (ch == '\r') {
-            ch = readChar();
-            if (ch != '\n') {
-                unreadChar(ch);
-                ch = '\n';
+            if (available() && chars[cpos] == '\n') {
+                cpos++;
             }
+            return '\n';
         }
         return ch;
     }
 
     /**
-     * Stage 1: Unread a single character.
+     * Stage 1: Look at the next character without consuming it. CR is returned as LF.
      *
-     * @param ch
-     *            Character to unread
+     * @return The next character, or -1 if EOF was found.
      * @throws IOException
-     *             if it did not unread.
+     *             if it did not read.
      */
-    private void unreadUniform(int ch) throws IOException {
-        if (stage1sto) {
-            throw new IOException("Stage 1 character store is full");
-        }
-        stage1char = ch;
-        stage1sto = true;
+    private int peekUniform() throws IOException {
+        if (!available()) return -1;
+
+        final char ch = chars[cpos];
+        return (ch == '\r' ? '\n' : ch);
     }
 
     /**
@@ -141,23 +395,38 @@ public class PropertiesReader extends Reader {
      */
     private int readUnwrapped() throws IOException {
         int ch = readUniform();
-        if (ch == '\\') {
-            int ch2 = readUniform();
-            if (ch2 == '\n') {
-                // Okay, we've found a line wrap. Now skip all whitespaces
-                // and return the first non-whitespace character.
-
-                do {
-                    ch = readUniform();
-                } while (ch == ' ' || ch == '\t' || ch == '\f');
-
-            } else {
-                unreadUniform(ch2);
-            }
+        if (ch == '\\' && peekUniform() == '\n') {
+            // Okay, we've found a line wrap. Now skip all whitespaces
+            // and return the first non-whitespace character.
+            readUniform();
+
+            do {
+                ch = readUniform();
+            } while (ch == ' ' || ch == '\t' || ch == '\f');
         }
         return ch;
     }
 
+    /**
+     * Stage 2: Skip all characters that are neither a line break nor a backslash, and
+     * append them to the given StringBuilder. This is a shortcut for reading the plain
+     * parts of a line in bulk.
+     *
+     * @param buff
+     *            StringBuilder to append the characters to
+     */
+    private void readPlain(StringBuilder buff) {
+        final int start = cpos;
+        int end = start;
+        while (end < climit) {
+            final char ch = chars[end];
+            if (ch == '\n' || ch == '\r' || ch == '\\') break;
+            end++;
+        }
+        buff.append(chars, start, end - start);
+        cpos = end;
+    }
+
     /*--------------------------------------------------------------------------
      * Part 2: The methods that are required for the Reader class.
      * Actually, read() does all the work, but read(char[],int,int) is
@@ -181,23 +450,6 @@ public class PropertiesReader extends Reader {
     public int read() throws IOException {
         synchronized (lock) {
             return readUnwrapped();
-
-            /*
-             * This is a little hack for reading a properties file that is not ISO-8859-1
-             * encoded. By specification, a properties file MUST be ISO-8859-1 encoded,
-             * and foreign characters have to be unicode escaped. Anyhow, sometimes you
-             * might get a properties file with a non-conformous encoding. With this
-             * little hack you are able to read it into Jinn and then save it in a
-             * conformous fashion. Maybe I will later add an action for it...
-             *
-             * String charset = "ISO-8859-2";
-             * int ch = readUnwrapped();
-             * if( ch<0 ) return ch;
-             * byte[] buf = new byte[] {(byte) ch};
-             * String str = new String( buf, charset );
-             * ch = str.charAt( 0 );
-             * return ch;
-             */
         }
     }
 
@@ -219,7 +471,7 @@ public class PropertiesReader extends Reader {
         synchronized (lock) {
             int readcnt = 0;
             for (; readcnt < len; readcnt++) {
-                final int ch = read();
+                final int ch = readUnwrapped();
                 if (readcnt == 0 && ch == -1) return -1; // EOF was already reached
                 if (ch == -1) break; // EOF was reached while reading
                 cbuf[off++] = (char) ch;
@@ -237,7 +489,9 @@ public class PropertiesReader extends Reader {
     @Override
     public void close() throws IOException {
         synchronized (lock) {
-            in.close();
+            if (in != null) {
+                in.close();
+            }
         }
     }
 
@@ -256,22 +510,8 @@ public class PropertiesReader extends Reader {
      */
     public String readString() throws IOException {
         synchronized (lock) {
-            int ch = read();
-            if (ch == -1) return null; // EOF was already reached
-
-            // Trim leading whitespace
-            while (ch != -1 && (ch == ' ' || ch == '\t' || ch == '\f')) {
-                ch = read();
-            }
-
-            // Read until EOL
             final StringBuilder buff = new StringBuilder();
-            while (ch != -1 && ch != '\n') {
-                buff.append((char) ch);
-                ch = read();
-            }
-
-            return buff.toString();
+            return (readString(buff) ? buff.toString() : null);
         }
     }
 
@@ -287,67 +527,98 @@ public class PropertiesReader extends Reader {
         final String line = readString();
         if (line == null) return null; // EOF was reached
 
+        final AbstractLine result = createLine(line);
+        if (decoder == null && sourceTag != null) {
+            result.setSourceSpan(new SourceSpan(sourceTag, lineStart, (int) (lineEnd - lineStart)));
+        }
+        return result;
+    }
+
+    /**
+     * Create a Line object for a line of the properties file.
+     *
+     * @param line
+     *            Line, as returned by {@link #readString()}
+     * @return An already decoded Line object
+     * @throws IOException
+     *             if the line is invalid.
+     */
+    private AbstractLine createLine(String line) throws IOException {
         if (line.length() == 0) {
             // This is an empty line...
             return new EmptyLine();
 
-        } else if (line.charAt(0) == '#' || line.charAt(0) == '!') {
+        } else if (isComment(line)) {
             // This is a comment line...
-            return new CommentLine(unescape(line));
+            return new CommentLine(unescape(line, 0, line.length()));
 
         } else {
             // This is a resource line...
+            final int split = findSplit(line);
+            final int valpos = findValue(line, split);
 
-            // Find the split position
-            int split;
-            boolean breakChar = false;
-            for (split = 0; split < line.length(); split++) {
-                final char ch = line.charAt(split);
-                if (ch == '\\') { // Ignore escaped characters
-                    split++;
-                    continue;
-                }
-                if (ch == ':' || ch == '=' || ch == ' ' || ch == '\t' || ch == '\f') {
-                    if (ch == ':' || ch == '=') {
-                        breakChar = true;
-                    }
-                    break; // found the split character!
-                }
+            final String key = unescape(line, 0, split);
+            if (valpos >= line.length()) { // value may be empty!
+                return new PropertyLine(key, "");
             }
 
-            // Key is from beginning to split (exclusive)
-            int keypos = split - 1;
-
-            // Value is after split, but trimming whitespaces
-            int valpos = split + 1;
-            while (valpos < line.length()) {
-                final char ch = line.charAt(valpos);
-                if (ch == ':' || ch == '=') {
-                    if (breakChar) {
-                        // we already had a ':' or '='. This one is part of the value!
-                        break;
-                    } else {
-                        // remember that we found one, but continue
-                        breakChar = true;
-                    }
-                } else if (ch != ' ' && ch != '\t' && ch != '\f') {
-                    break;
-                }
-                valpos++;
+            final int escpos = line.indexOf('\\', valpos);
+            if (escpos < 0) {
+                return new PropertyLine(key, line.substring(valpos));
             }
 
-            if (keypos == 0) {
-                // There is no key. Shouldn't happen, though, since it means that
-                // we got an empty line, which should have been used earlier...
-                throw new IOException("Key or value missing");
+            if (line.indexOf("\\u", escpos) >= 0) {
+                // Unicode escapes are much longer than the characters they stand for
+                return new PropertyLine(key, unescape(line, valpos, line.length()));
             }
 
-            String key = unescape(line.substring(0, keypos + 1));
-            String val = "";
-            if (valpos < line.length()) { // value may be empty!
-                val = unescape(line.substring(valpos));
+            // Unescape the value on first access, malformed escapes are reported there
+            return PropertyLine.createEscaped(key, line.substring(valpos));
+        }
+    }
+
+    /**
+     * Read the entire properties file, and pass its content to a PropertiesHandler.
+     * <p>
+     * Unlike {@link #readLine()}, no Line objects are created. The key, value and comment
+     * CharSequences passed to the handler are reused for every line, so reading a file
+     * with this method requires almost no memory allocation.
+     *
+     * @param handler
+     *            PropertiesHandler that receives the lines
+     * @throws IOException
+     *             if it could not read.
+     */
+    public void parse(PropertiesHandler handler) throws IOException {
+        synchronized (lock) {
+            final StringBuilder line = new StringBuilder();
+            final StringBuilder key = new StringBuilder();
+            final StringBuilder value = new StringBuilder();
+
+            while (readString(line)) {
+                final int len = line.length();
+
+                if (len == 0) {
+                    handler.onEmpty();
+
+                } else if (isComment(line)) {
+                    value.setLength(0);
+                    unescape(line, 0, len, value);
+                    handler.onComment(value);
+
+                } else {
+                    final int split = findSplit(line);
+                    final int valpos = findValue(line, split);
+
+                    key.setLength(0);
+                    unescape(line, 0, split, key);
+                    value.setLength(0);
+                    if (valpos < len) {
+                        unescape(line, valpos, len, value);
+                    }
+                    handler.onProperty(key, value);
+                }
             }
-            return new PropertyLine(key, val);
         }
     }
 
@@ -356,50 +627,258 @@ public class PropertiesReader extends Reader {
      */
 
     /**
-     * Unescape a String. Unicode escapes and other escaped characters (namely '&#92;t',
-     * '&#92;r', '&#92;n', '&#92;f') are converted. For other backslash escapes, the
-     * backslash is swallowed, according to java.util.Properties javadoc.
+     * Check if the beginning of a buffer looks like UTF-8 encoded text. This is the case
+     * if there is at least one non-ASCII character, and all non-ASCII characters are
+     * valid UTF-8 sequences. The buffer's position is not changed.
      *
-     * @param str
-     *            String to be converted
-     * @return Unescaped String
+     * @param buffer
+     *            ByteBuffer to check
+     * @return true: this is most probably UTF-8
      */
-    private String unescape(String str) {
-        StringBuffer buff = new StringBuffer(str);
-
-        int pos = buff.indexOf("\\");
-        while (pos >= 0) {
-            int endpos = pos + 1;
-            char ch = buff.charAt(endpos);
-            switch (ch) {
-            case 'u':
-                try {
-                    ch = (char) Integer.parseInt(buff.substring(pos + 2, pos + 6), 16);
-                } catch (NumberFormatException ex) {
-                    throw new IllegalArgumentException("Malformed unicode escape sequence");
-                }
-                endpos = pos + 5;
-                break;
+    private static boolean isUtf8(ByteBuffer buffer) {
+        final int end = buffer.position() + Math.min(buffer.remaining(), BUFFER_SIZE);
+        boolean nonAscii = false;
+        int pos = buffer.position();
+        while (pos < end) {
+            final int ch = buffer.get(pos++) & 0xFF;
+            if (ch < 0x80) continue;
+
+            int follow;
+            if (ch >= 0xC2 && ch <= 0xDF) {
+                follow = 1;
+            } else if (ch >= 0xE0 && ch <= 0xEF) {
+                follow = 2;
+            } else if (ch >= 0xF0 && ch <= 0xF4) {
+                follow = 3;
+            } else {
+                return false;
+            }
 
-            case 't':
-                ch = '\t';
-                break;
-            case 'r':
-                ch = '\r';
-                break;
-            case 'n':
-                ch = '\n';
-                break;
-            case 'f':
-                ch = '\f';
+            for (; follow > 0 && pos < end; follow--) {
+                if ((buffer.get(pos++) & 0xC0) != 0x80) return false;
+            }
+            nonAscii = true;
+        }
+        return nonAscii;
+    }
+
+    /**
+     * Read a line from the properties file into a StringBuilder. The StringBuilder is
+     * cleared before. The line termination is not included, and leading whitespace is
+     * automatically trimmed.
+     *
+     * @param buff
+     *            StringBuilder to read the line into
+     * @return true if a line was read, false if EOF was reached.
+     * @throws IOException
+     *             if it could not read.
+     */
+    private boolean readString(StringBuilder buff) throws IOException {
+        buff.setLength(0);
+        lineStart = base + cpos;
+
+        int ch = readUnwrapped();
+        if (ch == -1) return false; // EOF was already reached
+
+        // Trim leading whitespace
+        while (ch != -1 && (ch == ' ' || ch == '\t' || ch == '\f')) {
+            ch = readUnwrapped();
+        }
+
+        // Read until EOL
+        while (ch != -1 && ch != '\n') {
+            buff.append((char) ch);
+            readPlain(buff);
+            ch = readUnwrapped();
+        }
+
+        lineEnd = base + cpos;
+        return true;
+    }
+
+    /**
+     * Check if a non-empty line is a comment line.
+     *
+     * @param line
+     *            Line to check
+     * @return true: this is a comment line
+     */
+    private boolean isComment(CharSequence line) {
+        final char ch = line.charAt(0);
+        return (ch == '#' || ch == '!');
+    }
+
+    /**
+     * Find the position where a resource line is split into key and value.
+     *
+     * @param line
+     *            Resource line
+     * @return Position of the split character. The key is from the beginning of the line
+     *         to this position (exclusive).
+     * @throws IOException
+     *             if there is no key.
+     */
+    private int findSplit(CharSequence line) throws IOException {
+        int split;
+        for (split = 0; split < line.length(); split++) {
+            final char ch = line.charAt(split);
+            if (ch == '\\') { // Ignore escaped characters
+                split++;
+                continue;
+            }
+            if (ch == ':' || ch == '=' || ch == ' ' || ch == '\t' || ch == '\f') {
+                break; // found the split character!
+            }
+        }
+
+        // Key is from beginning to split (exclusive)
+        final int keypos = split - 1;
+        if (keypos == 0) {
+            // There is no key. Shouldn't happen, though, since it means that
+            // we got an empty line, which should have been used earlier...
+            throw new IOException("Key or value missing");
+        }
+
+        if (split > line.length()) {
+            // The line ends with a backslash, which is not escaping anything
+            split = line.length();
+        }
+
+        return split;
+    }
+
+    /**
+     * Find the position where the value of a resource line starts.
+     *
+     * @param line
+     *            Resource line
+     * @param split
+     *            Split position, as returned by {@link #findSplit(CharSequence)}
+     * @return Start position of the value. If it is equal to the line length, the value
+     *         is empty.
+     */
+    private int findValue(CharSequence line, int split) {
+        boolean breakChar = false;
+        if (split < line.length()) {
+            final char ch = line.charAt(split);
+            breakChar = (ch == ':' || ch == '=');
+        }
+
+        // Value is after split, but trimming whitespaces
+        int valpos = split + 1;
+        while (valpos < line.length()) {
+            final char ch = line.charAt(valpos);
+            if (ch == ':' || ch == '=') {
+                if (breakChar) {
+                    // we already had a ':' or '='. This one is part of the value!
+                    break;
+                } else {
+                    // remember that we found one, but continue
+                    breakChar = true;
+                }
+            } else if (ch != ' ' && ch != '\t' && ch != '\f') {
                 break;
             }
-            buff.replace(pos, endpos + 1, String.valueOf(ch));
+            valpos++;
+        }
+        return valpos;
+    }
 
-            pos = buff.indexOf("\\", pos + 1);
+    /**
+     * Unescape a part of a String. Unicode escapes and other escaped characters (namely
+     * '&#92;t', '&#92;r', '&#92;n', '&#92;f') are converted. For other backslash escapes,
+     * the backslash is swallowed, according to java.util.Properties javadoc.
+     * <p>
+     * If there is nothing to unescape, the String is not copied.
+     *
+     * @param str
+     *            String to be converted
+     * @param start
+     *            Start position
+     * @param end
+     *            End position (exclusive)
+     * @return Unescaped String
+     * @throws IllegalArgumentException
+     *             if there is a malformed escape sequence
+     */
+    static String unescape(String str, int start, int end) {
+        final int pos = str.indexOf('\\', start);
+        if (pos < 0 || pos >= end) {
+            return str.substring(start, end);
         }
 
+        final StringBuilder buff = new StringBuilder(end - start);
+        buff.append(str, start, pos);
+        unescape(str, pos, end, buff);
         return buff.toString();
     }
 
+    /**
+     * Unescape a part of a CharSequence, and append the result to a StringBuilder.
+     * Escapes are converted like in {@link #unescape(String, int, int)}. If no
+     * StringBuilder is given, the escapes are only checked.
+     *
+     * @param str
+     *            CharSequence to be converted
+     * @param start
+     *            Start position
+     * @param end
+     *            End position (exclusive)
+     * @param buff
+     *            StringBuilder to append the unescaped characters to, or null
+     * @throws IllegalArgumentException
+     *             if there is a malformed escape sequence
+     */
+    private static void unescape(CharSequence str, int start, int end, StringBuilder buff) {
+        for (int pos = start; pos < end; pos++) {
+            char ch = str.charAt(pos);
+            if (ch == '\\') {
+                if (pos + 1 >= end) {
+                    throw new IllegalArgumentException("Incomplete escape sequence at position " + pos);
+                }
+
+                ch = str.charAt(pos + 1);
+                switch (ch) {
+                case 'u':
+                    if (pos + 6 > end) {
+                        throw new IllegalArgumentException("Malformed unicode escape sequence at position " + pos);
+                    }
+                    int code = 0;
+                    for (int ix = pos + 2; ix < pos + 6; ix++) {
+                        final int digit = Character.digit(str.charAt(ix), 16);
+                        if (digit < 0) {
+                            throw new IllegalArgumentException("Malformed unicode escape sequence at position " + pos);
+                        }
+                        code = (code << 4) | digit;
+                    }
+                    ch = (char) code;
+                    pos += 5;
+                    break;
+
+                case 't':
+                    ch = '\t';
+                    pos++;
+                    break;
+                case 'r':
+                    ch = '\r';
+                    pos++;
+                    break;
+                case 'n':
+                    ch = '\n';
+                    pos++;
+                    break;
+                case 'f':
+                    ch = '\f';
+                    pos++;
+                    break;
+                default:
+                    pos++;
+                }
+            }
+            if (buff != null) {
+                buff.append(ch);
+            }
+        }
+    }
+
 }
@@ -19,6 +19,7 @@
  */
 package net.shredzone.jinn.property;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.Writer;
@@ -27,6 +28,9 @@ import java.util.Arrays;
 /**
  * This Writer writes a properties file and converts it into a uniform stream. Unicode
  * characters will be escaped. Too long lines will be wrapped properly.
+ * <p>
+ * The output is buffered. It is only written to the underlying OutputStream when the
+ * buffer is full, or when the writer is flushed or closed.
  *
  * @author Richard "Shred" Körber
  */
@@ -34,12 +38,18 @@ public class PropertiesWriter extends Writer {
     private final static char[] HEX = new char[] {
             '0', '1', '2', '3', '4', '5', '6', '7',
             '8', '9', 'A', 'B', 'C', 'D', 'E', 'F' };
+    private static final int BUFFER_SIZE = 8192;
 
     private final OutputStream out;
+    private final byte[] bbuf = new byte[BUFFER_SIZE];
+    private int bpos = 0;
     private String lineseparator = System.getProperty("line.separator");
     private int indent = 24;
     private int wrapindent = 4;
     private int eolmark = 79;
+    private Format format;
+    private ByteArrayOutputStream encodeBuffer;
+    private PropertiesWriter encodeWriter;
 
     /**
      * Create a new PropertiesWriter for the given OutputStream.
@@ -51,6 +61,25 @@ public class PropertiesWriter extends Writer {
         this.out = out;
     }
 
+    /**
+     * Create a new PropertiesWriter for the given OutputStream, using the same settings
+     * as another PropertiesWriter.
+     *
+     * @param out
+     *            OutputStream to be used
+     * @param format
+     *            PropertiesWriter to copy the settings from
+     */
+    PropertiesWriter(OutputStream out, PropertiesWriter format) {
+        this.out = out;
+        synchronized (format.lock) {
+            this.lineseparator = format.lineseparator;
+            this.indent = format.indent;
+            this.wrapindent = format.wrapindent;
+            this.eolmark = format.eolmark;
+        }
+    }
+
     /**
      * Change the line separator. By default, the operating system's line separator will
      * be used.
@@ -61,6 +90,7 @@ public class PropertiesWriter extends Writer {
     public void setLineSeparator(String sep) {
         synchronized (lock) {
             this.lineseparator = sep;
+            settingsChanged();
         }
     }
 
@@ -74,6 +104,7 @@ public class PropertiesWriter extends Writer {
     public void setValueIndent(int pos) {
         synchronized (lock) {
             this.indent = pos;
+            settingsChanged();
         }
     }
 
@@ -88,6 +119,7 @@ public class PropertiesWriter extends Writer {
     public void setWrapIndent(int pos) {
         synchronized (lock) {
             this.wrapindent = pos;
+            settingsChanged();
         }
     }
 
@@ -103,6 +135,7 @@ public class PropertiesWriter extends Writer {
     public void setLineLength(int max) {
         synchronized (lock) {
             this.eolmark = max;
+            settingsChanged();
         }
     }
 
@@ -127,19 +160,84 @@ public class PropertiesWriter extends Writer {
     @Override
     public void write(char[] cbuf, int off, int len) throws IOException {
         synchronized (lock) {
-            byte[] bbuf = new byte[len];
+            final int end = off + len;
+            while (off < end) {
+                if (bpos == bbuf.length) {
+                    flushBuffer();
+                }
 
-            for (int ix = 0; ix < len; ix++) {
-                if (cbuf[ix + off] > 255) {
-                    // Should not happen since we take care for proper escaping.
-                    // Anyhow, we now got a character we cannot write, so bail out.
-                    throw new IOException("Unencoded character in stream: '" + cbuf[ix]
-                        + "'");
+                final int cnt = Math.min(end - off, bbuf.length - bpos);
+                for (int ix = 0; ix < cnt; ix++) {
+                    final char ch = cbuf[off + ix];
+                    if (ch > 255) {
+                        // Should not happen since we take care for proper escaping.
+                        // Anyhow, we now got a character we cannot write, so bail out.
+                        throw new IOException("Unencoded character in stream: '" + ch + "'");
+                    }
+                    bbuf[bpos + ix] = (byte) ch;
                 }
-                bbuf[ix] = (byte) (cbuf[ix + off] & 0xFF);
+                bpos += cnt;
+                off += cnt;
             }
+        }
+    }
 
-            out.write(bbuf);
+    /**
+     * Write a part of a String to the output stream. It is required that all characters
+     * are ISO-8859-1 encodable. If a char cannot be encoded, an exception will be thrown.
+     *
+     * @param str
+     *            String to be sent.
+     * @param off
+     *            Offset in that String.
+     * @param len
+     *            Number of characters to be sent.
+     * @throws IOException
+     *             if could not write.
+     */
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        synchronized (lock) {
+            final int end = off + len;
+            while (off < end) {
+                if (bpos == bbuf.length) {
+                    flushBuffer();
+                }
+
+                final int cnt = Math.min(end - off, bbuf.length - bpos);
+                for (int ix = 0; ix < cnt; ix++) {
+                    final char ch = str.charAt(off + ix);
+                    if (ch > 255) {
+                        throw new IOException("Unencoded character in stream: '" + ch + "'");
+                    }
+                    bbuf[bpos + ix] = (byte) ch;
+                }
+                bpos += cnt;
+                off += cnt;
+            }
+        }
+    }
+
+    /**
+     * Write a single character to the output stream. It is required that the character is
+     * ISO-8859-1 encodable.
+     *
+     * @param c
+     *            Character to be sent.
+     * @throws IOException
+     *             if could not write.
+     */
+    @Override
+    public void write(int c) throws IOException {
+        synchronized (lock) {
+            final char ch = (char) c;
+            if (ch > 255) {
+                throw new IOException("Unencoded character in stream: '" + ch + "'");
+            }
+            if (bpos == bbuf.length) {
+                flushBuffer();
+            }
+            bbuf[bpos++] = (byte) ch;
         }
     }
 
@@ -152,6 +250,7 @@ public class PropertiesWriter extends Writer {
     @Override
     public void flush() throws IOException {
         synchronized (lock) {
+            flushBuffer();
             out.flush();
         }
     }
@@ -165,7 +264,11 @@ public class PropertiesWriter extends Writer {
     @Override
     public void close() throws IOException {
         synchronized (lock) {
-            out.close();
+            try {
+                flushBuffer();
+            } finally {
+                out.close();
+            }
         }
     }
 
@@ -196,7 +299,19 @@ public class PropertiesWriter extends Writer {
      *             if could not write.
      */
     public void writeEscaped(String str) throws IOException {
-        write(escape(str));
+        synchronized (lock) {
+            final int len = str.length();
+            for (int ix = 0; ix < len; ix++) {
+                final char ch = str.charAt(ix);
+                if (ix == 0 && ch == ' ') {
+                    // A leading blank which is to be escaped
+                    put('\\');
+                    put(' ');
+                } else {
+                    putEscaped(ch);
+                }
+            }
+        }
     }
 
     /**
@@ -211,10 +326,10 @@ public class PropertiesWriter extends Writer {
      *             if could not write.
      */
     public int writeIndented(String str) throws IOException {
-        char[] buffer = new char[indent];
-        Arrays.fill(buffer, ' ');
-        write(buffer);
-        return buffer.length;
+        synchronized (lock) {
+            writeSpaces(indent);
+            return indent;
+        }
     }
 
     /**
@@ -229,29 +344,33 @@ public class PropertiesWriter extends Writer {
      *             if could not write.
      */
     public int writeKey(String str) throws IOException {
-        // --- Indent the subsequent text ---
-        String spc = "";
-        while (str.length() + spc.length() < indent) {
-            spc += " "; // yep, this is not really performant... ;)
-        }
-        final int actualLength = str.length() + spc.length();
+        synchronized (lock) {
+            final int len = str.length();
+            for (int ix = 0; ix < len; ix++) {
+                final char ch = str.charAt(ix);
+                if (ch == ' ' || ch == ':' || ch == '='
+                        || (ix == 0 && (ch == '#' || ch == '!'))) {
+                    // Blanks, separator marks and leading comment signs are escaped
+                    put('\\');
+                    put(ch);
+                } else {
+                    putEscaped(ch);
+                }
+            }
 
-        // --- Replace all spaces within the key ---
-        str = str.replaceAll("\\ ", "\\\\ ") + spc;
+            // --- Indent the subsequent text ---
+            final int padding = Math.max(indent - len, 0);
+            if (len == 0 && padding > 0) {
+                // The key would start with a blank, escape it
+                put('\\');
+                put(' ');
+                writeSpaces(padding - 1);
+            } else {
+                writeSpaces(padding);
+            }
 
-        // --- Take care for comment signs ---
-        if (str.charAt(0) == '#' || str.charAt(0) == '!') {
-            // Starting like a comment, escape it
-            str = '\\' + str;
+            return len + padding;
         }
-
-        // --- Replace all separator marks ---
-        str = str.replaceAll("\\:", "\\\\:");
-        str = str.replaceAll("\\=", "\\\\=");
-
-        // --- Write escaped string ---
-        writeEscaped(str);
-        return actualLength;
     }
 
     /**
@@ -368,9 +487,7 @@ public class PropertiesWriter extends Writer {
      */
     public void writeWrapIndent() throws IOException {
         synchronized (lock) {
-            for (int cnt = wrapindent; cnt > 0; cnt--) {
-                write(' ');
-            }
+            writeSpaces(wrapindent);
         }
     }
 
@@ -384,7 +501,48 @@ public class PropertiesWriter extends Writer {
      */
     public void writeLine(Line l) throws IOException {
         synchronized (lock) {
-            l.write(this);
+            final byte[] bytes = encode(l);
+            if (bytes.length > bbuf.length - bpos) {
+                flushBuffer();
+            }
+            if (bytes.length > bbuf.length) {
+                out.write(bytes);
+            } else {
+                System.arraycopy(bytes, 0, bbuf, bpos, bytes.length);
+                bpos += bytes.length;
+            }
+        }
+    }
+
+    /**
+     * Encode a Line object with the current settings of this writer.
+     * <p>
+     * The encoded bytes of an {@link AbstractLine} are cached by the line, so unchanged
+     * lines are only encoded once for the same settings. Nothing is written to the
+     * stream.
+     *
+     * @param l
+     *            Line to be encoded.
+     * @return Bytes of the encoded line, including the line separator. The array must
+     *         not be modified.
+     * @throws IOException
+     *             if it could not encode.
+     */
+    byte[] encode(Line l) throws IOException {
+        synchronized (lock) {
+            if (!(l instanceof AbstractLine)) {
+                return serialize(l);
+            }
+
+            final AbstractLine al = (AbstractLine) l;
+            final Format fmt = getFormat();
+            byte[] bytes = al.getEncoded(fmt);
+            if (bytes == null) {
+                final int modCount = al.getModCount();
+                bytes = serialize(l);
+                al.setEncoded(fmt, modCount, bytes);
+            }
+            return bytes;
         }
     }
 
@@ -393,61 +551,167 @@ public class PropertiesWriter extends Writer {
      */
 
     /**
-     * Escape a String. Characters not encodable in ISO-8859-1 are unicode escaped.
-     * Additionally, some special control characters are replaced by their escape
-     * sequence. Optionally leading white spaces can be escaped too.
+     * Serialize a Line object with the current settings of this writer.
      *
-     * @param str
-     *            String to be converted
-     * @param esc
-     *            true: escape leading white spaces
-     * @return Escaped String
+     * @param l
+     *            Line to be serialized.
+     * @return Bytes of the serialized line
+     * @throws IOException
+     *             if it could not serialize.
      */
-    private String escape(String str) {
-        boolean esc = true;
-        StringBuilder buff = new StringBuilder();
+    private byte[] serialize(Line l) throws IOException {
+        if (encodeWriter == null) {
+            encodeBuffer = new ByteArrayOutputStream(128);
+            encodeWriter = new PropertiesWriter(encodeBuffer, this);
+        }
+        encodeBuffer.reset();
+        l.write(encodeWriter);
+        encodeWriter.flush();
+        return encodeBuffer.toByteArray();
+    }
 
-        final int len = str.length();
-        for (int ix = 0; ix < len; ix++) {
-            final char ch = str.charAt(ix);
+    /**
+     * Get the current settings of this writer.
+     *
+     * @return Format containing the current settings
+     */
+    private Format getFormat() {
+        if (format == null) {
+            format = new Format(lineseparator, indent, wrapindent, eolmark);
+        }
+        return format;
+    }
 
-            if (esc && ch == ' ') {
-                // A blank which is to be escaped
-                buff.append("\\ ");
+    /**
+     * The settings of this writer were changed. Lines must be encoded again.
+     */
+    private void settingsChanged() {
+        format = null;
+        encodeBuffer = null;
+        encodeWriter = null;
+    }
 
-            } else if ((ch >= 32 && ch <= 127) || (ch >= 160 && ch <= 255)) {
-                // A displayable ISO-8859-1 character
-                buff.append(ch);
+    /**
+     * Write the buffered bytes to the output stream.
+     *
+     * @throws IOException
+     *             if could not write.
+     */
+    private void flushBuffer() throws IOException {
+        if (bpos > 0) {
+            out.write(bbuf, 0, bpos);
+            bpos = 0;
+        }
+    }
 
-            } else {
-                // Something else...
-                switch (ch) {
-                case '\t':
-                    buff.append("\\t");
-                    break;
-                case '\r':
-                    buff.append("\\r");
-                    break;
-                case '\n':
-                    buff.append("\\n");
-                    break;
-                case '\f':
-                    buff.append("\\f");
-                    break;
-                default:
-                    buff.append("\\u");
-                    buff.append(HEX[ch >> 12 & 0xF]);
-                    buff.append(HEX[ch >> 8 & 0xF]);
-                    buff.append(HEX[ch >> 4 & 0xF]);
-                    buff.append(HEX[ch & 0xF]);
-                    break;
-                }
+    /**
+     * Write a number of spaces.
+     *
+     * @param cnt
+     *            Number of spaces to be written
+     * @throws IOException
+     *             if could not write.
+     */
+    private void writeSpaces(int cnt) throws IOException {
+        while (cnt > 0) {
+            if (bpos == bbuf.length) {
+                flushBuffer();
+            }
+
+            final int len = Math.min(cnt, bbuf.length - bpos);
+            Arrays.fill(bbuf, bpos, bpos + len, (byte) ' ');
+            bpos += len;
+            cnt -= len;
+        }
+    }
+
+    /**
+     * Write a single byte to the buffer.
+     *
+     * @param ch
+     *            Character to be written, must be ISO-8859-1 encodable
+     * @throws IOException
+     *             if could not write.
+     */
+    private void put(char ch) throws IOException {
+        if (bpos == bbuf.length) {
+            flushBuffer();
+        }
+        bbuf[bpos++] = (byte) ch;
+    }
+
+    /**
+     * Write an escaped character. Characters not encodable in ISO-8859-1 are unicode
+     * escaped. Additionally, some special control characters are replaced by their escape
+     * sequence.
+     *
+     * @param ch
+     *            Character to be written
+     * @throws IOException
+     *             if could not write.
+     */
+    private void putEscaped(char ch) throws IOException {
+        if ((ch >= 32 && ch <= 127) || (ch >= 160 && ch <= 255)) {
+            // A displayable ISO-8859-1 character
+            put(ch);
+
+        } else {
+            // Something else...
+            put('\\');
+            switch (ch) {
+            case '\t':
+                put('t');
+                break;
+            case '\r':
+                put('r');
+                break;
+            case '\n':
+                put('n');
+                break;
+            case '\f':
+                put('f');
+                break;
+            default:
+                put('u');
+                put(HEX[ch >> 12 & 0xF]);
+                put(HEX[ch >> 8 & 0xF]);
+                put(HEX[ch >> 4 & 0xF]);
+                put(HEX[ch & 0xF]);
+                break;
             }
+        }
+    }
+
+    /**
+     * The settings that affect the encoding of lines. Encoded lines can be reused by all
+     * writers with equal settings.
+     */
+    static final class Format {
+        private final String lineSeparator;
+        private final int indent;
+        private final int wrapIndent;
+        private final int lineLength;
+
+        public Format(String lineSeparator, int indent, int wrapIndent, int lineLength) {
+            this.lineSeparator = lineSeparator;
+            this.indent = indent;
+            this.wrapIndent = wrapIndent;
+            this.lineLength = lineLength;
+        }
 
-            esc = false; // No more space escaping after one char was written
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == this) return true;
+            if (!(obj instanceof Format)) return false;
+            final Format f = (Format) obj;
+            return indent == f.indent && wrapIndent == f.wrapIndent
+                    && lineLength == f.lineLength && lineSeparator.equals(f.lineSeparator);
         }
 
-        return buff.toString();
+        @Override
+        public int hashCode() {
+            return lineSeparator.hashCode() ^ (indent << 16) ^ (wrapIndent << 8) ^ lineLength;
+        }
     }
 
 }
@@ -30,6 +30,7 @@ import java.io.IOException;
 public class PropertyLine extends AbstractLine {
     private String key;
     private String value;
+    private volatile String escapedValue;
 
     /**
      * Create a new PropertyLine with the given key and value.
@@ -44,6 +45,24 @@ public class PropertyLine extends AbstractLine {
         this.value = value;
     }
 
+    /**
+     * Create a new PropertyLine with a value that is still escaped, as it was read from a
+     * properties file. The value is unescaped when it is accessed for the first time, so
+     * values that are never used are never unescaped.
+     *
+     * @param key
+     *            Property key
+     * @param escapedValue
+     *            Property value, still escaped. Malformed escape sequences are only
+     *            reported when the value is accessed.
+     * @return PropertyLine that was created
+     */
+    static PropertyLine createEscaped(String key, String escapedValue) {
+        final PropertyLine line = new PropertyLine(key, null);
+        line.escapedValue = escapedValue;
+        return line;
+    }
+
     /**
      * Write the internal state to a content line.
      *
@@ -77,8 +96,16 @@ public class PropertyLine extends AbstractLine {
      *            New value to be set
      */
     public void setValue(String val) {
-        final String old = value;
-        value = val;
+        String old;
+        try {
+            old = getValue();
+        } catch (IllegalArgumentException ex) {
+            old = null; // the malformed value is replaced
+        }
+        synchronized (this) {
+            escapedValue = null;
+            value = val;
+        }
         firePropertyChange("value", old, val);
     }
 
@@ -86,9 +113,26 @@ public class PropertyLine extends AbstractLine {
      * Get the value that is currently set.
      *
      * @return Current value.
+     * @throws IllegalArgumentException
+     *             if the value was read from a properties file, and contains a malformed
+     *             escape sequence
      */
     public String getValue() {
+        if (escapedValue != null) {
+            unescapeValue();
+        }
         return value;
     }
 
+    /**
+     * Unescape a value that was passed to {@link #createEscaped(String, String)}.
+     */
+    private synchronized void unescapeValue() {
+        final String escaped = escapedValue;
+        if (escaped != null) {
+            value = PropertiesReader.unescape(escaped, 0, escaped.length());
+            escapedValue = null;
+        }
+    }
+
 }
@@ -21,20 +21,32 @@ package net.shredzone.jinn.property;
 
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.charset.Charset;
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import javax.swing.ListModel;
+import javax.swing.SwingUtilities;
 import javax.swing.event.ListDataEvent;
 import javax.swing.event.ListDataListener;
 
@@ -42,7 +54,9 @@ import javax.swing.event.ListDataListener;
  * A PropertyModel contains a parsed properties file.
  * <p>
  * The file content itself is stored in a List, with one Line object entry for each
- * logical line of the file (i.e. continued lines are treatened as a single line).
+ * logical line of the file (i.e. continued lines are treatened as a single line). The
+ * List is a balanced tree, so lines can be accessed, inserted and removed at any position
+ * in O(log n) time.
  * <p>
  * There is also a Map available which gives access to the PropertyLine entries of the
  * list, by the resource key as Map key.
@@ -51,33 +65,287 @@ import javax.swing.event.ListDataListener;
  * <p>
  * This is a ListModel, so it can be immediately used in JList etc.
  * <p>
- * All methods are <em>not</em> synchronized!
+ * All methods are <em>not</em> synchronized! A model may be filled by any thread, but
+ * as soon as it is shown in Swing components, it should be confined to the AWT event
+ * dispatch thread by {@link #confine()}. From then on, it must only be accessed in that
+ * thread. Other threads pass their tasks to {@link #invoke(Runnable)}, or read a
+ * {@link #snapshot()}. If assertions are enabled, access from a wrong thread is
+ * detected.
  *
  * @author Richard "Shred" Körber
  */
 public class PropertyModel implements ListModel<Line> {
+
+    /**
+     * Reference files of at least this size are memory mapped by
+     * {@link MappedPropertyModel}, see {@link #readReference(File)}.
+     */
+    public static final long MAP_THRESHOLD = 1024 * 1024;
+
+    /**
+     * Files of at least this size are read into a buffer in a single piece and parsed in
+     * place, instead of being read through an InputStream.
+     */
+    public static final long BUFFER_THRESHOLD = 1024 * 1024;
+
+    /**
+     * Files of at least this size are parsed in parallel, if there is more than one
+     * processor available.
+     */
+    public static final long PARALLEL_THRESHOLD = 16 * 1024 * 1024;
+
+    /**
+     * Models with at least this number of lines that all need to be serialized, are
+     * serialized in parallel by {@link #write(File)}, if there is more than one processor
+     * available.
+     */
+    public static final int PARALLEL_WRITE_THRESHOLD = 64 * 1024;
+
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    private static final String WRONG_THREAD = "PropertyModel is confined to the event dispatch thread";
+
     private final PropertyChangeListener listener = new MyPropertyChangeListener();
-    private final List<Line> lContent = new ArrayList<Line>();
-    private final Map<String, PropertyLine> mResources = new HashMap<String, PropertyLine>();
+    private final LineList lContent = new LineList();
+    private final Map<String, PropertyLine> mResources = new KeyMap();
     private final Set<WeakReference<ListDataListener>> sListener
             = new HashSet<WeakReference<ListDataListener>>();
+    private int batchDepth = 0;
+    private ListDataEvent pendingEvent;
+    private volatile boolean confined = false;
 
     /**
      * Create an empty Resource.
      */
     public PropertyModel() {}
 
+    /**
+     * Read an ISO-8859-1 encoded reference .properties file into a new model, which is
+     * not meant to be edited. Files of at least {@link #MAP_THRESHOLD} are memory mapped
+     * by a {@link MappedPropertyModel}, so they are kept off the Java heap. Smaller files
+     * are read into a PropertyModel, which does not depend on the file afterwards.
+     *
+     * @param file
+     *            Reference .properties file to read
+     * @return PropertyModel containing the reference
+     * @throws IOException
+     *             if it could not read.
+     */
+    public static PropertyModel readReference(File file) throws IOException {
+        final PropertyModel model = (file.length() >= MAP_THRESHOLD
+                ? new MappedPropertyModel()
+                : new PropertyModel());
+        model.read(file);
+        return model;
+    }
+
     /**
      * Clear the current model. You will get a shiny new model object, as if it was
      * freshly constructed.
      */
     public void clear() {
         int cnt = lContent.size();
+        if (cnt == 0) return;
+
+        prepareChange(ListDataEvent.INTERVAL_REMOVED, 0, cnt - 1);
         lContent.clear();
         mResources.clear();
         fireDataRemoved(0, cnt - 1);
     }
 
+    /**
+     * Start a batch of changes. Until the batch is ended, the ListDataListeners are not
+     * notified about every single change. Instead, consecutive changes of the same kind
+     * are merged, and are notified as a single ListDataEvent when the batch ends. For
+     * example, when many lines are added one after the other, only a single event is
+     * sent, covering all of the added lines.
+     * <p>
+     * Batches can be nested. Each invocation of this method must be followed by an
+     * invocation of {@link #endBatch()}, preferably in a <code>finally</code> block.
+     */
+    public void beginBatch() {
+        assert isOwner() : WRONG_THREAD;
+        batchDepth++;
+    }
+
+    /**
+     * End a batch of changes that was started by {@link #beginBatch()}. When the
+     * outermost batch is ended, the ListDataListeners are notified about all changes
+     * that are still pending.
+     */
+    public void endBatch() {
+        assert isOwner() : WRONG_THREAD;
+        if (batchDepth == 0) {
+            throw new IllegalStateException("No batch was started");
+        }
+        if (--batchDepth == 0) {
+            flushEvent();
+        }
+    }
+
+    /**
+     * Confine this model to the AWT event dispatch thread. This should be done before
+     * the model is shown in Swing components, since they expect all ListDataEvents to be
+     * fired in that thread.
+     * <p>
+     * After that, the model must only be accessed in the event dispatch thread. Other
+     * threads use {@link #invoke(Runnable)} for accessing the model, or read a
+     * {@link #snapshot()}.
+     */
+    public void confine() {
+        confined = true;
+    }
+
+    /**
+     * Check if this model is confined to the AWT event dispatch thread.
+     *
+     * @return true: model is confined
+     */
+    public boolean isConfined() {
+        return confined;
+    }
+
+    /**
+     * Run a task that accesses this model. If the model is confined and this is not the
+     * AWT event dispatch thread, the task is run in the event dispatch thread, and this
+     * method waits until it is completed. Otherwise the task is run immediately.
+     * <p>
+     * The task is run in a batch (see {@link #beginBatch()}), so the ListDataListeners
+     * are notified about its changes by as few events as possible, when the task is
+     * completed.
+     *
+     * @param task
+     *            Task to be run
+     * @throws IllegalStateException
+     *             if the thread was interrupted while waiting for the task to complete,
+     *             or if the task threw a checked exception
+     */
+    public void invoke(final Runnable task) {
+        final Runnable batch = new Runnable() {
+            @Override
+            public void run() {
+                beginBatch();
+                try {
+                    task.run();
+                } finally {
+                    endBatch();
+                }
+            }
+        };
+
+        if (isOwner()) {
+            batch.run();
+            return;
+        }
+
+        try {
+            SwingUtilities.invokeAndWait(batch);
+        } catch (InvocationTargetException ex) {
+            final Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the event dispatch thread", ex);
+        }
+    }
+
+    /**
+     * Check if the current thread may access this model.
+     *
+     * @return true: access is permitted
+     */
+    private boolean isOwner() {
+        return !confined || SwingUtilities.isEventDispatchThread();
+    }
+
+    /**
+     * Fill a model by reading an ISO-8859-1 encoded .properties file. The model is
+     * cleared before.
+     * <p>
+     * Large files (see {@link #BUFFER_THRESHOLD}) are read in a single piece and parsed
+     * in place, smaller files are read through an InputStream. Huge files (see
+     * {@link #PARALLEL_THRESHOLD}) are parsed in parallel.
+     *
+     * @param file
+     *            .properties file to read
+     * @throws IOException
+     *             if it could not read.
+     */
+    public void read(File file) throws IOException {
+        read(file, ISO_8859_1);
+    }
+
+    /**
+     * Fill a model by reading a .properties file with the given Charset. The model is
+     * cleared before.
+     * <p>
+     * Large files (see {@link #BUFFER_THRESHOLD}) are read in a single piece and parsed
+     * in place, smaller files are read through an InputStream. Huge ISO-8859-1 encoded
+     * files (see {@link #PARALLEL_THRESHOLD}) are parsed in parallel.
+     * <p>
+     * The file is not memory mapped. A mapping is only released when it is garbage
+     * collected, and until then, some platforms refuse to replace the file when the
+     * model is saved.
+     *
+     * @param file
+     *            .properties file to read
+     * @param charset
+     *            Charset of the file, or null to detect the Charset (see
+     *            {@link PropertiesReader#setCharset(Charset)})
+     * @throws IOException
+     *             if it could not read.
+     */
+    public void read(File file, Charset charset) throws IOException {
+        final boolean plain = ISO_8859_1.equals(charset);
+        final FileInputStream in = new FileInputStream(file);
+        try {
+            final SourceFile src = (plain ? new SourceFile(file) : null);
+            final FileChannel fc = in.getChannel();
+            final long size = fc.size();
+            if (size >= BUFFER_THRESHOLD && size <= Integer.MAX_VALUE) {
+                final ByteBuffer buffer = readFully(fc, (int) size);
+                if (plain && size >= PARALLEL_THRESHOLD && Runtime.getRuntime().availableProcessors() > 1) {
+                    readParallel(buffer, src);
+                } else {
+                    final PropertiesReader reader = (plain ? new PropertiesReader(buffer) : new PropertiesReader(buffer, charset));
+                    reader.setSourceTag(src);
+                    read(reader);
+                }
+            } else {
+                final PropertiesReader reader = (plain ? new PropertiesReader(in) : new PropertiesReader(in, charset));
+                reader.setSourceTag(src);
+                read(reader);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Read the content of a file into a heap buffer.
+     *
+     * @param fc
+     *            FileChannel of the file
+     * @param size
+     *            Size of the file
+     * @return ByteBuffer containing the file content, from position 0 up to its limit
+     * @throws IOException
+     *             if it could not read.
+     */
+    private static ByteBuffer readFully(FileChannel fc, int size) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(size);
+        while (buffer.hasRemaining() && fc.read(buffer) >= 0) {
+            // read until the buffer is full or the end of file is reached
+        }
+        ((Buffer) buffer).flip();
+        return buffer;
+    }
+
     /**
      * Fill a model by reading a .properties file from an InputStream. The model is
      * cleared before.
@@ -101,10 +369,53 @@ public class PropertyModel implements ListModel<Line> {
      *             if it could not read.
      */
     public void read(PropertiesReader in) throws IOException {
-        clear();
-        Line readLine;
-        while ((readLine = in.readLine()) != null) {
-            addLine(readLine);
+        beginBatch();
+        try {
+            clear();
+            Line readLine;
+            while ((readLine = in.readLine()) != null) {
+                addLine(readLine);
+            }
+        } finally {
+            endBatch();
+        }
+    }
+
+    /**
+     * Fill a model by parsing a .properties file in parallel. The file is split into
+     * chunks at logical line boundaries, and the chunks are parsed concurrently. The
+     * model is cleared before, but only after the file was successfully parsed.
+     *
+     * @param buffer
+     *            ByteBuffer containing the .properties file, from its current position up
+     *            to its limit.
+     * @throws IOException
+     *             if it could not read.
+     */
+    public void readParallel(ByteBuffer buffer) throws IOException {
+        readParallel(buffer, null);
+    }
+
+    /**
+     * Fill a model by parsing a .properties file in parallel.
+     *
+     * @param buffer
+     *            ByteBuffer containing the .properties file
+     * @param sourceTag
+     *            Object identifying the source file, or null
+     * @throws IOException
+     *             if it could not read.
+     */
+    private void readParallel(ByteBuffer buffer, Object sourceTag) throws IOException {
+        final List<Line> lLines = ParallelPropertiesReader.read(buffer, sourceTag);
+        beginBatch();
+        try {
+            clear();
+            for (Line line : lLines) {
+                addLine(line);
+            }
+        } finally {
+            endBatch();
         }
     }
 
@@ -131,9 +442,70 @@ public class PropertyModel implements ListModel<Line> {
      *             if it could not write.
      */
     public void write(PropertiesWriter out) throws IOException {
-        for (Line line : lContent) {
+        for (Line line : getLines()) {
             out.writeLine(line);
         }
+        out.flush();
+    }
+
+    /**
+     * Write the current content of this model to a valid .properties file by using a
+     * GatheringByteChannel, e.g. a FileChannel. The lines are serialized in parallel,
+     * and then written in a single gathering write. This is faster than
+     * {@link #write(PropertiesWriter)} for huge models.
+     * <p>
+     * The result is identical to {@link #write(PropertiesWriter)}, with a PropertiesWriter
+     * having the same settings. The model must not be modified while it is written.
+     *
+     * @param out
+     *            GatheringByteChannel to write the properties file to. It will not be
+     *            closed.
+     * @param format
+     *            PropertiesWriter providing the settings (line separator, indents, line
+     *            length). Nothing is written to it.
+     * @throws IOException
+     *             if it could not write.
+     */
+    public void writeParallel(GatheringByteChannel out, PropertiesWriter format) throws IOException {
+        final List<Line> lines = getLines();
+        ParallelPropertiesWriter.write(Arrays.asList(lines.toArray(new Line[lines.size()])),
+                format, out, null);
+    }
+
+    /**
+     * Write the current content of this model to a .properties file.
+     * <p>
+     * If the model was read from an ISO-8859-1 encoded file by {@link #read(File)}, and
+     * that file was not modified since, all lines that are still unchanged are copied
+     * from that file byte by byte, without being serialized again. Only changed and new
+     * lines are written by a {@link PropertiesWriter}. The file may also be the file the
+     * model was read from.
+     * <p>
+     * The content is first written to a temporary file in the same directory, which then
+     * atomically replaces the target file. If writing fails, the target file is left
+     * untouched.
+     * <p>
+     * See {@link SaveEngine} for writing the model in background.
+     *
+     * @param file
+     *            .properties file to write to
+     * @throws IOException
+     *             if it could not write.
+     */
+    public void write(File file) throws IOException {
+        final Snapshot snapshot = saveSnapshot();
+        snapshot.write(file);
+        snapshot.commit();
+    }
+
+    /**
+     * Take a snapshot of the current content of this model, for saving it. It takes O(1)
+     * time, the lines are only inspected when the snapshot is written.
+     *
+     * @return Snapshot
+     */
+    Snapshot saveSnapshot() {
+        return new Snapshot(snapshot());
     }
 
     /**
@@ -147,6 +519,32 @@ public class PropertyModel implements ListModel<Line> {
         return Collections.unmodifiableList(lContent);
     }
 
+    /**
+     * Get an immutable snapshot of all lines contained in this model. It takes O(1) time,
+     * since the snapshot shares its structure with this model. Later changes to this
+     * model, like adding or removing lines, do not change the snapshot.
+     * <p>
+     * The snapshot can be read by background threads without locking, while the model
+     * is edited. It contains the same Line objects as this model, so changes to the
+     * content of a Line are still visible in the snapshot. If the model is confined, the
+     * snapshot is taken in the AWT event dispatch thread.
+     *
+     * @return Immutable List containing all Line objects of this model, in sequence
+     */
+    public List<Line> snapshot() {
+        if (!isOwner()) {
+            final List<List<Line>> result = new ArrayList<List<Line>>(1);
+            invoke(new Runnable() {
+                @Override
+                public void run() {
+                    result.add(snapshot());
+                }
+            });
+            return result.get(0);
+        }
+        return lContent.snapshot();
+    }
+
     /**
      * Get a Map of all PropertyLine contained in this Resource. The Map's key will be the
      * name of the resource, the Map's value a reference to the appropriate PropertyLine
@@ -169,6 +567,19 @@ public class PropertyModel implements ListModel<Line> {
         return mResources.get(key);
     }
 
+    /**
+     * Get the index of the PropertyLine for the given resource key. This is faster than
+     * searching the line in the list.
+     *
+     * @param key
+     *            Resource key to find
+     * @return Index of the PropertyLine, or -1 if the key is not known.
+     */
+    public int getLineIndex(String key) {
+        final PropertyLine line = mResources.get(key);
+        return (line != null ? indexOf(line) : -1);
+    }
+
     /**
      * Add a Line to this model. The line is added to the end of the file.
      *
@@ -178,6 +589,7 @@ public class PropertyModel implements ListModel<Line> {
     protected void addLine(Line line) {
         // --- Add to the Model ---
         final int index = lContent.size();
+        prepareChange(ListDataEvent.INTERVAL_ADDED, index, index);
         lContent.add(line);
 
         // --- Remember Key ---
@@ -187,7 +599,7 @@ public class PropertyModel implements ListModel<Line> {
         }
 
         // --- Register a Listener ---
-        line.addPropertyChangeListener(listener);
+        attach(line);
 
         // --- Notify about Change ---
         fireDataAdded(index, index);
@@ -201,21 +613,66 @@ public class PropertyModel implements ListModel<Line> {
      */
     protected void removeLine(Line line) {
         // --- Remove our Listener ---
-        line.removePropertyChangeListener(listener);
+        detach(line);
 
         // --- Remove the Key ---
         if (line instanceof PropertyLine) {
             final String key = ((PropertyLine) line).getKey();
-            mResources.remove(key);
+            if (mResources.get(key) == line) {
+                mResources.remove(key);
+            }
         }
         // --- Remove from Model ---
-        final int index = lContent.indexOf(line);
+        final int index = indexOf(line);
+        if (index < 0) return;
+        prepareChange(ListDataEvent.INTERVAL_REMOVED, index, index);
         lContent.remove(index);
 
         // --- Notify about Change ---
         fireDataRemoved(index, index);
     }
 
+    /**
+     * Watch a Line for changes. AbstractLines notify this model directly, other lines
+     * get a PropertyChangeListener.
+     *
+     * @param line
+     *            Line to be watched
+     */
+    private void attach(Line line) {
+        if (!(line instanceof AbstractLine && ((AbstractLine) line).attach(this))) {
+            line.addPropertyChangeListener(listener);
+        }
+    }
+
+    /**
+     * Stop watching a Line for changes.
+     *
+     * @param line
+     *            Line that was watched
+     */
+    private void detach(Line line) {
+        if (!(line instanceof AbstractLine && ((AbstractLine) line).detach(this))) {
+            line.removePropertyChangeListener(listener);
+        }
+    }
+
+    /**
+     * A Line changed its content. Notify our Listeners about that change.
+     *
+     * @param line
+     *            Line that was changed
+     */
+    void lineChanged(Line line) {
+        // --- Find out the Line Index ---
+        final int index = indexOf(line);
+        if (index >= 0) {
+            fireDataChanged(index, index);
+        } else {
+            // The Line was not added to this Model?! Do nothing...
+        }
+    }
+
     /**
      * Insert a Line into a certain index of this model.
      *
@@ -226,6 +683,7 @@ public class PropertyModel implements ListModel<Line> {
      */
     protected void insertLine(int index, Line line) {
         // --- Insert into Model ---
+        prepareChange(ListDataEvent.INTERVAL_ADDED, index, index);
         lContent.add(index, line);
 
         // --- Remember Key ---
@@ -235,18 +693,29 @@ public class PropertyModel implements ListModel<Line> {
         }
 
         // --- Register a Listener ---
-        line.addPropertyChangeListener(listener);
+        attach(line);
 
         // --- Notify about Change ---
         fireDataAdded(index, index);
     }
 
+    /**
+     * Get the index of a Line in this model. The lines are kept in a balanced tree, so
+     * this takes O(log n) time.
+     *
+     * @param line
+     *            Line to find
+     * @return Index of the Line, or -1 if it is not part of this model
+     */
+    protected int indexOf(Line line) {
+        return lContent.indexOf(line);
+    }
+
     /**
      * Merge a PropertyModel into this model.
      * <p>
-     * Merging is a rather destructive process, since we're not dealing with source code,
-     * but with translations. Basically, the current model will be replaced with the
-     * reference model passed to this method. Anyhow there are a few exceptions:
+     * Basically, the current model will be replaced with the reference model passed to
+     * this method. Anyhow there are a few exceptions:
      * <ul>
      * <li>The first block of comments will be kept unchanged, since it is assumed that
      * this is an individual header (containing translation specific comments and revision
@@ -260,8 +729,13 @@ public class PropertyModel implements ListModel<Line> {
      * in the merged model, will be removed.
      * </ul>
      * <p>
-     * Future implementations of this method may behave a little smarter and more
-     * non-destructive than that.
+     * The merge is performed in place. The PropertyLines of this model are kept, as well
+     * as comment and empty lines that have an identical counterpart in the merged model.
+     * Only lines that are missing are inserted (as clones of the merged model's lines),
+     * and only lines that are obsolete or out of sequence are removed. The
+     * ListDataListeners are only notified about these changes, so merging an updated
+     * reference model into a translation only causes as many events as there are
+     * differences.
      *
      * @param r
      *            PropertyModel to merge from.
@@ -270,83 +744,308 @@ public class PropertyModel implements ListModel<Line> {
      *         added.
      */
     public Set<String> merge(PropertyModel r) {
+        return merge(null, r).getAddedKeys();
+    }
+
+    /**
+     * Merge a PropertyModel into this model, using a three-way merge.
+     * <p>
+     * This works like {@link #merge(PropertyModel)}, but also compares the merged model
+     * to the base reference model, which is the reference this model was last merged
+     * with. If the source text of a key was changed since the base reference, the key's
+     * translation is outdated:
+     * <ul>
+     * <li>If the translation is still identical to the old source text, the key was not
+     * translated yet. The new source text is taken.
+     * <li>Otherwise the translation is kept, but the key is classified as
+     * {@link MergeResult.Change#CHANGED}, so it can be flagged for re-translation.
+     * </ul>
+     * <p>
+     * Keys are looked up in hash maps, and values are compared by their hash codes first,
+     * so the merge takes linear time.
+     *
+     * @param base
+     *            Base reference model, or null if unknown
+     * @param r
+     *            PropertyModel to merge from.
+     * @return {@link MergeResult} classifying the keys by their changes
+     */
+    public MergeResult merge(PropertyModel base, PropertyModel r) {
         // The following abbreviations mean:
         // self = this model, where data is merged into
         // ref = reference model, where data is merged from
+        // base = reference model, that has been merged into this model before
+        assert isOwner() : WRONG_THREAD;
 
-        // --- Keep the old header ---
-        List<CommentLine> lHeader = new ArrayList<CommentLine>();
-        for (Line line : lContent) {
-            if (line instanceof CommentLine) {
-                lHeader.add((CommentLine) line);
-            } else {
-                break;
-            }
+        final Line[] self = lContent.toArray(new Line[lContent.size()]);
+        final List<Line> lRef = r.getLines();
+        final Line[] ref = lRef.toArray(new Line[lRef.size()]);
+
+        // --- Find the old header ---
+        int selfHeader = 0;
+        while (selfHeader < self.length && self[selfHeader] instanceof CommentLine) {
+            selfHeader++;
         }
 
-        // --- Keep the map of translated properties ---
+        // --- Collect the lines that may be reused ---
         final Map<String, PropertyLine> mOldMap = new HashMap<String, PropertyLine>(mResources);
+        final Map<String, List<Line>> mOldText = new HashMap<String, List<Line>>();
+        final Map<String, List<Line>> mOldProps = new HashMap<String, List<Line>>();
+        for (int ix = selfHeader; ix < self.length; ix++) {
+            final Line line = self[ix];
+            if (line instanceof PropertyLine) {
+                addToList(mOldProps, ((PropertyLine) line).getKey(), line);
+            } else {
+                addToList(mOldText, textOf(line), line);
+            }
+        }
 
-        // --- Clean up this model ---
-        clear();
-
-        // --- Fill with reference model ---
-        final int refSize = r.lContent.size();
+        // --- Build the merged sequence of lines ---
+        final List<Line> lTarget = new ArrayList<Line>(ref.length + selfHeader);
         int refIx = 0;
 
-        // --- First add a header ---
-        if (lHeader.size() > 0) {
-            // Add our own header
-            for (Line line : lHeader) {
-                addLine(line);
+        if (selfHeader > 0) {
+            // Keep our own header, and skip the reference's initial header
+            for (int ix = 0; ix < selfHeader; ix++) {
+                lTarget.add(self[ix]);
             }
-
-            // Skip the reference's initial header
-            while (refIx < refSize && r.lContent.get(refIx) instanceof CommentLine) {
+            while (refIx < ref.length && ref[refIx] instanceof CommentLine) {
                 refIx++;
             }
-
         } else {
             // Add the reference header
+            while (refIx < ref.length && ref[refIx] instanceof CommentLine) {
+                lTarget.add((Line) ref[refIx++].clone());
+            }
+        }
 
-            while (refIx < refSize && r.lContent.get(refIx) instanceof CommentLine) {
-                final Line refLine = r.lContent.get(refIx);
-                final Line refLineClone = (Line) refLine.clone();
-                addLine(refLineClone);
-                refIx++;
+        final Map<String, PropertyLine> mBase = (base != null
+                ? base.getResourceMap()
+                : Collections.<String, PropertyLine>emptyMap());
+        final Map<PropertyLine, String> mUpdates = new IdentityHashMap<PropertyLine, String>();
+        final MergeResult result = new MergeResult();
+        while (refIx < ref.length) {
+            final Line refLine = ref[refIx++];
+
+            if (refLine instanceof PropertyLine) {
+                // A property line: use the translation we already have
+                final String refPropKey = ((PropertyLine) refLine).getKey();
+                final PropertyLine selfProp = mOldMap.get(refPropKey);
+
+                if (selfProp != null) {
+                    // Key is known. Check if its source was changed since the base.
+                    String newValue = null;
+                    final PropertyLine baseProp = mBase.get(refPropKey);
+                    if (baseProp != null && !sameValue(baseProp, (PropertyLine) refLine)) {
+                        if (sameValue(baseProp, selfProp)) {
+                            // Not translated yet, so take the new source
+                            newValue = ((PropertyLine) refLine).getValue();
+                        } else {
+                            // Translated, but the translation is outdated now
+                            result.put(refPropKey, MergeResult.Change.CHANGED);
+                        }
+                    }
+
+                    // Keep our line. If the key is used more than once, keep the next
+                    // line of ours with that key and translation, or copy the
+                    // translation if there is none left.
+                    final PropertyLine selfSame = takeProperty(mOldProps, selfProp);
+                    if (selfSame != null) {
+                        if (newValue != null) {
+                            mUpdates.put(selfSame, newValue);
+                        }
+                        lTarget.add(selfSame);
+                    } else {
+                        final PropertyLine refPropClone = (PropertyLine) refLine.clone();
+                        refPropClone.setValue(newValue != null ? newValue : selfProp.getValue());
+                        lTarget.add(refPropClone);
+                    }
+                } else {
+                    // Key is not known! Remember that it was copied unchanged.
+                    result.put(refPropKey, MergeResult.Change.ADDED);
+                    lTarget.add((Line) refLine.clone());
+                }
+                continue;
+            }
+
+            // Reuse an identical line of our own, if there is one
+            final List<Line> lSame = mOldText.get(textOf(refLine));
+            if (lSame != null && !lSame.isEmpty()) {
+                lTarget.add(lSame.remove(0));
+            } else {
+                lTarget.add((Line) refLine.clone());
+            }
+        }
+
+        // --- Keys that are not used any more ---
+        final Map<String, PropertyLine> mRef = r.getResourceMap();
+        for (String key : mOldMap.keySet()) {
+            if (!mRef.containsKey(key)) {
+                result.put(key, MergeResult.Change.REMOVED);
+            }
+        }
+
+        // --- Transform this model into the merged sequence ---
+        beginBatch();
+        try {
+            applySequence(self, lTarget);
+            for (Map.Entry<PropertyLine, String> entry : mUpdates.entrySet()) {
+                entry.getKey().setValue(entry.getValue());
             }
+        } finally {
+            endBatch();
         }
 
-        lHeader = null; // We don't need it any longer
+        return result;
+    }
 
-        // --- Now add the rest ---
-        final Set<String> sNewKeys = new HashSet<String>();
-        while (refIx < refSize) {
-            final Line refLine = r.lContent.get(refIx++);
-            final Line refLineClone = (Line) refLine.clone();
+    /**
+     * Check if two PropertyLines have the same value. The hash codes are compared first,
+     * so different values are usually detected without comparing the strings.
+     *
+     * @param a
+     *            PropertyLine
+     * @param b
+     *            PropertyLine
+     * @return true if both values are equal
+     */
+    private static boolean sameValue(PropertyLine a, PropertyLine b) {
+        final String va = a.getValue();
+        final String vb = b.getValue();
+        return va.hashCode() == vb.hashCode() && va.equals(vb);
+    }
 
-            if (refLineClone instanceof PropertyLine) {
-                // A property line: fill it with the translation we already have
+    /**
+     * Transform the content of this model into the given sequence of lines, by removing
+     * and inserting as few lines as possible.
+     * <p>
+     * Lines are compared by identity. The longest subsequence of lines that are contained
+     * in the current content and in the target sequence, in the same order, is kept. All
+     * other current lines are removed, and all other target lines are inserted.
+     *
+     * @param current
+     *            Current content of this model
+     * @param lTarget
+     *            Target sequence. It must not contain a Line more than once.
+     */
+    private void applySequence(Line[] current, List<Line> lTarget) {
+        final Map<Line, Integer> mCurrentIndex = new IdentityHashMap<Line, Integer>();
+        for (int ix = 0; ix < current.length; ix++) {
+            mCurrentIndex.put(current[ix], ix);
+        }
 
-                final PropertyLine refPropClone = (PropertyLine) refLineClone;
-                final String refPropKey = refPropClone.getKey();
+        // --- Find the longest increasing subsequence of current positions ---
+        final int size = lTarget.size();
+        final int[] positions = new int[size];   // current position of each target line, or -1
+        final int[] tails = new int[size];       // target index of the tail of each length
+        final int[] previous = new int[size];    // target index of the predecessor
+        int length = 0;
+        for (int ix = 0; ix < size; ix++) {
+            final Integer pos = mCurrentIndex.get(lTarget.get(ix));
+            positions[ix] = (pos != null ? pos : -1);
+            if (positions[ix] < 0) continue;
 
-                if (mOldMap.containsKey(refPropKey)) {
-                    // Key is known, change the value.
-                    final PropertyLine selfProp = mOldMap.get(refPropKey);
-                    refPropClone.setValue(selfProp.getValue());
+            int lo = 0;
+            int hi = length;
+            while (lo < hi) {
+                final int mid = (lo + hi) >>> 1;
+                if (positions[tails[mid]] < positions[ix]) {
+                    lo = mid + 1;
                 } else {
-                    // Key is not known! Remember that it was copied unchanged.
-                    sNewKeys.add(refPropClone.getKey());
+                    hi = mid;
                 }
+            }
+            previous[ix] = (lo > 0 ? tails[lo - 1] : -1);
+            tails[lo] = ix;
+            if (lo == length) {
+                length++;
+            }
+        }
+
+        final boolean[] keepCurrent = new boolean[current.length];
+        final boolean[] keepTarget = new boolean[size];
+        for (int ix = (length > 0 ? tails[length - 1] : -1); ix >= 0; ix = previous[ix]) {
+            keepTarget[ix] = true;
+            keepCurrent[positions[ix]] = true;
+        }
+
+        // --- Remove all lines that are not kept, from the end ---
+        for (int ix = current.length - 1; ix >= 0; ix--) {
+            if (!keepCurrent[ix]) {
+                removeLine(current[ix]);
+            }
+        }
 
+        // --- Insert all missing lines, from the start ---
+        for (int ix = 0; ix < size; ix++) {
+            final Line line = lTarget.get(ix);
+            if (!keepTarget[ix]) {
+                insertLine(ix, line);
+            } else if (line instanceof PropertyLine) {
+                // Make sure that the key refers to the kept line
+                mResources.put(((PropertyLine) line).getKey(), (PropertyLine) line);
             }
+        }
+    }
+
+    /**
+     * Get the text of a line that is not a property line, so identical lines can be
+     * found.
+     *
+     * @param line
+     *            Line
+     * @return Text of the line, or null if it is neither a comment nor an empty line
+     */
+    private static String textOf(Line line) {
+        if (line instanceof CommentLine) {
+            return ((CommentLine) line).getComment();
+        } else if (line instanceof EmptyLine) {
+            return "";
+        }
+        return null;
+    }
 
-            addLine(refLineClone);
+    /**
+     * Add a Line to a Map of Line lists.
+     *
+     * @param map
+     *            Map of Line lists
+     * @param key
+     *            Key of the list, must not be null
+     * @param line
+     *            Line to be added to the list
+     */
+    private static void addToList(Map<String, List<Line>> map, String key, Line line) {
+        if (key == null) return;
+        List<Line> list = map.get(key);
+        if (list == null) {
+            list = new LinkedList<Line>();
+            map.put(key, list);
         }
+        list.add(line);
+    }
 
-        // --- Return the set of new Keys ---
-        return Collections.unmodifiableSet(sNewKeys);
+    /**
+     * Take the first PropertyLine with the same key and value as the given line.
+     *
+     * @param mProps
+     *            Map of the available PropertyLines by their keys
+     * @param prop
+     *            PropertyLine to find
+     * @return PropertyLine that was taken, or null if there is none left
+     */
+    private static PropertyLine takeProperty(Map<String, List<Line>> mProps, PropertyLine prop) {
+        final List<Line> list = mProps.get(prop.getKey());
+        if (list != null) {
+            for (Iterator<Line> it = list.iterator(); it.hasNext();) {
+                final PropertyLine dup = (PropertyLine) it.next();
+                if (dup.getValue().equals(prop.getValue())) {
+                    it.remove();
+                    return dup;
+                }
+            }
+        }
+        return null;
     }
 
     /**
@@ -357,6 +1056,7 @@ public class PropertyModel implements ListModel<Line> {
      */
     @Override
     public int getSize() {
+        assert isOwner() : WRONG_THREAD;
         return lContent.size();
     }
 
@@ -370,6 +1070,7 @@ public class PropertyModel implements ListModel<Line> {
      */
     @Override
     public Line getElementAt(int index) {
+        assert isOwner() : WRONG_THREAD;
         return lContent.get(index);
     }
 
@@ -419,16 +1120,7 @@ public class PropertyModel implements ListModel<Line> {
      *            End line number
      */
     protected void fireDataChanged(int start, int end) {
-        final ListDataEvent e = new ListDataEvent(this, ListDataEvent.CONTENTS_CHANGED, start, end);
-
-        for (Iterator<WeakReference<ListDataListener>> it = sListener.iterator(); it.hasNext();) {
-            final ListDataListener l = it.next().get();
-            if (l != null) {
-                l.contentsChanged(e);
-            } else {
-                it.remove();
-            }
-        }
+        fireEvent(new ListDataEvent(this, ListDataEvent.CONTENTS_CHANGED, start, end));
     }
 
     /**
@@ -440,33 +1132,157 @@ public class PropertyModel implements ListModel<Line> {
      *            End line number
      */
     protected void fireDataAdded(int start, int end) {
-        final ListDataEvent e = new ListDataEvent(this, ListDataEvent.INTERVAL_ADDED, start, end);
+        fireEvent(new ListDataEvent(this, ListDataEvent.INTERVAL_ADDED, start, end));
+    }
 
-        for (Iterator<WeakReference<ListDataListener>> it = sListener.iterator(); it.hasNext();) {
-            final ListDataListener l = it.next().get();
-            if (l != null) {
-                l.intervalAdded(e);
-            } else {
-                it.remove();
+    /**
+     * Notify that Lines within a range were removed.
+     *
+     * @param start
+     *            Start line number
+     * @param end
+     *            End line number
+     */
+    protected void fireDataRemoved(int start, int end) {
+        fireEvent(new ListDataEvent(this, ListDataEvent.INTERVAL_REMOVED, start, end));
+    }
+
+    /**
+     * Notify all ListDataListeners about an event. While a batch is running, the event is
+     * merged with the pending event if possible. Otherwise the pending event is sent
+     * first, and the new event becomes the pending event.
+     *
+     * @param e
+     *            ListDataEvent to be sent
+     */
+    private void fireEvent(ListDataEvent e) {
+        assert isOwner() : WRONG_THREAD;
+        if (batchDepth == 0) {
+            sendEvent(e);
+            return;
+        }
+
+        if (pendingEvent != null) {
+            final ListDataEvent merged = mergeEvents(pendingEvent, e);
+            if (merged != null) {
+                pendingEvent = merged;
+                return;
             }
+            sendEvent(pendingEvent);
         }
+        pendingEvent = e;
     }
 
     /**
-     * Notify that Lines within a range were removed.
+     * Prepare for a structural change while a batch is running. If the change cannot be
+     * merged with the pending event, the pending event is sent before the model is
+     * changed, so the listeners see the model in the state the event refers to.
      *
+     * @param type
+     *            Type of the ListDataEvent that will be fired after the change
      * @param start
      *            Start line number
      * @param end
      *            End line number
      */
-    protected void fireDataRemoved(int start, int end) {
-        final ListDataEvent e = new ListDataEvent(this, ListDataEvent.INTERVAL_REMOVED, start, end);
+    private void prepareChange(int type, int start, int end) {
+        assert isOwner() : WRONG_THREAD;
+        if (batchDepth > 0 && pendingEvent != null
+                && mergeEvents(pendingEvent, new ListDataEvent(this, type, start, end)) == null) {
+            flushEvent();
+        }
+    }
+
+    /**
+     * Send the pending event of a batch, if there is one.
+     */
+    private void flushEvent() {
+        if (pendingEvent != null) {
+            final ListDataEvent e = pendingEvent;
+            pendingEvent = null;
+            sendEvent(e);
+        }
+    }
+
+    /**
+     * Merge an event into a pending event. This is only possible if the result describes
+     * both changes correctly:
+     * <ul>
+     * <li>Lines added within or right after a range of added lines extend that range.</li>
+     * <li>Lines removed at the start of or right before a range of removed lines extend
+     * that range.</li>
+     * <li>Changes of lines that were added in this batch are covered by the added range.
+     * Ranges of changed lines are joined.</li>
+     * </ul>
+     *
+     * @param pending
+     *            Pending ListDataEvent
+     * @param e
+     *            ListDataEvent to be merged
+     * @return Merged ListDataEvent, or null if the events could not be merged
+     */
+    private ListDataEvent mergeEvents(ListDataEvent pending, ListDataEvent e) {
+        final int start = pending.getIndex0();
+        final int end = pending.getIndex1();
+        final int eStart = e.getIndex0();
+        final int eEnd = e.getIndex1();
+        final int eCount = eEnd - eStart + 1;
+
+        switch (pending.getType()) {
+        case ListDataEvent.INTERVAL_ADDED:
+            if (e.getType() == ListDataEvent.INTERVAL_ADDED
+                    && eStart >= start && eStart <= end + 1) {
+                return new ListDataEvent(this, ListDataEvent.INTERVAL_ADDED, start, end + eCount);
+            }
+            if (e.getType() == ListDataEvent.CONTENTS_CHANGED
+                    && eStart >= start && eEnd <= end) {
+                return pending;
+            }
+            break;
+
+        case ListDataEvent.INTERVAL_REMOVED:
+            if (e.getType() == ListDataEvent.INTERVAL_REMOVED) {
+                if (eStart == start) {
+                    return new ListDataEvent(this, ListDataEvent.INTERVAL_REMOVED, start, end + eCount);
+                }
+                if (eEnd + 1 == start) {
+                    return new ListDataEvent(this, ListDataEvent.INTERVAL_REMOVED, eStart, end);
+                }
+            }
+            break;
+
+        case ListDataEvent.CONTENTS_CHANGED:
+            if (e.getType() == ListDataEvent.CONTENTS_CHANGED) {
+                return new ListDataEvent(this, ListDataEvent.CONTENTS_CHANGED,
+                        Math.min(start, eStart), Math.max(end, eEnd));
+            }
+            break;
+        }
 
+        return null;
+    }
+
+    /**
+     * Send an event to all ListDataListeners.
+     *
+     * @param e
+     *            ListDataEvent to be sent
+     */
+    private void sendEvent(ListDataEvent e) {
         for (Iterator<WeakReference<ListDataListener>> it = sListener.iterator(); it.hasNext();) {
             final ListDataListener l = it.next().get();
             if (l != null) {
-                l.intervalRemoved(e);
+                switch (e.getType()) {
+                case ListDataEvent.CONTENTS_CHANGED:
+                    l.contentsChanged(e);
+                    break;
+                case ListDataEvent.INTERVAL_ADDED:
+                    l.intervalAdded(e);
+                    break;
+                case ListDataEvent.INTERVAL_REMOVED:
+                    l.intervalRemoved(e);
+                    break;
+                }
             } else {
                 it.remove();
             }
@@ -477,7 +1293,8 @@ public class PropertyModel implements ListModel<Line> {
 
     /**
      * This PropertyChangeListener is registered with every Line that is added to this
-     * model, so this model is notified about every change in the contents of the Lines.
+     * model and cannot notify the model directly, so this model is notified about every
+     * change in the contents of the Lines.
      */
     private class MyPropertyChangeListener implements PropertyChangeListener {
 
@@ -489,15 +1306,8 @@ public class PropertyModel implements ListModel<Line> {
          */
         @Override
         public void propertyChange(PropertyChangeEvent evt) {
-            // --- Find out the Line Index ---
             // The Source of the event is the Line object that was changed.
-            // We need to find out its index.
-            final int index = lContent.indexOf(evt.getSource());
-            if (index >= 0) {
-                fireDataChanged(index, index);
-            } else {
-                // The Line was not added to this Model?! Do nothing...
-            }
+            lineChanged((Line) evt.getSource());
         }
 
     }
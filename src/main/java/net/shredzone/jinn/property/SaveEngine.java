@@ -0,0 +1,223 @@
+/**
+ * jinn - A property translation editor
+ *
+ * Copyright (C) 2009 Richard "Shred" Körber
+ *   http://jinn.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.shredzone.jinn.property;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The SaveEngine writes PropertyModels to their files in background.
+ * <p>
+ * When a save is requested, a snapshot of the model is taken immediately, so the model
+ * may be modified while it is being saved. The snapshot is then written by a dedicated
+ * background thread, see {@link PropertyModel#write(File)} for the details. A file is
+ * never left half-written, it either contains the old or the new content.
+ * <p>
+ * If a save request for a file is still waiting to be executed when another save for the
+ * same file is requested, the pending request is superseded by the newer snapshot instead
+ * of writing the file twice. Both requests then share the same Future.
+ * <p>
+ * {@link #saveCopy(PropertyModel, File)} writes a copy of a model, e.g. as a backup. The
+ * model does not remember the copy as its file.
+ *
+ * @author Richard "Shred" Körber
+ */
+public class SaveEngine {
+    private final ThreadPoolExecutor executor;
+    private final Map<File, SaveTask> mPending = new HashMap<File, SaveTask>();
+
+    /**
+     * Create a new SaveEngine.
+     */
+    public SaveEngine() {
+        executor = new ThreadPoolExecutor(1, 1, 10, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new MyThreadFactory());
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Save a PropertyModel to a file in background.
+     * <p>
+     * This method takes a snapshot of the model. If the model is confined to the AWT
+     * event dispatch thread, the snapshot is taken there, and this method waits for it.
+     *
+     * @param model
+     *            PropertyModel to be saved
+     * @param file
+     *            File to write the model to
+     * @return Future that is done when the model was saved. On failure,
+     *         <code>get()</code> throws an ExecutionException containing the cause.
+     */
+    public Future<File> save(PropertyModel model, File file) {
+        return submit(model.saveSnapshot(), file, true);
+    }
+
+    /**
+     * Save a copy of a PropertyModel to a file in background. Unlike
+     * {@link #save(PropertyModel, File)}, the written file is not used as source of
+     * unchanged lines when the model is saved again.
+     * <p>
+     * This method takes a snapshot of the model. If the model is confined to the AWT
+     * event dispatch thread, the snapshot is taken there, and this method waits for it.
+     *
+     * @param model
+     *            PropertyModel to be saved
+     * @param file
+     *            File to write the copy to
+     * @return Future that is done when the copy was saved. On failure,
+     *         <code>get()</code> throws an ExecutionException containing the cause.
+     */
+    public Future<File> saveCopy(PropertyModel model, File file) {
+        return submit(model.saveSnapshot(), file, false);
+    }
+
+    /**
+     * Delete a file in background. A pending save request for that file is cancelled.
+     * The file is deleted after all save requests that are already running or were
+     * submitted before.
+     *
+     * @param file
+     *            File to be deleted
+     */
+    public void discard(File file) {
+        final File key = file.getAbsoluteFile();
+
+        synchronized (mPending) {
+            final SaveTask pending = mPending.remove(key);
+            if (pending != null) {
+                pending.future.cancel(false);
+            }
+        }
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Files.deleteIfExists(key.toPath());
+                } catch (Exception ex) {
+                    // The file is just left over
+                }
+            }
+        });
+    }
+
+    /**
+     * Submit a Snapshot for writing. A pending request for the same file is superseded.
+     *
+     * @param snapshot
+     *            Snapshot to be written
+     * @param file
+     *            File to write to
+     * @param commit
+     *            true: the written file becomes the source of the unchanged lines
+     * @return Future of the save request
+     */
+    private Future<File> submit(Snapshot snapshot, File file, boolean commit) {
+        final File key = file.getAbsoluteFile();
+
+        synchronized (mPending) {
+            final SaveTask pending = mPending.get(key);
+            if (pending != null) {
+                // Supersede the pending request
+                pending.snapshot = snapshot;
+                pending.commit = commit;
+                return pending.future;
+            }
+
+            final SaveTask task = new SaveTask(key, snapshot, commit);
+            mPending.put(key, task);
+            executor.execute(task.future);
+            return task.future;
+        }
+    }
+
+    /* ------------------------------------------------------------------------ */
+
+    /**
+     * A request for saving a model to a file. The snapshot is replaced when the request
+     * is superseded, as long as it has not started yet.
+     */
+    private class SaveTask implements Callable<File> {
+        private final File file;
+        private final FutureTask<File> future;
+        private Snapshot snapshot;
+        private boolean commit;
+
+        /**
+         * Create a new SaveTask.
+         *
+         * @param file
+         *            File to write to
+         * @param snapshot
+         *            Snapshot of the model to be saved
+         * @param commit
+         *            true: commit the snapshot after it was written
+         */
+        public SaveTask(File file, Snapshot snapshot, boolean commit) {
+            this.file = file;
+            this.snapshot = snapshot;
+            this.commit = commit;
+            this.future = new FutureTask<File>(this);
+        }
+
+        @Override
+        public File call() throws Exception {
+            final Snapshot saveSnapshot;
+            final boolean saveCommit;
+            synchronized (mPending) {
+                // From now on, new requests cannot supersede this one
+                if (mPending.get(file) == this) {
+                    mPending.remove(file);
+                }
+                saveSnapshot = snapshot;
+                saveCommit = commit;
+            }
+
+            saveSnapshot.write(file);
+            if (saveCommit) {
+                saveSnapshot.commit();
+            }
+            return file;
+        }
+    }
+
+    /**
+     * Creates the background thread. It is not a daemon thread, so a running save is
+     * completed before the application terminates.
+     */
+    private static class MyThreadFactory implements ThreadFactory {
+        @Override
+        public Thread newThread(Runnable r) {
+            final Thread thread = new Thread(r, "jinn-save");
+            thread.setPriority(Thread.NORM_PRIORITY);
+            return thread;
+        }
+    }
+
+}
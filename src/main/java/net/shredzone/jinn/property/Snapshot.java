@@ -0,0 +1,505 @@
+/**
+ * jinn - A property translation editor
+ *
+ * Copyright (C) 2009 Richard "Shred" Körber
+ *   http://jinn.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.shredzone.jinn.property;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A Snapshot captures the content of a PropertyModel at a certain time, so it can be
+ * written to a file while the model is being modified.
+ * <p>
+ * Taking a snapshot is cheap. It only keeps an immutable view of the model's lines (see
+ * {@link LineList#snapshot()}), which takes O(1) time. All further work is done by the
+ * thread that writes the snapshot, so a snapshot of a confined model does not block the
+ * AWT event dispatch thread for longer than necessary.
+ * <p>
+ * When the snapshot is written, lines that are unchanged since they were read from (or
+ * last written to) a file are not copied, only their {@link SourceSpan} is remembered.
+ * They are copied byte by byte from the most recent copy of that span. All other lines
+ * are cloned first. The sequence of the lines is the one at the time the snapshot was
+ * taken. The content of a line that is changed after the snapshot was taken, but before
+ * it is written, may already be included. Such a line is still regarded as changed after
+ * {@link #commit()}, and is written again by the next snapshot.
+ * <p>
+ * After the snapshot was written to the model's file, {@link #commit()} makes the
+ * written file the new source of all lines that were not changed in the meantime.
+ * Snapshots of the same model must be written and committed one after the other.
+ *
+ * @author Richard "Shred" Körber
+ */
+final class Snapshot {
+    private final SourceSpan pending;
+    private final List<Line> lContent;
+    private Line[] lines;
+    private Line[] copies;
+    private SourceSpan[] spans;
+    private SourceSpan[] copied;
+    private SourceFile written;
+    private long[] offsets;
+    private int[] lengths;
+
+    /**
+     * Take a snapshot of the given lines.
+     *
+     * @param lContent
+     *            Immutable List of all Lines of the model
+     */
+    Snapshot(List<Line> lContent) {
+        this.pending = new SourceSpan(this, -1, 0);
+        this.lContent = lContent;
+    }
+
+    /**
+     * Find out which lines can be copied from their source files, and clone all other
+     * lines. It is invoked by the thread writing the snapshot.
+     * <p>
+     * A changed line is marked as pending before it is cloned. If it is changed again
+     * while or after it is cloned, the mark is removed, so {@link #commit()} will not
+     * regard the line as unchanged.
+     */
+    private void prepare() {
+        final int size = lContent.size();
+        lines = lContent.toArray(new Line[size]);
+        copies = new Line[size];
+        spans = new SourceSpan[size];
+
+        for (int ix = 0; ix < size; ix++) {
+            final Line line = lines[ix];
+            if (line instanceof AbstractLine) {
+                final AbstractLine al = (AbstractLine) line;
+                final SourceSpan span = al.getSourceSpan();
+                if (span != null && span.getSource() instanceof SourceFile) {
+                    // Unchanged line, it will be copied from its source file
+                    spans[ix] = span;
+                    continue;
+                }
+
+                // Changed line, mark it so a later change can be detected
+                if (al.updateSourceSpan(span, pending)) {
+                    spans[ix] = pending;
+                }
+            }
+            copies[ix] = (Line) line.clone();
+        }
+    }
+
+    /**
+     * Write the snapshot to a .properties file.
+     * <p>
+     * The content is first written to a temporary file in the same directory. It is
+     * forced to the storage device, and then atomically replaces the target file. If
+     * writing fails, the target file is left untouched.
+     * <p>
+     * If a source file was modified externally after the snapshot was taken, the current
+     * content of the affected lines is written instead.
+     *
+     * @param file
+     *            .properties file to write to
+     * @throws IOException
+     *             if it could not write.
+     */
+    void write(File file) throws IOException {
+        if (lines == null) {
+            prepare();
+        }
+
+        final long[] lOffsets = new long[lines.length];
+        final int[] lLengths = new int[lines.length];
+        final SourceSpan[] lCopied = new SourceSpan[lines.length];
+
+        final Path target = file.toPath();
+        final File dir = file.getAbsoluteFile().getParentFile();
+        final File temp = File.createTempFile('.' + file.getName() + '.', ".tmp", dir);
+        boolean done = false;
+        try {
+            final FileOutputStream out = new FileOutputStream(temp);
+            final Map<SourceFile, FileInputStream> mSources = new IdentityHashMap<SourceFile, FileInputStream>();
+            try {
+                try {
+                    write(out, mSources, lOffsets, lLengths, lCopied);
+                } finally {
+                    for (FileInputStream in : mSources.values()) {
+                        if (in != null) {
+                            in.close();
+                        }
+                    }
+                }
+                out.getChannel().force(true);
+            } finally {
+                out.close();
+            }
+
+            copyPermissions(target, temp.toPath());
+            try {
+                Files.move(temp.toPath(), target, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(temp.toPath(), target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            done = true;
+        } finally {
+            if (!done) {
+                temp.delete();
+            }
+        }
+
+        written = new SourceFile(file);
+        offsets = lOffsets;
+        lengths = lLengths;
+        copied = lCopied;
+    }
+
+    /**
+     * Make the file that was written by {@link #write(File)} the new source of all lines
+     * that have not been changed since the snapshot was taken.
+     */
+    void commit() {
+        if (written == null) {
+            throw new IllegalStateException("Snapshot was not written");
+        }
+
+        for (int ix = 0; ix < lines.length; ix++) {
+            if (spans[ix] == null) continue;
+
+            final SourceSpan span = new SourceSpan(written, offsets[ix], lengths[ix]);
+            if (copied[ix] != null) {
+                // Later snapshots will find the copied bytes in the written file
+                copied[ix].setNext(span);
+            }
+
+            // Only update the line if it is still unchanged, i.e. if it still carries
+            // one of the spans of the chain.
+            final AbstractLine al = (AbstractLine) lines[ix];
+            for (SourceSpan s = spans[ix]; s != null && s != span; s = s.getNext()) {
+                if (al.updateSourceSpan(s, span)) break;
+            }
+        }
+    }
+
+    /**
+     * Write the snapshot to a FileOutputStream. Runs of unchanged lines are copied from
+     * their source files, all other lines are serialized. If there are many lines but
+     * nothing to copy, the lines are serialized in parallel.
+     *
+     * @param out
+     *            FileOutputStream to write to
+     * @param mSources
+     *            Map of the source files that have been opened
+     * @param lOffsets
+     *            Receives the byte offset of each line in the written file
+     * @param lLengths
+     *            Receives the byte length of each line in the written file
+     * @param lCopied
+     *            Receives the SourceSpan each line was copied from, if it was copied
+     * @throws IOException
+     *             if it could not write.
+     */
+    private void write(FileOutputStream out, Map<SourceFile, FileInputStream> mSources,
+        long[] lOffsets, int[] lLengths, SourceSpan[] lCopied) throws IOException {
+        final FileChannel outChannel = out.getChannel();
+        final OutputStream bufOut = new BufferedOutputStream(out);
+        final ByteArrayOutputStream lineBuffer = new ByteArrayOutputStream();
+        final PropertiesWriter lineWriter = new PropertiesWriter(lineBuffer);
+
+        final int size = lines.length;
+        if (isParallel()) {
+            // --- Nothing to copy, serialize all lines in parallel ---
+            ParallelPropertiesWriter.write(Arrays.asList(copies), lineWriter, outChannel, lLengths);
+            long pos = 0;
+            for (int ix = 0; ix < size; ix++) {
+                lOffsets[ix] = pos;
+                pos += lLengths[ix];
+                adoptEncoding(ix);
+            }
+            return;
+        }
+
+        long pos = 0;
+        FileChannel runChannel = null;
+        long runStart = 0;
+        long runLength = 0;
+        boolean endsWithCR = false;
+
+        for (int ix = 0; ix < size; ix++) {
+            lOffsets[ix] = pos;
+
+            SourceSpan span = null;
+            SourceFile source = null;
+            FileChannel src = null;
+            if (spans[ix] != null && spans[ix] != pending) {
+                span = spans[ix].getLatest();
+                source = (SourceFile) span.getSource();
+                src = open(mSources, source);
+            }
+
+            if (src != null) {
+                // --- Unchanged line, extend the run ---
+                final long lineStart = span.getOffset();
+                final int lineLength = span.getLength();
+                final boolean contiguous = (runLength > 0 && runChannel == src && runStart + runLength == lineStart);
+
+                // A lone LF would be joined with a preceding lone CR, so make it a CRLF
+                final boolean separate = (!contiguous && lines[ix] instanceof EmptyLine
+                        && endsWithCR(runChannel, runStart, runLength, endsWithCR)
+                        && byteAt(src, lineStart) == '\n');
+
+                if (runLength > 0 && !contiguous) {
+                    bufOut.flush();
+                    transfer(runChannel, runStart, runLength, outChannel);
+                    runLength = 0;
+                }
+                if (separate) {
+                    bufOut.write('\r');
+                }
+                if (runLength == 0) {
+                    runChannel = src;
+                    runStart = lineStart;
+                }
+                runLength += lineLength;
+                lLengths[ix] = lineLength;
+                lCopied[ix] = span;
+                if (separate) {
+                    lLengths[ix]++;
+                    lCopied[ix] = null;
+                }
+
+                // The last line of the source file may lack a line terminator
+                if (lineStart + lineLength == source.getLength() && ix < size - 1
+                        && !isTerminated(src, source.getLength())) {
+                    bufOut.flush();
+                    transfer(runChannel, runStart, runLength, outChannel);
+                    runLength = 0;
+
+                    lineBuffer.reset();
+                    lineWriter.newLine();
+                    lineWriter.flush();
+                    lineBuffer.writeTo(bufOut);
+                    lLengths[ix] += lineBuffer.size();
+                    lCopied[ix] = null;
+                    endsWithCR = lineBuffer.toString("ISO-8859-1").endsWith("\r");
+                }
+
+            } else {
+                // --- Changed line, serialize it ---
+                final byte[] bytes = lineWriter.encode(copies[ix] != null ? copies[ix] : lines[ix]);
+                final boolean separate = (bytes.length > 0 && bytes[0] == '\n'
+                        && endsWithCR(runChannel, runStart, runLength, endsWithCR));
+
+                if (runLength > 0) {
+                    bufOut.flush();
+                    transfer(runChannel, runStart, runLength, outChannel);
+                    runLength = 0;
+                }
+                if (separate) {
+                    bufOut.write('\r');
+                }
+                bufOut.write(bytes);
+                lLengths[ix] = bytes.length + (separate ? 1 : 0);
+                endsWithCR = (bytes.length > 0 && bytes[bytes.length - 1] == '\r');
+                adoptEncoding(ix);
+            }
+
+            pos += lLengths[ix];
+        }
+
+        bufOut.flush();
+        if (runLength > 0) {
+            transfer(runChannel, runStart, runLength, outChannel);
+        }
+    }
+
+    /**
+     * Pass the cached encoding of a cloned line to the original line, so it is not
+     * encoded again by the next snapshot if it remains unchanged.
+     *
+     * @param ix
+     *            Line index
+     */
+    private void adoptEncoding(int ix) {
+        if (copies[ix] instanceof AbstractLine) {
+            ((AbstractLine) lines[ix]).adoptEncoding((AbstractLine) copies[ix]);
+        }
+    }
+
+    /**
+     * Check if the snapshot should be serialized in parallel. This is the case if there
+     * are many lines, and none of them can be copied from a source file.
+     *
+     * @return true if the snapshot should be serialized in parallel
+     */
+    private boolean isParallel() {
+        if (lines.length < PropertyModel.PARALLEL_WRITE_THRESHOLD
+                || Runtime.getRuntime().availableProcessors() <= 1) {
+            return false;
+        }
+        for (SourceSpan span : spans) {
+            if (span != null && span != pending) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Open a source file for reading. Each source file is only opened once.
+     *
+     * @param mSources
+     *            Map of the source files that have been opened so far
+     * @param source
+     *            SourceFile to open
+     * @return FileChannel of the source file, or null if the file was modified since
+     * @throws IOException
+     *             if it could not open the file.
+     */
+    private static FileChannel open(Map<SourceFile, FileInputStream> mSources, SourceFile source)
+    throws IOException {
+        FileInputStream in = mSources.get(source);
+        if (in == null && !mSources.containsKey(source)) {
+            in = (source.isUnchanged() ? new FileInputStream(source.getFile()) : null);
+            mSources.put(source, in);
+        }
+        return (in != null ? in.getChannel() : null);
+    }
+
+    /**
+     * Copy a region of a file to a FileChannel.
+     *
+     * @param src
+     *            FileChannel to copy from
+     * @param position
+     *            Start position of the region
+     * @param count
+     *            Number of bytes to copy
+     * @param target
+     *            FileChannel to copy to, at its current position
+     * @throws IOException
+     *             if it could not copy.
+     */
+    private static void transfer(FileChannel src, long position, long count, FileChannel target)
+    throws IOException {
+        while (count > 0) {
+            final long cnt = src.transferTo(position, count, target);
+            if (cnt <= 0) {
+                throw new IOException("Source file was truncated");
+            }
+            position += cnt;
+            count -= cnt;
+        }
+    }
+
+    /**
+     * Check if the output written so far ends with a CR. A lone CR is a line terminator
+     * of its own, unless it is followed by a LF.
+     *
+     * @param runChannel
+     *            FileChannel of the current run of copied lines
+     * @param runStart
+     *            Start position of the current run
+     * @param runLength
+     *            Length of the current run, 0 if there is none
+     * @param endsWithCR
+     *            true if the output before the current run ends with a CR
+     * @return true if the output ends with a CR
+     * @throws IOException
+     *             if it could not read.
+     */
+    private static boolean endsWithCR(FileChannel runChannel, long runStart, long runLength,
+        boolean endsWithCR) throws IOException {
+        if (runLength > 0) {
+            return byteAt(runChannel, runStart + runLength - 1) == '\r';
+        }
+        return endsWithCR;
+    }
+
+    /**
+     * Check if a file ends with a line terminator.
+     *
+     * @param src
+     *            FileChannel of the file
+     * @param length
+     *            Length of the file
+     * @return true if the last byte is a line terminator
+     * @throws IOException
+     *             if it could not read.
+     */
+    private static boolean isTerminated(FileChannel src, long length) throws IOException {
+        if (length == 0) return true;
+        final byte ch = byteAt(src, length - 1);
+        return ch == '\n' || ch == '\r';
+    }
+
+    /**
+     * Read a single byte of a file.
+     *
+     * @param src
+     *            FileChannel of the file
+     * @param position
+     *            Position of the byte
+     * @return The byte at that position
+     * @throws IOException
+     *             if it could not read.
+     */
+    private static byte byteAt(FileChannel src, long position) throws IOException {
+        final ByteBuffer buf = ByteBuffer.allocate(1);
+        if (src.read(buf, position) != 1) {
+            throw new IOException("Source file was truncated");
+        }
+        return buf.get(0);
+    }
+
+    /**
+     * Copy the POSIX file permissions of an existing file to another file. Temporary files
+     * are only accessible by the owner, so the permissions of the target file would
+     * otherwise get lost. Nothing happens if the file system does not support POSIX
+     * permissions, or if the target file does not exist yet.
+     *
+     * @param from
+     *            Path to copy the permissions from
+     * @param to
+     *            Path to copy the permissions to
+     */
+    private static void copyPermissions(Path from, Path to) {
+        try {
+            if (Files.exists(from)) {
+                Files.setPosixFilePermissions(to, Files.getPosixFilePermissions(from));
+            }
+        } catch (UnsupportedOperationException ex) {
+            // No POSIX file system, keep the default permissions
+        } catch (IOException ex) {
+            // Keep the default permissions
+        }
+    }
+
+}
@@ -0,0 +1,92 @@
+/**
+ * jinn - A property translation editor
+ *
+ * Copyright (C) 2009 Richard "Shred" Körber
+ *   http://jinn.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.shredzone.jinn.property;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * The file a PropertyModel was read from or was last written to. It is used to copy
+ * unchanged lines when the model is written again.
+ * <p>
+ * The file size, modification time and file key are remembered, so a modification or
+ * replacement of the file can be detected.
+ *
+ * @author Richard "Shred" Körber
+ */
+final class SourceFile {
+    private final File file;
+    private final long length;
+    private final long lastModified;
+    private final Object fileKey;
+
+    /**
+     * Create a new SourceFile for the current state of the file.
+     *
+     * @param file
+     *            Source file
+     * @throws IOException
+     *             if the file attributes could not be read.
+     */
+    public SourceFile(File file) throws IOException {
+        final BasicFileAttributes attr = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        this.file = file;
+        this.length = attr.size();
+        this.lastModified = attr.lastModifiedTime().toMillis();
+        this.fileKey = attr.fileKey();
+    }
+
+    /**
+     * Get the source file.
+     *
+     * @return File
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Get the length of the source file.
+     *
+     * @return Length, in bytes
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Check if the file was neither modified nor replaced since.
+     *
+     * @return true if the file is still unchanged
+     */
+    public boolean isUnchanged() {
+        try {
+            final BasicFileAttributes attr = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+            return attr.size() == length
+                && attr.lastModifiedTime().toMillis() == lastModified
+                && (fileKey == null || fileKey.equals(attr.fileKey()));
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+}
@@ -0,0 +1,116 @@
+/**
+ * jinn - A property translation editor
+ *
+ * Copyright (C) 2009 Richard "Shred" Körber
+ *   http://jinn.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.shredzone.jinn.property;
+
+/**
+ * The span of a Line in the file it was read from. The span covers the entire logical
+ * line, including line wraps and the line terminator. Only ISO-8859-1 encoded files are
+ * able to provide this information.
+ * <p>
+ * When the line is copied to another file, the span in the new file is linked as the
+ * successor of this span. Following the chain of successors always leads to the most
+ * recent copy of the same bytes.
+ *
+ * @author Richard "Shred" Körber
+ */
+final class SourceSpan {
+    private final Object source;
+    private final long offset;
+    private final int length;
+    private volatile SourceSpan next;
+
+    /**
+     * Create a new SourceSpan.
+     *
+     * @param source
+     *            Opaque object identifying the source file
+     * @param offset
+     *            Byte offset of the line in the file
+     * @param length
+     *            Length of the line in the file, in bytes
+     */
+    public SourceSpan(Object source, long offset, int length) {
+        this.source = source;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * Get the object identifying the source file.
+     *
+     * @return Source object
+     */
+    public Object getSource() {
+        return source;
+    }
+
+    /**
+     * Get the byte offset of the line in its source file.
+     *
+     * @return Byte offset
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Get the length of the line in its source file.
+     *
+     * @return Length, in bytes
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Get the span of the same bytes in the file this line was copied to.
+     *
+     * @return Successor SourceSpan, or null if the line was not copied yet
+     */
+    public SourceSpan getNext() {
+        return next;
+    }
+
+    /**
+     * Set the span of the same bytes in the file this line was copied to.
+     *
+     * @param next
+     *            Successor SourceSpan
+     */
+    public void setNext(SourceSpan next) {
+        this.next = next;
+    }
+
+    /**
+     * Get the most recent copy of the bytes of this span, by following the chain of
+     * successors.
+     *
+     * @return Most recent SourceSpan, may be this span
+     */
+    public SourceSpan getLatest() {
+        SourceSpan result = this;
+        SourceSpan nextSpan;
+        while ((nextSpan = result.next) != null) {
+            result = nextSpan;
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,235 @@
+/**
+ * jinn - A property translation editor
+ *
+ * Copyright (C) 2009 Richard "Shred" Körber
+ *   http://jinn.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.shredzone.jinn;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.swing.SwingUtilities;
+
+import net.shredzone.jinn.property.PropertyModel;
+import net.shredzone.jinn.property.SaveEngine;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link AutoSaver}. The autosave is triggered directly, unless the test
+ * is about the timer itself.
+ *
+ * @author Richard "Shred" Körber
+ */
+public class AutoSaverTest {
+
+    private File dir;
+    private File recovery;
+    private Registry registry;
+    private CountingSaveEngine engine;
+    private PropertyModel model;
+    private AutoSaver saver;
+
+    @Before
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("jinn").toFile();
+        final File file = new File(dir, "test.properties");
+        recovery = AutoSaver.getRecoveryFile(file);
+
+        model = new PropertyModel();
+        model.read(new ByteArrayInputStream("key.a = one\nkey.b = two\n".getBytes("ISO-8859-1")));
+
+        engine = new CountingSaveEngine();
+        registry = new Registry();
+        registry.put(JinnRegistryKeys.SERVICE_SAVE, engine);
+        registry.put(JinnRegistryKeys.FILE_TRANSLATION, file);
+        registry.put(JinnRegistryKeys.MODEL_TRANSLATION, model);
+        registry.put(JinnRegistryKeys.FLAG_CHANGED, Boolean.TRUE);
+    }
+
+    @After
+    public void teardown() {
+        if (saver != null) {
+            saver.setInterval(0);
+        }
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    /**
+     * The recovery file is located next to the translation file.
+     */
+    @Test
+    public void testRecoveryFile() {
+        assertEquals(new File(dir, "test.properties.recovery"), recovery);
+    }
+
+    /**
+     * A burst of edits is written only once.
+     */
+    @Test
+    public void testBurst() throws Exception {
+        saver = new AutoSaver(registry, 60 * 1000);
+        assertFalse(saver.isScheduled());
+
+        for (int ix = 0; ix < 10; ix++) {
+            edit("value " + ix);
+        }
+        assertTrue(saver.isScheduled());
+
+        saver.autosave();
+        saver.autosave();
+        assertEquals(1, engine.count.get());
+        assertEquals("value 9", readRecovery().getPropertyLine("key.a").getValue());
+
+        edit("another value");
+        saver.autosave();
+        assertEquals(2, engine.count.get());
+        assertEquals("another value", readRecovery().getPropertyLine("key.a").getValue());
+    }
+
+    /**
+     * Continuous editing does not defer the autosave forever.
+     */
+    @Test
+    public void testMaxDefer() throws Exception {
+        final int interval = 200;
+        saver = new AutoSaver(registry, interval);
+
+        final long start = System.currentTimeMillis();
+        int edits = 0;
+        while (engine.count.get() == 0 && System.currentTimeMillis() - start < 20 * interval) {
+            edit("value " + edits++);
+            Thread.sleep(10);
+        }
+        assertTrue(engine.count.get() > 0);
+        assertTrue(edits > 1);
+    }
+
+    /**
+     * Nothing is written if the translation is not changed.
+     */
+    @Test
+    public void testUnchanged() throws Exception {
+        saver = new AutoSaver(registry, 60 * 1000);
+        registry.put(JinnRegistryKeys.FLAG_CHANGED, Boolean.FALSE);
+        flush();
+
+        edit("value");
+        saver.autosave();
+        assertEquals(0, engine.count.get());
+        assertFalse(recovery.exists());
+    }
+
+    /**
+     * Nothing is written if the model was not edited since the last autosave.
+     */
+    @Test
+    public void testNotEdited() throws Exception {
+        saver = new AutoSaver(registry, 60 * 1000);
+        saver.autosave();
+        assertEquals(0, engine.count.get());
+        assertFalse(recovery.exists());
+    }
+
+    /**
+     * The recovery file is deleted when the translation was saved.
+     */
+    @Test
+    public void testSaved() throws Exception {
+        saver = new AutoSaver(registry, 60 * 1000);
+        edit("value");
+        saver.autosave();
+        engine.last.get(10, TimeUnit.SECONDS);
+        assertTrue(recovery.exists());
+
+        edit("another value");
+        assertTrue(saver.isScheduled());
+        registry.put(JinnRegistryKeys.FLAG_CHANGED, Boolean.FALSE);
+        flush();
+        assertFalse(saver.isScheduled());
+
+        engine.saveCopy(new PropertyModel(), new File(dir, "sync.properties")).get(10, TimeUnit.SECONDS);
+        assertFalse(recovery.exists());
+    }
+
+    /**
+     * Change the value of a line in the AWT event dispatch thread.
+     *
+     * @param value
+     *            New value
+     */
+    private void edit(final String value) throws Exception {
+        SwingUtilities.invokeAndWait(new Runnable() {
+            @Override
+            public void run() {
+                model.getPropertyLine("key.a").setValue(value);
+            }
+        });
+    }
+
+    /**
+     * Wait until all pending events of the AWT event dispatch thread are processed.
+     */
+    private void flush() throws Exception {
+        SwingUtilities.invokeAndWait(new Runnable() {
+            @Override
+            public void run() {
+                // nothing to do
+            }
+        });
+    }
+
+    /**
+     * Read the recovery file, after all pending saves are completed.
+     *
+     * @return PropertyModel of the recovery file
+     */
+    private PropertyModel readRecovery() throws Exception {
+        engine.last.get(10, TimeUnit.SECONDS);
+        final PropertyModel result = new PropertyModel();
+        result.read(recovery);
+        return result;
+    }
+
+    /**
+     * A SaveEngine that counts the copies to be saved.
+     */
+    private static class CountingSaveEngine extends SaveEngine {
+        private final AtomicInteger count = new AtomicInteger();
+        private volatile Future<File> last;
+
+        @Override
+        public Future<File> saveCopy(PropertyModel model, File file) {
+            count.incrementAndGet();
+            last = super.saveCopy(model, file);
+            return last;
+        }
+    }
+
+}
@@ -0,0 +1,150 @@
+/**
+ * jinn - A property translation editor
+ *
+ * Copyright (C) 2009 Richard "Shred" Körber
+ *   http://jinn.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.shredzone.jinn.action;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import net.shredzone.jinn.JinnRegistryKeys;
+import net.shredzone.jinn.Registry;
+import net.shredzone.jinn.property.MappedPropertyModel;
+import net.shredzone.jinn.property.PropertyLine;
+import net.shredzone.jinn.property.PropertyModel;
+import net.shredzone.jinn.property.SaveEngine;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for saving the base reference next to the translation file, and reading it
+ * again by {@link OpenAction}.
+ *
+ * @author Richard "Shred" Körber
+ */
+public class SaveActionTest {
+
+    private File dir;
+    private File target;
+    private Registry registry;
+    private SaveEngine engine;
+
+    @Before
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("jinn").toFile();
+        target = new File(dir, "Messages_de.properties");
+        registry = new Registry();
+        engine = new SaveEngine();
+    }
+
+    @After
+    public void teardown() {
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    /**
+     * The base file is located next to the translation file.
+     */
+    @Test
+    public void testBaseFile() {
+        assertEquals(new File(dir, "Messages_de.properties.base"), SaveAction.getBaseFile(target));
+    }
+
+    /**
+     * The base reference is saved, and read back with the same content.
+     */
+    @Test
+    public void testRoundTrip() throws Exception {
+        final PropertyModel base = new PropertyModel();
+        base.read(write("Messages.properties", "# Reference\nkey.a = A\nkey.b = B\n"));
+        assertRoundTrip(base);
+    }
+
+    /**
+     * A memory mapped base reference is saved, and read back with the same content.
+     */
+    @Test
+    public void testMappedRoundTrip() throws Exception {
+        final PropertyModel base = new MappedPropertyModel();
+        base.read(write("Messages.properties", "# Reference\nkey.a = A\nkey.b = B\n"));
+        assertRoundTrip(base);
+    }
+
+    /**
+     * Nothing is saved if there is no base reference, and nothing is read if there is no
+     * base file.
+     */
+    @Test
+    public void testNoBase() {
+        assertNull(SaveAction.saveBase(registry, engine, target));
+        assertFalse(SaveAction.getBaseFile(target).exists());
+        assertNull(OpenAction.readBase(target));
+    }
+
+    /**
+     * Save the base reference of the registry, read it back, and compare it.
+     *
+     * @param base
+     *            Base reference
+     */
+    private void assertRoundTrip(PropertyModel base) throws Exception {
+        registry.put(JinnRegistryKeys.MODEL_BASE, base);
+        final File saved = SaveAction.saveBase(registry, engine, target).get(10, TimeUnit.SECONDS);
+        assertEquals(SaveAction.getBaseFile(target), saved);
+
+        final PropertyModel read = OpenAction.readBase(target);
+        assertNotNull(read);
+        assertEquals(base.getSize(), read.getSize());
+        assertEquals(base.getResourceMap().keySet(), read.getResourceMap().keySet());
+        for (PropertyLine line : base.getResourceMap().values()) {
+            assertEquals(line.getValue(), read.getPropertyLine(line.getKey()).getValue());
+        }
+    }
+
+    /**
+     * Write a file to the test directory.
+     *
+     * @param name
+     *            File name
+     * @param content
+     *            File content
+     * @return File that was written
+     */
+    private File write(String name, String content) throws IOException {
+        final File file = new File(dir, name);
+        final OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("ISO-8859-1"));
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+}
@@ -0,0 +1,134 @@
+/**
+ * jinn - A property translation editor
+ *
+ * Copyright (C) 2009 Richard "Shred" Körber
+ *   http://jinn.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.shredzone.jinn.property;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link BundleFamily}.
+ *
+ * @author Richard "Shred" Körber
+ */
+public class BundleFamilyTest {
+
+    private File dir;
+    private File reference;
+
+    @Before
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("jinn").toFile();
+        reference = write("Messages.properties", "# Reference\nkey.a = A\nkey.b = B\n");
+        write("Messages_de.properties", "key.a = A-de\nkey.c = C-de\n");
+        write("Messages_fr_CA.properties", "key.b = B-fr\n");
+        write("Messages_x.properties", "key.a = not a locale\n");
+        write("Other_de.properties", "key.a = other family\n");
+    }
+
+    @After
+    public void teardown() {
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    /**
+     * The locales of the family are found, and the reference is read.
+     */
+    @Test
+    public void testFamily() throws IOException {
+        final BundleFamily family = new BundleFamily(reference);
+        assertEquals(Arrays.asList("de", "fr_CA"), family.getLocales());
+        assertEquals(reference, family.getReferenceFile());
+        assertEquals("B", family.getReference().getPropertyLine("key.b").getValue());
+        assertEquals(new File(dir, "Messages_de.properties"), family.getFile("de"));
+
+        final PropertyModel de = family.open("de");
+        assertEquals("C-de", de.getPropertyLine("key.c").getValue());
+    }
+
+    /**
+     * The values of all locales are found, including keys that are not in the reference.
+     */
+    @Test
+    public void testValues() throws IOException {
+        final BundleFamily family = new BundleFamily(reference);
+        assertEquals("A-de", family.getValue("de", "key.a"));
+        assertNull(family.getValue("de", "key.b"));
+        assertEquals("C-de", family.getValue("de", "key.c"));
+        assertNull(family.getValue("it", "key.a"));
+
+        assertArrayEquals(new String[] {"A-de", null}, family.getValues("key.a"));
+        assertArrayEquals(new String[] {null, "B-fr"}, family.getValues("key.b"));
+        assertArrayEquals(new String[] {"C-de", null}, family.getValues("key.c"));
+        assertArrayEquals(new String[] {null, null}, family.getValues("key.d"));
+        assertEquals(3, family.getKeyCount());
+    }
+
+    /**
+     * The translations are only read when their values are needed, and then only once.
+     */
+    @Test
+    public void testLazyColumns() throws IOException {
+        final BundleFamily family = new BundleFamily(reference);
+
+        // Read after the family was created
+        write("Messages_fr_CA.properties", "key.b = B-fr changed\n");
+        assertEquals("B-fr changed", family.getValue("fr_CA", "key.b"));
+
+        // Not read again
+        write("Messages_fr_CA.properties", "key.b = B-fr changed again\n");
+        assertEquals("B-fr changed", family.getValue("fr_CA", "key.b"));
+    }
+
+    /**
+     * Reference files must be .properties files.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testNoProperties() throws IOException {
+        new BundleFamily(new File(dir, "Messages.txt"));
+    }
+
+    /**
+     * Write an ISO-8859-1 encoded file into the test directory.
+     */
+    private File write(String name, String content) throws IOException {
+        final File file = new File(dir, name);
+        final OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("ISO-8859-1"));
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+}
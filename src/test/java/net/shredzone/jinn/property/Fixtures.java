@@ -0,0 +1,191 @@
+/**
+ * jinn - A property translation editor
+ *
+ * Copyright (C) 2009 Richard "Shred" Körber
+ *   http://jinn.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.shredzone.jinn.property;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Helpers for the tests of the property package. Fixtures are test resources in the
+ * package of this class.
+ * <p>
+ * Lines are compared by a textual dump. Each Line is dumped into a single line of
+ * ASCII text, so expected results can be kept in a plain text fixture. The fixtures were
+ * generated by the original, unoptimized implementation.
+ *
+ * @author Richard "Shred" Körber
+ */
+final class Fixtures {
+
+    private Fixtures() {
+        // utility class without instances
+    }
+
+    /**
+     * Read the bytes of a fixture.
+     *
+     * @param name
+     *            Name of the fixture
+     * @return Content of the fixture
+     */
+    public static byte[] bytes(String name) throws IOException {
+        final InputStream in = open(name);
+        try {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[4096];
+            int len;
+            while ((len = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, len);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Read the text lines of an ASCII fixture.
+     *
+     * @param name
+     *            Name of the fixture
+     * @return List of text lines, without line terminators
+     */
+    public static List<String> lines(String name) throws IOException {
+        final BufferedReader in = new BufferedReader(new InputStreamReader(open(name), "US-ASCII"));
+        try {
+            final List<String> result = new ArrayList<String>();
+            String line;
+            while ((line = in.readLine()) != null) {
+                result.add(line);
+            }
+            return result;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Read all Lines of a PropertiesReader, and dump them.
+     *
+     * @param reader
+     *            PropertiesReader to read from
+     * @return List of dumped Lines
+     */
+    public static List<String> dump(PropertiesReader reader) throws IOException {
+        final List<String> result = new ArrayList<String>();
+        Line line;
+        while ((line = reader.readLine()) != null) {
+            result.add(dump(line));
+        }
+        return result;
+    }
+
+    /**
+     * Dump a Line into a single line of ASCII text.
+     *
+     * @param line
+     *            Line to dump
+     * @return Dumped Line
+     */
+    public static String dump(Line line) {
+        if (line instanceof PropertyLine) {
+            final PropertyLine pl = (PropertyLine) line;
+            return property(pl.getKey(), pl.getValue());
+        } else if (line instanceof CommentLine) {
+            return comment(((CommentLine) line).getComment());
+        } else if (line instanceof EmptyLine) {
+            return "empty";
+        }
+        throw new IllegalArgumentException("Unknown line type: " + line.getClass());
+    }
+
+    /**
+     * Dump a resource line.
+     *
+     * @param key
+     *            Key of the line
+     * @param value
+     *            Value of the line
+     * @return Dumped line
+     */
+    public static String property(CharSequence key, CharSequence value) {
+        return "property [" + escape(key) + "] [" + escape(value) + "]";
+    }
+
+    /**
+     * Dump a comment line.
+     *
+     * @param comment
+     *            Comment, including the comment sign
+     * @return Dumped line
+     */
+    public static String comment(CharSequence comment) {
+        return "comment [" + escape(comment) + "]";
+    }
+
+    /**
+     * Escape all characters that are not printable ASCII, like in a Java String literal.
+     *
+     * @param str
+     *            CharSequence to escape
+     * @return Escaped String
+     */
+    private static String escape(CharSequence str) {
+        final StringBuilder sb = new StringBuilder();
+        for (int ix = 0; ix < str.length(); ix++) {
+            final char ch = str.charAt(ix);
+            switch (ch) {
+            case '\\': sb.append("\\\\"); break;
+            case '\n': sb.append("\\n"); break;
+            case '\r': sb.append("\\r"); break;
+            case '\t': sb.append("\\t"); break;
+            case '\f': sb.append("\\f"); break;
+            default:
+                if (ch < 0x20 || ch > 0x7E) {
+                    sb.append(String.format("\\u%04X", (int) ch));
+                } else {
+                    sb.append(ch);
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Open a fixture.
+     *
+     * @param name
+     *            Name of the fixture
+     * @return InputStream of the fixture
+     */
+    private static InputStream open(String name) throws IOException {
+        final InputStream in = Fixtures.class.getResourceAsStream(name);
+        if (in == null) {
+            throw new IOException("Fixture not found: " + name);
+        }
+        return in;
+    }
+
+}
@@ -0,0 +1,137 @@
+/**
+ * jinn - A property translation editor
+ *
+ * Copyright (C) 2009 Richard "Shred" Körber
+ *   http://jinn.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.shredzone.jinn.property;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link KeyDictionary}. The KeyDictionary is compared with a HashMap
+ * that receives the same keys.
+ *
+ * @author Richard "Shred" Körber
+ */
+public class KeyDictionaryTest {
+
+    /**
+     * Ids are assigned in ascending order, and a key that is known keeps its id.
+     */
+    @Test
+    public void testAdd() {
+        final KeyDictionary dict = new KeyDictionary();
+        assertEquals(0, dict.size());
+        assertEquals(0, dict.add("key.a"));
+        assertEquals(1, dict.add("key.b"));
+        assertEquals(0, dict.add("key.a"));
+        assertEquals(2, dict.add(""));
+        assertEquals(3, dict.size());
+
+        assertEquals("key.a", dict.getKey(0));
+        assertEquals("key.b", dict.getKey(1));
+        assertEquals("", dict.getKey(2));
+        assertEquals(1, dict.getId("key.b"));
+        assertEquals(-1, dict.getId("key.c"));
+    }
+
+    /**
+     * Keys are found by any CharSequence with the same content, and a reused buffer is
+     * copied when it is added.
+     */
+    @Test
+    public void testCharSequence() {
+        final KeyDictionary dict = new KeyDictionary();
+        final StringBuilder sb = new StringBuilder("key.a");
+        assertEquals(0, dict.add(sb));
+
+        sb.setLength(0);
+        sb.append("key.b");
+        assertEquals(1, dict.add(sb));
+        assertEquals("key.a", dict.getKey(0));
+        assertEquals("key.b", dict.getKey(1));
+
+        assertEquals(0, dict.getId(new StringBuilder("key.a")));
+        assertEquals(1, dict.add(new StringBuilder("key.b")));
+        assertEquals(-1, dict.getId(new StringBuilder("key")));
+    }
+
+    /**
+     * Different keys with the same hash code are kept apart.
+     */
+    @Test
+    public void testCollisions() {
+        assertEquals("Aa".hashCode(), "BB".hashCode());
+
+        final KeyDictionary dict = new KeyDictionary();
+        assertEquals(0, dict.add("Aa"));
+        assertEquals(-1, dict.getId("BB"));
+        assertEquals(1, dict.add(new StringBuilder("BB")));
+        assertEquals(0, dict.getId(new StringBuilder("Aa")));
+        assertEquals(1, dict.getId("BB"));
+        assertEquals(2, dict.add("AaAa"));
+        assertEquals(3, dict.add("BBBB"));
+        assertEquals(4, dict.add("AaBB"));
+        assertEquals(2, dict.getId("AaAa"));
+        assertEquals(4, dict.getId("AaBB"));
+    }
+
+    /**
+     * Many random keys, including duplicates, give the same ids as a HashMap that assigns
+     * ascending ids. All keys are still found after the table was resized.
+     */
+    @Test
+    public void testRandomKeys() {
+        final Random rnd = new Random(42);
+        final KeyDictionary dict = new KeyDictionary();
+        final Map<String, Integer> expected = new HashMap<String, Integer>();
+
+        for (int ix = 0; ix < 20000; ix++) {
+            final String key = "key." + rnd.nextInt(8000);
+            Integer id = expected.get(key);
+            if (id == null) {
+                id = expected.size();
+                expected.put(key, id);
+            }
+            assertEquals(id.intValue(), dict.add(rnd.nextBoolean() ? key : new StringBuilder(key)));
+        }
+
+        assertEquals(expected.size(), dict.size());
+        for (Map.Entry<String, Integer> entry : expected.entrySet()) {
+            assertEquals(entry.getValue().intValue(), dict.getId(entry.getKey()));
+            assertEquals(entry.getKey(), dict.getKey(entry.getValue()));
+        }
+        assertEquals(-1, dict.getId("key.8000"));
+    }
+
+    /**
+     * Unknown ids are rejected.
+     */
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testGetKeyOutOfBounds() {
+        final KeyDictionary dict = new KeyDictionary();
+        dict.add("key.a");
+        dict.getKey(1);
+    }
+
+}
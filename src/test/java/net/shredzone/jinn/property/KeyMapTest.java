@@ -0,0 +1,294 @@
+/**
+ * jinn - A property translation editor
+ *
+ * Copyright (C) 2009 Richard "Shred" Körber
+ *   http://jinn.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.shredzone.jinn.property;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link KeyMap}. The results are compared with a HashMap.
+ *
+ * @author Richard "Shred" Körber
+ */
+public class KeyMapTest {
+
+    /**
+     * Random sequences of insertions, replacements, removals, lookups and iterations give
+     * the same results as a HashMap. Many keys have the same hash code.
+     */
+    @Test
+    public void testRandomOperations() {
+        final List<String> keys = new ArrayList<String>();
+        keys.addAll(collidingKeys("key.", 6));
+        for (int ix = 0; ix < 200; ix++) {
+            keys.add("key." + ix);
+        }
+
+        for (long seed = 0; seed < 10; seed++) {
+            final Random rnd = new Random(seed);
+            final KeyMap map = new KeyMap();
+            final Map<String, PropertyLine> expected = new HashMap<String, PropertyLine>();
+
+            for (int step = 0; step < 5000; step++) {
+                final String key = keys.get(rnd.nextInt(keys.size()));
+                switch (rnd.nextInt(10)) {
+                case 0:
+                case 1:
+                case 2:
+                case 3: {
+                    final PropertyLine line = new PropertyLine(key, "value " + step);
+                    assertSame(expected.put(key, line), map.put(key, line));
+                    break;
+                }
+
+                case 4:
+                case 5:
+                    assertSame(expected.remove(key), map.remove(key));
+                    break;
+
+                case 6:
+                    assertSame(expected.get(key), map.get(key));
+                    assertEquals(expected.containsKey(key), map.containsKey(key));
+                    break;
+
+                case 7:
+                    iterate(rnd, map, expected, 0);
+                    break;
+
+                case 8:
+                    iterate(rnd, map, expected, rnd.nextInt(4));
+                    break;
+
+                default:
+                    if (rnd.nextInt(50) == 0) {
+                        map.clear();
+                        expected.clear();
+                    }
+                }
+                assertEquals(expected.size(), map.size());
+            }
+
+            assertContent(expected, map);
+        }
+    }
+
+    /**
+     * Colliding keys whose home slot is the last slot of the table wrap around to the
+     * start of the table. Removing them keeps all other keys reachable.
+     */
+    @Test
+    public void testWrapAround() {
+        final List<String> keys = collidingKeys(wrappingPrefix(), 3);
+        for (int removed = 0; removed < keys.size(); removed++) {
+            final KeyMap map = new KeyMap();
+            final Map<String, PropertyLine> expected = new HashMap<String, PropertyLine>();
+            for (String key : keys) {
+                final PropertyLine line = new PropertyLine(key, "value");
+                map.put(key, line);
+                expected.put(key, line);
+            }
+            assertContent(expected, map);
+
+            final String key = keys.get(removed);
+            assertSame(expected.remove(key), map.remove(key));
+            assertNull(map.remove(key));
+            assertContent(expected, map);
+        }
+    }
+
+    /**
+     * Removing lines by the iterator while the cluster wraps around the end of the table
+     * returns every line exactly once.
+     */
+    @Test
+    public void testIteratorRemoveWrapAround() {
+        final List<String> keys = collidingKeys(wrappingPrefix(), 3);
+        for (int mask = 0; mask < (1 << keys.size()); mask++) {
+            final KeyMap map = new KeyMap();
+            final Map<String, PropertyLine> expected = new HashMap<String, PropertyLine>();
+            for (String key : keys) {
+                final PropertyLine line = new PropertyLine(key, "value");
+                map.put(key, line);
+                expected.put(key, line);
+            }
+
+            final Set<String> seen = new HashSet<String>();
+            int ix = 0;
+            for (Iterator<Map.Entry<String, PropertyLine>> it = map.entrySet().iterator(); it.hasNext();) {
+                final Map.Entry<String, PropertyLine> entry = it.next();
+                assertTrue(seen.add(entry.getKey()));
+                assertSame(expected.get(entry.getKey()), entry.getValue());
+                if ((mask & (1 << ix++)) != 0) {
+                    it.remove();
+                    expected.remove(entry.getKey());
+                }
+            }
+            assertEquals(new HashSet<String>(keys), seen);
+            assertContent(expected, map);
+        }
+    }
+
+    /**
+     * The map grows while lines are added, and all lines stay reachable.
+     */
+    @Test
+    public void testResize() {
+        final KeyMap map = new KeyMap();
+        final Map<String, PropertyLine> expected = new HashMap<String, PropertyLine>();
+        for (int ix = 0; ix < 10000; ix++) {
+            final String key = "key." + ix;
+            final PropertyLine line = new PropertyLine(key, "value");
+            assertNull(map.put(key, line));
+            expected.put(key, line);
+            if (Integer.bitCount(ix) == 1) {
+                assertContent(expected, map);
+            }
+        }
+        assertContent(expected, map);
+    }
+
+    /**
+     * The iterator fails on concurrent modifications, and on removing twice.
+     */
+    @Test
+    public void testIteratorFailures() {
+        final KeyMap map = new KeyMap();
+        map.put("key.a", new PropertyLine("key.a", "A"));
+        map.put("key.b", new PropertyLine("key.b", "B"));
+
+        final Iterator<Map.Entry<String, PropertyLine>> it = map.entrySet().iterator();
+        try {
+            it.remove();
+            fail("remove before next");
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+
+        it.next();
+        it.remove();
+        try {
+            it.remove();
+            fail("removed twice");
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+
+        map.put("key.c", new PropertyLine("key.c", "C"));
+        try {
+            it.next();
+            fail("concurrent modification not detected");
+        } catch (ConcurrentModificationException ex) {
+            // expected
+        }
+    }
+
+    /**
+     * Iterate over the map, removing some lines on the way.
+     *
+     * @param rnd
+     *            Random generator
+     * @param map
+     *            KeyMap to iterate over
+     * @param expected
+     *            Expected content of the map
+     * @param removeChance
+     *            Remove an entry with a chance of 1 in removeChance, or never if 0
+     */
+    private static void iterate(Random rnd, KeyMap map, Map<String, PropertyLine> expected,
+        int removeChance) {
+        final Set<String> before = new HashSet<String>(expected.keySet());
+        final Set<String> seen = new HashSet<String>();
+        for (Iterator<Map.Entry<String, PropertyLine>> it = map.entrySet().iterator(); it.hasNext();) {
+            final Map.Entry<String, PropertyLine> entry = it.next();
+            assertTrue(entry.getKey(), seen.add(entry.getKey()));
+            assertSame(expected.get(entry.getKey()), entry.getValue());
+            if (removeChance > 0 && rnd.nextInt(removeChance) == 0) {
+                it.remove();
+                expected.remove(entry.getKey());
+            }
+        }
+        assertEquals(before, seen);
+    }
+
+    /**
+     * Assert that a KeyMap has the expected content.
+     *
+     * @param expected
+     *            Expected content
+     * @param map
+     *            KeyMap to check
+     */
+    private static void assertContent(Map<String, PropertyLine> expected, KeyMap map) {
+        assertEquals(expected.size(), map.size());
+        for (Map.Entry<String, PropertyLine> entry : expected.entrySet()) {
+            assertSame(entry.getValue(), map.get(entry.getKey()));
+        }
+        assertEquals(expected, map);
+    }
+
+    /**
+     * Create keys that all have the same hash code. "Aa" and "BB" have the same hash
+     * code, so all strings of the same number of them have the same hash code.
+     *
+     * @param prefix
+     *            Prefix of all keys
+     * @param parts
+     *            Number of parts
+     * @return List of 2^parts keys
+     */
+    private static List<String> collidingKeys(String prefix, int parts) {
+        final List<String> result = new ArrayList<String>();
+        for (int bits = 0; bits < (1 << parts); bits++) {
+            final StringBuilder sb = new StringBuilder(prefix);
+            for (int ix = 0; ix < parts; ix++) {
+                sb.append((bits & (1 << ix)) != 0 ? "Aa" : "BB");
+            }
+            result.add(sb.toString());
+        }
+        return result;
+    }
+
+    /**
+     * Find a key prefix, so the colliding keys are located in the last slot of an empty
+     * KeyMap.
+     *
+     * @return Key prefix
+     */
+    private static String wrappingPrefix() {
+        for (int ix = 0;; ix++) {
+            final String prefix = "key." + ix + ".";
+            if (KeyMap.slot((prefix + "BBBBBB").hashCode(), 15) == 15) {
+                return prefix;
+            }
+        }
+    }
+
+}
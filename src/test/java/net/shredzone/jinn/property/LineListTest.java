@@ -0,0 +1,327 @@
+/**
+ * jinn - A property translation editor
+ *
+ * Copyright (C) 2009 Richard "Shred" Körber
+ *   http://jinn.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.shredzone.jinn.property;
+
+import static org.junit.Assert.*;
+
+import java.beans.PropertyChangeListener;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link LineList}. The LineList is compared with an ArrayList that
+ * receives the same operations.
+ *
+ * @author Richard "Shred" Körber
+ */
+public class LineListTest {
+
+    /**
+     * Random sequences of insertions, removals, replacements and lookups give the same
+     * results as an ArrayList. Snapshots taken in between keep their content.
+     */
+    @Test
+    public void testRandomOperations() {
+        for (long seed = 0; seed < 10; seed++) {
+            final Random rnd = new Random(seed);
+            final LineList list = new LineList();
+            final List<Line> expected = new ArrayList<Line>();
+            final List<Line> removed = new ArrayList<Line>();
+            final List<List<Line>> lSnapshots = new ArrayList<List<Line>>();
+            final List<List<Line>> lSnapshotContents = new ArrayList<List<Line>>();
+
+            // Some lines are also held by another list, so they are looked up by map
+            final LineList other = new LineList();
+
+            for (int step = 0; step < 5000; step++) {
+                final int size = expected.size();
+                final int op = rnd.nextInt(size < 50 ? 4 : 9);
+                switch (op) {
+                case 0:
+                case 1: {
+                    final Line line = createLine(rnd, other);
+                    final int index = rnd.nextInt(size + 1);
+                    list.add(index, line);
+                    expected.add(index, line);
+                    break;
+                }
+
+                case 2: {
+                    final Line line = createLine(rnd, other);
+                    assertTrue(list.add(line));
+                    expected.add(line);
+                    break;
+                }
+
+                case 3: {
+                    final Line line = (removed.isEmpty() ? createLine(rnd, other)
+                                    : removed.remove(rnd.nextInt(removed.size())));
+                    final int index = rnd.nextInt(size + 1);
+                    list.add(index, line);
+                    expected.add(index, line);
+                    break;
+                }
+
+                case 4:
+                case 5: {
+                    final int index = rnd.nextInt(size);
+                    final Line line = list.remove(index);
+                    assertSame(expected.remove(index), line);
+                    removed.add(line);
+                    break;
+                }
+
+                case 6: {
+                    final Line line = expected.get(rnd.nextInt(size));
+                    assertTrue(list.remove(line));
+                    assertTrue(expected.remove(line));
+                    assertFalse(list.remove(line));
+                    removed.add(line);
+                    break;
+                }
+
+                case 7: {
+                    final int index = rnd.nextInt(size);
+                    final Line line = createLine(rnd, other);
+                    final Line old = list.set(index, line);
+                    assertSame(expected.set(index, line), old);
+                    removed.add(old);
+                    break;
+                }
+
+                case 8: {
+                    final int index = rnd.nextInt(size);
+                    assertSame(expected.get(index), list.get(index));
+                    break;
+                }
+
+                default:
+                    fail("unknown operation " + op);
+                }
+
+                // Look up some lines that are contained, and some that were removed
+                for (int ix = 0; ix < 3 && !expected.isEmpty(); ix++) {
+                    final Line line = expected.get(rnd.nextInt(expected.size()));
+                    assertEquals(expected.indexOf(line), list.indexOf(line));
+                    assertTrue(list.contains(line));
+                }
+                if (!removed.isEmpty()) {
+                    final Line line = removed.get(rnd.nextInt(removed.size()));
+                    assertEquals(-1, list.indexOf(line));
+                    assertFalse(list.contains(line));
+                }
+
+                if (step % 100 == 0) {
+                    assertContent(expected, list);
+                }
+
+                if (rnd.nextInt(50) == 0) {
+                    lSnapshots.add(list.snapshot());
+                    lSnapshotContents.add(new ArrayList<Line>(expected));
+                }
+            }
+
+            assertContent(expected, list);
+            for (int ix = 0; ix < lSnapshots.size(); ix++) {
+                assertContent(lSnapshotContents.get(ix), lSnapshots.get(ix));
+            }
+        }
+    }
+
+    /**
+     * The index of every line is found after many changes at the front of the list.
+     */
+    @Test
+    public void testIndexOf() {
+        final LineList list = new LineList();
+        final List<Line> expected = new ArrayList<Line>();
+        for (int ix = 0; ix < 1000; ix++) {
+            final Line line = new EmptyLine();
+            list.add(0, line);
+            expected.add(0, line);
+            if (ix % 3 == 0) {
+                list.remove(0);
+                expected.remove(0);
+            }
+        }
+        for (int ix = 0; ix < expected.size(); ix++) {
+            assertEquals(ix, list.indexOf(expected.get(ix)));
+        }
+    }
+
+    /**
+     * Lines of a cleared list can be added to another list.
+     */
+    @Test
+    public void testClear() {
+        final LineList list = new LineList();
+        final List<Line> lines = new ArrayList<Line>();
+        for (int ix = 0; ix < 100; ix++) {
+            final Line line = (ix % 2 == 0 ? new EmptyLine() : new ForeignLine());
+            lines.add(line);
+            list.add(line);
+        }
+        final List<Line> snapshot = list.snapshot();
+
+        list.clear();
+        assertEquals(0, list.size());
+        assertFalse(list.iterator().hasNext());
+        for (Line line : lines) {
+            assertEquals(-1, list.indexOf(line));
+        }
+        assertContent(lines, snapshot);
+
+        final LineList other = new LineList();
+        for (int ix = lines.size() - 1; ix >= 0; ix--) {
+            other.add(0, lines.get(ix));
+        }
+        assertContent(lines, other);
+        for (int ix = 0; ix < lines.size(); ix++) {
+            assertEquals(ix, other.indexOf(lines.get(ix)));
+        }
+    }
+
+    /**
+     * A snapshot is not changed by later modifications of the list, but the list is.
+     */
+    @Test
+    public void testSnapshot() {
+        final LineList list = new LineList();
+        final Line a = new EmptyLine();
+        final Line b = new EmptyLine();
+        final Line c = new EmptyLine();
+        list.add(a);
+        list.add(b);
+
+        final List<Line> snapshot = list.snapshot();
+        list.add(1, c);
+        list.remove(a);
+        assertContent(listOf(c, b), list);
+        assertContent(listOf(a, b), snapshot);
+        assertEquals(0, list.indexOf(c));
+        assertEquals(1, list.indexOf(b));
+        assertEquals(-1, list.indexOf(a));
+
+        try {
+            snapshot.add(c);
+            fail("snapshot can be modified");
+        } catch (UnsupportedOperationException ex) {
+            // expected
+        }
+    }
+
+    /**
+     * The iterator detects modifications of the list.
+     */
+    @Test(expected = ConcurrentModificationException.class)
+    public void testConcurrentModification() {
+        final LineList list = new LineList();
+        list.add(new EmptyLine());
+        list.add(new EmptyLine());
+        final Iterator<Line> it = list.iterator();
+        it.next();
+        list.add(new EmptyLine());
+        it.next();
+    }
+
+    /**
+     * Positions outside of the list are rejected.
+     */
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testAddOutOfBounds() {
+        final LineList list = new LineList();
+        list.add(new EmptyLine());
+        list.add(2, new EmptyLine());
+    }
+
+    /**
+     * Create a new Line. Some of them are not AbstractLines, and some of them are also
+     * added to another list.
+     */
+    private static Line createLine(Random rnd, LineList other) {
+        final int type = rnd.nextInt(10);
+        if (type == 0) {
+            return new ForeignLine();
+        }
+        final Line line = new EmptyLine();
+        if (type == 1) {
+            other.add(line);
+        }
+        return line;
+    }
+
+    /**
+     * Assert that a List contains the expected Lines, by index and by iteration.
+     */
+    private static void assertContent(List<Line> expected, List<Line> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int ix = 0; ix < expected.size(); ix++) {
+            assertSame(expected.get(ix), actual.get(ix));
+        }
+        final Iterator<Line> it = actual.iterator();
+        for (Line line : expected) {
+            assertTrue(it.hasNext());
+            assertSame(line, it.next());
+        }
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * Create a List of Lines.
+     */
+    private static List<Line> listOf(Line... lines) {
+        final List<Line> result = new ArrayList<Line>();
+        for (Line line : lines) {
+            result.add(line);
+        }
+        return result;
+    }
+
+    /**
+     * A Line that is not an AbstractLine. Like all Lines, it is only equal to itself.
+     */
+    private static class ForeignLine implements Line {
+        @Override
+        public void write(PropertiesWriter pw) {
+            // not written
+        }
+
+        @Override
+        public Object clone() {
+            return new ForeignLine();
+        }
+
+        @Override
+        public void addPropertyChangeListener(PropertyChangeListener l) {
+            // never changes
+        }
+
+        @Override
+        public void removePropertyChangeListener(PropertyChangeListener l) {
+            // never changes
+        }
+    }
+
+}
@@ -0,0 +1,208 @@
+/**
+ * jinn - A property translation editor
+ *
+ * Copyright (C) 2009 Richard "Shred" Körber
+ *   http://jinn.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.shredzone.jinn.property;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link MappedPropertyModel}. The same file is read into a
+ * MappedPropertyModel and a PropertyModel, and both models must give the same results.
+ * Small segment sizes are used, so the files are mapped in several segments.
+ *
+ * @author Richard "Shred" Körber
+ */
+public class MappedPropertyModelTest {
+
+    private static final String[] TERMINATORS = { "\n", "\r\n", "\r" };
+
+    private File dir;
+    private File file;
+
+    @Before
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("jinn").toFile();
+        file = new File(dir, "test.properties");
+    }
+
+    @After
+    public void teardown() {
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    /**
+     * The fixtures are read like by a PropertyModel.
+     */
+    @Test
+    public void testFixtures() throws IOException {
+        final String[] fixtures = {
+            "reader.properties", "escapes.properties", "writer.properties",
+            "merge-reference.properties", "merge-translation.properties",
+        };
+        for (String fixture : fixtures) {
+            write(Fixtures.bytes(fixture));
+            assertSame(new MappedPropertyModel());
+            assertSame(new MappedPropertyModel(3500));
+        }
+    }
+
+    /**
+     * Random lines, with all kinds of line terminators, continuation lines, escapes and
+     * duplicate keys, are read like by a PropertyModel, in segments of different sizes.
+     */
+    @Test
+    public void testSegments() throws IOException {
+        final Random rnd = new Random(23);
+        final StringBuilder sb = new StringBuilder();
+        for (int ix = 0; ix < 2000; ix++) {
+            final String key = "key." + rnd.nextInt(1500);
+            switch (rnd.nextInt(6)) {
+            case 0:  sb.append("# comment ").append(ix); break;
+            case 1:  break;
+            case 2:  sb.append(key).append(" = first \\").append(terminator(rnd)).append("    second"); break;
+            case 3:  sb.append(key).append(":caf\\u00e9\\t!"); break;
+            default: sb.append(key).append(" = value ").append(ix); break;
+            }
+            sb.append(terminator(rnd));
+        }
+        write(sb.toString().getBytes("ISO-8859-1"));
+
+        for (int size : new int[] { 64, 100, 333, 1000, 4096 }) {
+            assertSame(new MappedPropertyModel(size));
+        }
+        assertSame(new MappedPropertyModel());
+    }
+
+    /**
+     * An empty file gives an empty model.
+     */
+    @Test
+    public void testEmpty() throws IOException {
+        write(new byte[0]);
+        assertSame(new MappedPropertyModel(64));
+    }
+
+    /**
+     * A line that is longer than a segment cannot be mapped.
+     */
+    @Test(expected = IOException.class)
+    public void testLineTooLong() throws IOException {
+        final StringBuilder sb = new StringBuilder("key.short = short\nkey.long = ");
+        for (int ix = 0; ix < 100; ix++) {
+            sb.append('x');
+        }
+        sb.append("\nkey.end = end\n");
+        write(sb.toString().getBytes("ISO-8859-1"));
+        new MappedPropertyModel(64).read(file);
+    }
+
+    /**
+     * The model keeps its content if the file is truncated after it was read.
+     */
+    @Test
+    public void testFileTruncated() throws IOException {
+        write("key.a = one\nkey.b = two\n".getBytes("ISO-8859-1"));
+        final MappedPropertyModel model = new MappedPropertyModel();
+        model.read(file);
+
+        write(new byte[0]);
+        assertEquals(2, model.getSize());
+        assertEquals("two", model.getPropertyLine("key.b").getValue());
+    }
+
+    /**
+     * Read the test file into the given MappedPropertyModel and into a PropertyModel,
+     * and assert that both give the same lines, key lookups and output.
+     *
+     * @param mapped
+     *            MappedPropertyModel to test
+     */
+    private void assertSame(MappedPropertyModel mapped) throws IOException {
+        final PropertyModel expected = new PropertyModel();
+        expected.read(file);
+        mapped.read(file);
+
+        assertEquals(expected.getSize(), mapped.getSize());
+        assertEquals(expected.getLines().size(), mapped.getLines().size());
+        for (int ix = 0; ix < expected.getSize(); ix++) {
+            final String line = Fixtures.dump(expected.getElementAt(ix));
+            assertEquals(line, Fixtures.dump(mapped.getElementAt(ix)));
+            assertEquals(line, Fixtures.dump(mapped.getLines().get(ix)));
+        }
+
+        assertEquals(expected.getResourceMap().keySet(),
+                new HashSet<String>(mapped.getResourceMap().keySet()));
+        for (String key : expected.getResourceMap().keySet()) {
+            assertEquals(Fixtures.dump(expected.getPropertyLine(key)),
+                    Fixtures.dump(mapped.getPropertyLine(key)));
+            assertEquals(expected.getLineIndex(key), mapped.getLineIndex(key));
+        }
+        assertNull(mapped.getPropertyLine("no.such.key"));
+        assertEquals(-1, mapped.getLineIndex("no.such.key"));
+
+        final ByteArrayOutputStream expectedOut = new ByteArrayOutputStream();
+        expected.write(expectedOut);
+        final ByteArrayOutputStream mappedOut = new ByteArrayOutputStream();
+        mapped.write(mappedOut);
+        assertArrayEquals(expectedOut.toByteArray(), mappedOut.toByteArray());
+    }
+
+    /**
+     * Get a random line terminator.
+     *
+     * @param rnd
+     *            Random generator
+     * @return Line terminator
+     */
+    private static String terminator(Random rnd) {
+        return TERMINATORS[rnd.nextInt(TERMINATORS.length)];
+    }
+
+    /**
+     * Write the test file.
+     *
+     * @param data
+     *            Content of the file
+     */
+    private void write(byte[] data) throws IOException {
+        final OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+    }
+
+}
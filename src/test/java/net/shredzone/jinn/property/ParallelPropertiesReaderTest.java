@@ -0,0 +1,161 @@
+/**
+ * jinn - A property translation editor
+ *
+ * Copyright (C) 2009 Richard "Shred" Körber
+ *   http://jinn.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.shredzone.jinn.property;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link ParallelPropertiesReader}. The result of a parallel read must be
+ * identical to reading the same data with a single {@link PropertiesReader}.
+ *
+ * @author Richard "Shred" Körber
+ */
+public class ParallelPropertiesReaderTest {
+
+    private static final String TRICKY =
+              "# comment with backslash \\\n"
+            + "key.a = one \\\n"
+            + "    two \\\r\n"
+            + "    three\n"
+            + "key.b = four\r\n"
+            + "key.c = \\\\\n"
+            + "    continued\r"
+            + "\r\n"
+            + "key.d = five\\\r"
+            + "  six\n"
+            + "\n"
+            + "key.e = \\\n"
+            + "\n"
+            + "key.f:seven";
+
+    /**
+     * The boundary is found after the next line terminator that is not preceded by a
+     * backslash.
+     */
+    @Test
+    public void testFindBoundary() throws IOException {
+        final ByteBuffer buffer = ByteBuffer.wrap("aa\r\nbb\\\ncc\\\r\ndd\re".getBytes("ISO-8859-1"));
+        final int end = buffer.limit();
+        assertEquals(4, ParallelPropertiesReader.findBoundary(buffer, 0, end));
+        assertEquals(4, ParallelPropertiesReader.findBoundary(buffer, 2, end));
+        assertEquals(4, ParallelPropertiesReader.findBoundary(buffer, 3, end));
+        assertEquals(16, ParallelPropertiesReader.findBoundary(buffer, 4, end));
+        assertEquals(16, ParallelPropertiesReader.findBoundary(buffer, 8, end));
+        assertEquals(16, ParallelPropertiesReader.findBoundary(buffer, 12, end));
+        assertEquals(16, ParallelPropertiesReader.findBoundary(buffer, 13, end));
+        assertEquals(17, ParallelPropertiesReader.findBoundary(buffer, 16, end));
+        assertEquals(17, ParallelPropertiesReader.findBoundary(buffer, 17, end));
+    }
+
+    /**
+     * Every position of the data is made a split point, including backslashes before a
+     * line terminator, CRLF terminators and continuation lines.
+     */
+    @Test
+    public void testAllSplitPoints() throws IOException {
+        final byte[] data = TRICKY.getBytes("ISO-8859-1");
+        final List<String> expected = readSequential(data);
+        for (int chunkSize = 1; chunkSize <= data.length + 1; chunkSize++) {
+            assertEquals("chunk size " + chunkSize, expected,
+                    dump(ParallelPropertiesReader.read(ByteBuffer.wrap(data), null, chunkSize)));
+        }
+    }
+
+    /**
+     * The buffer's position is respected and not changed.
+     */
+    @Test
+    public void testBufferPosition() throws IOException {
+        final byte[] data = ("xx\\\n" + TRICKY).getBytes("ISO-8859-1");
+        final ByteBuffer buffer = ByteBuffer.wrap(data);
+        buffer.position(4);
+        assertEquals(readSequential(TRICKY.getBytes("ISO-8859-1")),
+                dump(ParallelPropertiesReader.read(buffer, null, 7)));
+        assertEquals(4, buffer.position());
+    }
+
+    /**
+     * A huge file is read by {@link PropertyModel#readParallel(ByteBuffer)} in several
+     * chunks, like by {@link PropertyModel#read(java.io.InputStream)}.
+     */
+    @Test
+    public void testReadParallel() throws IOException {
+        final Random rnd = new Random(3);
+        final String[] terminators = { "\n", "\r\n", "\r" };
+        final StringBuilder sb = new StringBuilder();
+        while (sb.length() < 3 * 1024 * 1024) {
+            final String term = terminators[rnd.nextInt(terminators.length)];
+            switch (rnd.nextInt(4)) {
+            case 0:  sb.append("# comment \\").append(term); break;
+            case 1:  sb.append("key.").append(sb.length()).append(" = wrapped \\").append(term)
+                            .append("    line").append(term); break;
+            case 2:  sb.append(term); break;
+            default: sb.append("key.").append(sb.length()).append(" = value").append(term); break;
+            }
+        }
+        final byte[] data = sb.toString().getBytes("ISO-8859-1");
+
+        final PropertyModel expected = new PropertyModel();
+        expected.read(new ByteArrayInputStream(data));
+        final PropertyModel actual = new PropertyModel();
+        actual.readParallel(ByteBuffer.wrap(data));
+
+        assertEquals(expected.getSize(), actual.getSize());
+        for (int ix = 0; ix < expected.getSize(); ix++) {
+            assertEquals(Fixtures.dump(expected.getElementAt(ix)), Fixtures.dump(actual.getElementAt(ix)));
+        }
+    }
+
+    /**
+     * Read data with a single PropertiesReader.
+     *
+     * @param data
+     *            Data to read
+     * @return List of dumped Lines
+     */
+    private static List<String> readSequential(byte[] data) throws IOException {
+        return Fixtures.dump(new PropertiesReader(new ByteArrayInputStream(data)));
+    }
+
+    /**
+     * Dump a List of Lines.
+     *
+     * @param lines
+     *            Lines to dump
+     * @return List of dumped Lines
+     */
+    private static List<String> dump(List<Line> lines) {
+        final List<String> result = new ArrayList<String>();
+        for (Line line : lines) {
+            result.add(Fixtures.dump(line));
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,338 @@
+/**
+ * jinn - A property translation editor
+ *
+ * Copyright (C) 2009 Richard "Shred" Körber
+ *   http://jinn.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.shredzone.jinn.property;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link PropertiesReader}.
+ *
+ * @author Richard "Shred" Körber
+ */
+public class PropertiesReaderTest {
+
+    /**
+     * Line endings, wrapped lines and separators are read like before.
+     */
+    @Test
+    public void testReadLines() throws IOException {
+        final byte[] data = Fixtures.bytes("reader.properties");
+        final PropertiesReader reader = new PropertiesReader(new ByteArrayInputStream(data));
+        assertEquals(Fixtures.lines("reader-lines.txt"), Fixtures.dump(reader));
+    }
+
+    /**
+     * The result does not depend on how many bytes the InputStream returns at once.
+     */
+    @Test
+    public void testReadTrickling() throws IOException {
+        final byte[] data = Fixtures.bytes("reader.properties");
+        final PropertiesReader reader = new PropertiesReader(new TricklingInputStream(data));
+        assertEquals(Fixtures.lines("reader-lines.txt"), Fixtures.dump(reader));
+    }
+
+    /**
+     * Reading from a ByteBuffer in place gives the same lines as reading from an
+     * InputStream.
+     */
+    @Test
+    public void testReadByteBuffer() throws IOException {
+        final byte[] data = Fixtures.bytes("reader.properties");
+        final List<String> expected = Fixtures.lines("reader-lines.txt");
+
+        final ByteBuffer heap = ByteBuffer.wrap(data);
+        assertEquals(expected, Fixtures.dump(new PropertiesReader(heap)));
+
+        final ByteBuffer direct = ByteBuffer.allocateDirect(data.length + 10);
+        direct.put(new byte[10]).put(data);
+        ((Buffer) direct).position(10);
+        assertEquals(expected, Fixtures.dump(new PropertiesReader(direct)));
+    }
+
+    /**
+     * Line breaks and line wraps are also detected when they are split across the
+     * blocks of the char buffer.
+     */
+    @Test
+    public void testBlockBoundary() throws IOException {
+        for (int length = 8180; length < 8200; length++) {
+            final StringBuilder sb = new StringBuilder("pad=");
+            while (sb.length() < length) {
+                sb.append('x');
+            }
+            final String pad = sb.substring(4);
+            sb.append("\r\nkey.a = one \\\r\n    two\r\nkey.b = three\rkey.c = ä\n");
+
+            final PropertiesReader reader = new PropertiesReader(
+                    new ByteArrayInputStream(sb.toString().getBytes("ISO-8859-1")));
+            assertEquals("length " + length, Arrays.asList(
+                    Fixtures.property("pad", pad),
+                    Fixtures.property("key.a", "one two"),
+                    Fixtures.property("key.b", "three"),
+                    Fixtures.property("key.c", "ä")
+                    ), Fixtures.dump(reader));
+        }
+    }
+
+    /**
+     * Escape sequences in keys, values and comments are unescaped like before.
+     */
+    @Test
+    public void testEscapes() throws IOException {
+        final byte[] data = Fixtures.bytes("escapes.properties");
+        final PropertiesReader reader = new PropertiesReader(new ByteArrayInputStream(data));
+        assertEquals(Fixtures.lines("escapes-lines.txt"), Fixtures.dump(reader));
+    }
+
+    /**
+     * The callback parser unescapes like {@link PropertiesReader#readLine()}.
+     */
+    @Test
+    public void testParseEscapes() throws IOException {
+        for (String name : new String[] {"escapes", "reader"}) {
+            final byte[] data = Fixtures.bytes(name + ".properties");
+            final List<String> result = new ArrayList<String>();
+            new PropertiesReader(new ByteArrayInputStream(data)).parse(new PropertiesHandler() {
+                @Override
+                public void onProperty(CharSequence key, CharSequence value) {
+                    result.add(Fixtures.property(key, value));
+                }
+
+                @Override
+                public void onComment(CharSequence comment) {
+                    result.add(Fixtures.comment(comment));
+                }
+
+                @Override
+                public void onEmpty() {
+                    result.add("empty");
+                }
+            });
+            assertEquals(name, Fixtures.lines(name + "-lines.txt"), result);
+        }
+    }
+
+    /**
+     * Values that are unescaped on first access are the same as the values unescaped by
+     * the callback parser.
+     */
+    @Test
+    public void testLazyEscapes() throws IOException {
+        for (String name : new String[] {"escapes", "reader"}) {
+            final byte[] data = Fixtures.bytes(name + ".properties");
+            final List<String> expected = new ArrayList<String>();
+            new PropertiesReader(new ByteArrayInputStream(data)).parse(new PropertiesHandler() {
+                @Override
+                public void onProperty(CharSequence key, CharSequence value) {
+                    expected.add(value.toString());
+                }
+
+                @Override
+                public void onComment(CharSequence comment) {
+                    // ignored
+                }
+
+                @Override
+                public void onEmpty() {
+                    // ignored
+                }
+            });
+
+            final List<String> result = new ArrayList<String>();
+            final PropertiesReader reader = new PropertiesReader(new ByteArrayInputStream(data));
+            Line line;
+            while ((line = reader.readLine()) != null) {
+                if (line instanceof PropertyLine) {
+                    result.add(((PropertyLine) line).getValue());
+                }
+            }
+            assertEquals(name, expected, result);
+        }
+    }
+
+    /**
+     * Malformed escape sequences are rejected, in keys as well as in values. Values may
+     * be rejected when they are accessed.
+     */
+    @Test
+    public void testMalformedEscapes() throws IOException {
+        final String[] malformed = {
+            "key = truncated \\u12",
+            "key = truncated \\u12 in the middle",
+            "key = sign \\u+123",
+            "key = not hex \\u00g0",
+            "key\\u12 = truncated in key",
+            "key = lone backslash at the end \\",
+        };
+        for (String src : malformed) {
+            try {
+                final Line line = new PropertiesReader(
+                                new ByteArrayInputStream(src.getBytes("ISO-8859-1"))).readLine();
+                ((PropertyLine) line).getValue();
+                fail("accepted: " + src);
+            } catch (IllegalArgumentException ex) {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * A malformed value can be replaced by a new value.
+     */
+    @Test
+    public void testReplaceMalformed() throws IOException {
+        final String src = "key = bad \\x \\";
+        final PropertyLine line = (PropertyLine) new PropertiesReader(
+                        new ByteArrayInputStream(src.getBytes("ISO-8859-1"))).readLine();
+        line.setValue("good");
+        assertEquals("good", line.getValue());
+    }
+
+    /**
+     * Files in other encodings give the same lines, if the Charset is passed in or can be
+     * detected.
+     */
+    @Test
+    public void testCharsets() throws IOException {
+        final String text = new String(Fixtures.bytes("reader.properties"), "ISO-8859-1");
+        final List<String> expected = Fixtures.lines("reader-lines.txt");
+
+        for (String cs : new String[] {"UTF-8", "UTF-16LE", "ISO-8859-1"}) {
+            assertEquals(cs, expected, readCharset(text.getBytes(cs), Charset.forName(cs)));
+        }
+
+        // Detected by the content
+        assertEquals(expected, readCharset(text.getBytes("UTF-8"), null));
+        assertEquals(expected, readCharset(text.getBytes("ISO-8859-1"), null));
+    }
+
+    /**
+     * Byte order marks select the Charset, and are not part of the first line.
+     */
+    @Test
+    public void testByteOrderMarks() throws IOException {
+        final String text = new String(Fixtures.bytes("reader.properties"), "ISO-8859-1");
+        final List<String> expected = Fixtures.lines("reader-lines.txt");
+
+        final byte[] utf8 = concat(new byte[] {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF},
+                text.getBytes("UTF-8"));
+        assertEquals(expected, readCharset(utf8, null));
+        assertEquals(expected, readCharset(utf8, Charset.forName("UTF-8")));
+
+        final byte[] utf16be = concat(new byte[] {(byte) 0xFE, (byte) 0xFF},
+                text.getBytes("UTF-16BE"));
+        assertEquals(expected, readCharset(utf16be, null));
+
+        final byte[] utf16le = concat(new byte[] {(byte) 0xFF, (byte) 0xFE},
+                text.getBytes("UTF-16LE"));
+        assertEquals(expected, readCharset(utf16le, null));
+
+        // A byte order mark alone is an empty file
+        assertTrue(readCharset(new byte[] {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF}, null).isEmpty());
+    }
+
+    /**
+     * Input that is not properly encoded is reported as IOException.
+     */
+    @Test(expected = IOException.class)
+    public void testMalformedInput() throws IOException {
+        readCharset(new byte[] {'k', 'e', 'y', '=', (byte) 0xC3, '\n'}, Charset.forName("UTF-8"));
+    }
+
+    /**
+     * The uniform stream has single LF line breaks and no line wraps.
+     */
+    @Test
+    public void testReadUniform() throws IOException {
+        final byte[] data = "a=1\r\nb=2 \\\r\n   3\rc=4".getBytes("ISO-8859-1");
+        final PropertiesReader reader = new PropertiesReader(new ByteArrayInputStream(data));
+        final char[] buffer = new char[100];
+        final int len = reader.read(buffer, 0, buffer.length);
+        assertEquals("a=1\nb=2 3\nc=4", new String(buffer, 0, len));
+        assertEquals(-1, reader.read());
+    }
+
+    /**
+     * Reading stops at the end of the file.
+     */
+    @Test
+    public void testEmpty() throws IOException {
+        final PropertiesReader reader = new PropertiesReader(new ByteArrayInputStream(new byte[0]));
+        assertNull(reader.readLine());
+        assertNull(reader.readString());
+    }
+
+    /**
+     * Read all lines of a file with the given Charset, from an InputStream and from a
+     * ByteBuffer. Both must give the same result.
+     *
+     * @param data
+     *            File content
+     * @param charset
+     *            Charset, or null for detection
+     * @return List of dumped lines
+     */
+    private static List<String> readCharset(byte[] data, Charset charset) throws IOException {
+        final List<String> result = Fixtures.dump(
+                new PropertiesReader(new ByteArrayInputStream(data), charset));
+        assertEquals(result, Fixtures.dump(new PropertiesReader(ByteBuffer.wrap(data), charset)));
+        return result;
+    }
+
+    /**
+     * Concatenate two byte arrays.
+     */
+    private static byte[] concat(byte[] a, byte[] b) {
+        final byte[] result = new byte[a.length + b.length];
+        System.arraycopy(a, 0, result, 0, a.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+
+    /**
+     * An InputStream that returns only a few bytes on each read.
+     */
+    private static class TricklingInputStream extends FilterInputStream {
+        private int count = 0;
+
+        public TricklingInputStream(byte[] data) {
+            super(new ByteArrayInputStream(data));
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            count = (count % 7) + 1;
+            return super.read(b, off, Math.min(len, count));
+        }
+    }
+
+}
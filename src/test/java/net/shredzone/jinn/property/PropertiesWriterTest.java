@@ -0,0 +1,265 @@
+/**
+ * jinn - A property translation editor
+ *
+ * Copyright (C) 2009 Richard "Shred" Körber
+ *   http://jinn.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.shredzone.jinn.property;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link PropertiesWriter}.
+ *
+ * @author Richard "Shred" Körber
+ */
+public class PropertiesWriterTest {
+    private PropertyModel model;
+
+    /**
+     * Read the model to be written.
+     */
+    @Before
+    public void setup() throws IOException {
+        model = new PropertyModel();
+        model.read(new ByteArrayInputStream(Fixtures.bytes("writer.properties")));
+    }
+
+    /**
+     * Keys, values and comments are written byte by byte like before, with the default
+     * settings.
+     */
+    @Test
+    public void testWriteDefault() throws IOException {
+        assertArrayEquals(Fixtures.bytes("writer-default.properties"), write("\n", 24, 4, 79));
+    }
+
+    /**
+     * Keys, values and comments are written like before, without alignment and wrapping.
+     */
+    @Test
+    public void testWriteUnaligned() throws IOException {
+        assertArrayEquals(Fixtures.bytes("writer-unaligned.properties"), write("\r\n", 0, 0, 0));
+    }
+
+    /**
+     * Keys, values and comments are written like before, with a narrow line length.
+     */
+    @Test
+    public void testWriteNarrow() throws IOException {
+        assertArrayEquals(Fixtures.bytes("writer-narrow.properties"), write("\n", 10, 8, 40));
+    }
+
+    /**
+     * Written files are read back to the same lines.
+     */
+    @Test
+    public void testReadBack() throws IOException {
+        final PropertyModel result = new PropertyModel();
+        result.read(new ByteArrayInputStream(write("\r\n", 10, 8, 40)));
+        assertEquals(model.getSize(), result.getSize());
+        for (int ix = 0; ix < model.getSize(); ix++) {
+            assertEquals(Fixtures.dump(model.getElementAt(ix)), Fixtures.dump(result.getElementAt(ix)));
+        }
+    }
+
+    /**
+     * A huge model is written in parallel like by a single PropertiesWriter, with any
+     * settings.
+     */
+    @Test
+    public void testWriteParallel() throws IOException {
+        final byte[] fixture = Fixtures.bytes("writer.properties");
+        final int copies = PropertyModel.PARALLEL_WRITE_THRESHOLD / model.getSize() + 1;
+        final ByteArrayOutputStream data = new ByteArrayOutputStream();
+        for (int ix = 0; ix < copies; ix++) {
+            data.write(fixture);
+        }
+        model.read(new ByteArrayInputStream(data.toByteArray()));
+        assertTrue(model.getSize() > PropertyModel.PARALLEL_WRITE_THRESHOLD);
+
+        assertArrayEquals(write("\n", 24, 4, 79), writeParallel("\n", 24, 4, 79));
+        assertArrayEquals(write("\r\n", 0, 0, 0), writeParallel("\r\n", 0, 0, 0));
+        assertArrayEquals(write("\r", 10, 8, 40), writeParallel("\r", 10, 8, 40));
+    }
+
+    /**
+     * Keys are escaped and padded to the value indent.
+     */
+    @Test
+    public void testWriteKey() throws IOException {
+        assertEquals("key       ", writeKey("key", 10));
+        assertEquals("a\\ b\\:c\\=d", writeKey("a b:c=d", 0));
+        assertEquals("\\#x#!", writeKey("#x#!", 0));
+        assertEquals("\\!x!#", writeKey("!x!#", 0));
+        assertEquals("\\u20AC\\t ", writeKey("€\t", 3));
+        assertEquals("\\     ", writeKey("", 5));
+        assertEquals("", writeKey("", 0));
+    }
+
+    /**
+     * Encoded lines are cached, and encoded again after the line was changed.
+     */
+    @Test
+    public void testEncodeChanged() throws IOException {
+        final PropertiesWriter writer = new PropertiesWriter(new ByteArrayOutputStream());
+
+        final PropertyLine prop = new PropertyLine("key", "one");
+        final byte[] first = writer.encode(prop);
+        assertArrayEquals(serialize(prop, "\n", 24, 79), first);
+        assertSame(first, writer.encode(prop));
+
+        prop.setValue("two");
+        assertArrayEquals(serialize(prop, "\n", 24, 79), writer.encode(prop));
+
+        final CommentLine comment = new CommentLine("# one");
+        assertArrayEquals(serialize(comment, "\n", 24, 79), writer.encode(comment));
+
+        comment.setComment("# two");
+        assertArrayEquals(serialize(comment, "\n", 24, 79), writer.encode(comment));
+    }
+
+    /**
+     * Encoded lines are encoded again after the settings of the writer were changed.
+     */
+    @Test
+    public void testEncodeSettingsChanged() throws IOException {
+        final PropertiesWriter writer = new PropertiesWriter(new ByteArrayOutputStream());
+        final PropertyLine prop = new PropertyLine("key", "a value that is long enough to be wrapped");
+        assertArrayEquals(serialize(prop, "\n", 24, 79), writer.encode(prop));
+
+        writer.setValueIndent(10);
+        assertArrayEquals(serialize(prop, "\n", 10, 79), writer.encode(prop));
+
+        writer.setLineLength(20);
+        assertArrayEquals(serialize(prop, "\n", 10, 20), writer.encode(prop));
+
+        writer.setLineSeparator("\r\n");
+        assertArrayEquals(serialize(prop, "\r\n", 10, 20), writer.encode(prop));
+    }
+
+    /**
+     * A line that is changed while it is encoded does not keep the outdated encoding.
+     */
+    @Test
+    public void testEncodeStale() throws IOException {
+        final PropertiesWriter writer = new PropertiesWriter(new ByteArrayOutputStream());
+        final PropertyLine prop = new PropertyLine("key", "old") {
+            private boolean changed;
+
+            @Override
+            public void write(PropertiesWriter pw) throws IOException {
+                super.write(pw);
+                if (!changed) {
+                    changed = true;
+                    setValue("new");
+                }
+            }
+        };
+
+        final byte[] stale = writer.encode(prop);
+        assertArrayEquals(serialize(new PropertyLine("key", "old"), "\n", 24, 79), stale);
+        assertArrayEquals(serialize(new PropertyLine("key", "new"), "\n", 24, 79), writer.encode(prop));
+    }
+
+    /**
+     * Write the model with the given settings.
+     *
+     * @return Bytes that were written
+     */
+    private byte[] write(String separator, int indent, int wrapIndent, int lineLength)
+        throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final PropertiesWriter writer = new PropertiesWriter(out);
+        writer.setLineSeparator(separator);
+        writer.setValueIndent(indent);
+        writer.setWrapIndent(wrapIndent);
+        writer.setLineLength(lineLength);
+        model.write(writer);
+        writer.flush();
+        return out.toByteArray();
+    }
+
+    /**
+     * Write the model in parallel with the given settings.
+     *
+     * @return Bytes that were written
+     */
+    private byte[] writeParallel(String separator, int indent, int wrapIndent, int lineLength)
+        throws IOException {
+        final PropertiesWriter format = new PropertiesWriter(new ByteArrayOutputStream());
+        format.setLineSeparator(separator);
+        format.setValueIndent(indent);
+        format.setWrapIndent(wrapIndent);
+        format.setLineLength(lineLength);
+
+        final Path file = Files.createTempFile("jinn", ".properties");
+        try {
+            final FileChannel fc = FileChannel.open(file, StandardOpenOption.WRITE);
+            try {
+                model.writeParallel(fc, format);
+            } finally {
+                fc.close();
+            }
+            return Files.readAllBytes(file);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    /**
+     * Serialize a line with a new writer using the given settings.
+     *
+     * @return Bytes that were written
+     */
+    private static byte[] serialize(Line line, String separator, int indent, int lineLength)
+        throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final PropertiesWriter writer = new PropertiesWriter(out);
+        writer.setLineSeparator(separator);
+        writer.setValueIndent(indent);
+        writer.setLineLength(lineLength);
+        line.write(writer);
+        writer.flush();
+        return out.toByteArray();
+    }
+
+    /**
+     * Write a key with the given value indent.
+     *
+     * @return String that was written
+     */
+    private static String writeKey(String key, int indent) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final PropertiesWriter writer = new PropertiesWriter(out);
+        writer.setValueIndent(indent);
+        writer.writeKey(key);
+        writer.flush();
+        return out.toString("ISO-8859-1");
+    }
+
+}
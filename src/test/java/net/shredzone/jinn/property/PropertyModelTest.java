@@ -0,0 +1,507 @@
+/**
+ * jinn - A property translation editor
+ *
+ * Copyright (C) 2009 Richard "Shred" Körber
+ *   http://jinn.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.shredzone.jinn.property;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link PropertyModel}. The ListDataEvents are recorded, and replayed
+ * on a copy of the model content. After every event, the copy must match the model.
+ *
+ * @author Richard "Shred" Körber
+ */
+public class PropertyModelTest {
+
+    private PropertyModel model;
+    private EventRecorder recorder;
+
+    @Before
+    public void setup() {
+        model = new PropertyModel();
+        recorder = new EventRecorder(model);
+        model.addListDataListener(recorder);
+    }
+
+    /**
+     * Reading into an empty model fires a single event.
+     */
+    @Test
+    public void testReadEmpty() throws IOException {
+        model.read(new ByteArrayInputStream(Fixtures.bytes("reader.properties")));
+        final int size = model.getSize();
+        assertTrue(size > 1);
+        assertEquals(Arrays.asList("added 0 " + (size - 1)), recorder.events);
+    }
+
+    /**
+     * Reading into a filled model fires a removal and an addition.
+     */
+    @Test
+    public void testReread() throws IOException {
+        model.read(new ByteArrayInputStream("key.a=1\nkey.b=2\nkey.c=3\n".getBytes("ISO-8859-1")));
+        recorder.events.clear();
+
+        model.read(new ByteArrayInputStream("key.x=1\nkey.y=2\n".getBytes("ISO-8859-1")));
+        assertEquals(Arrays.asList("removed 0 2", "added 0 1"), recorder.events);
+    }
+
+    /**
+     * Clearing an empty model fires no event, clearing a filled model fires one.
+     */
+    @Test
+    public void testClear() {
+        model.clear();
+        assertTrue(recorder.events.isEmpty());
+
+        fill(5);
+        recorder.events.clear();
+        model.clear();
+        assertEquals(Arrays.asList("removed 0 4"), recorder.events);
+    }
+
+    /**
+     * Without a batch, every change fires an event of its own.
+     */
+    @Test
+    public void testNoBatch() {
+        final List<PropertyLine> lines = fill(3);
+        assertEquals(Arrays.asList("added 0 0", "added 1 1", "added 2 2"), recorder.events);
+        recorder.events.clear();
+
+        lines.get(0).setValue("changed");
+        model.removeLine(lines.get(1));
+        assertEquals(Arrays.asList("changed 0 0", "removed 1 1"), recorder.events);
+    }
+
+    /**
+     * Lines added within or right after an added range extend that range. Changes of
+     * these lines are covered by the added range. Lines added elsewhere start a new
+     * range.
+     */
+    @Test
+    public void testBatchAdd() {
+        fill(2);
+        recorder.events.clear();
+
+        model.beginBatch();
+        try {
+            final PropertyLine added = new PropertyLine("x", "1");
+            model.insertLine(1, added);
+            model.insertLine(2, new PropertyLine("y", "2"));
+            model.insertLine(1, new PropertyLine("z", "3"));
+            added.setValue("changed");
+            assertTrue(recorder.events.isEmpty());
+            model.addLine(new EmptyLine());
+            assertEquals(Arrays.asList("added 1 3"), recorder.events);
+        } finally {
+            model.endBatch();
+        }
+        assertEquals(Arrays.asList("added 1 3", "added 5 5"), recorder.events);
+    }
+
+    /**
+     * Lines removed at the start of or right before a removed range extend that range.
+     */
+    @Test
+    public void testBatchRemove() {
+        final List<PropertyLine> lines = fill(10);
+        recorder.events.clear();
+
+        model.beginBatch();
+        try {
+            model.removeLine(lines.get(5));
+            model.removeLine(lines.get(6));
+            model.removeLine(lines.get(4));
+            model.removeLine(lines.get(3));
+            model.removeLine(lines.get(9));
+        } finally {
+            model.endBatch();
+        }
+        assertEquals(Arrays.asList("removed 3 6", "removed 5 5"), recorder.events);
+    }
+
+    /**
+     * Ranges of changed lines are joined.
+     */
+    @Test
+    public void testBatchChange() {
+        final List<PropertyLine> lines = fill(10);
+        recorder.events.clear();
+
+        model.beginBatch();
+        try {
+            lines.get(5).setValue("a");
+            lines.get(2).setValue("b");
+            lines.get(7).setValue("c");
+        } finally {
+            model.endBatch();
+        }
+        assertEquals(Arrays.asList("changed 2 7"), recorder.events);
+    }
+
+    /**
+     * A change that cannot be merged sends the pending event before the model is changed,
+     * so the listeners see the model in the state the event refers to.
+     */
+    @Test
+    public void testBatchUnmergeable() {
+        final List<PropertyLine> lines = fill(5);
+        recorder.events.clear();
+
+        model.beginBatch();
+        try {
+            model.addLine(new EmptyLine());
+            model.removeLine(lines.get(0));
+            lines.get(1).setValue("changed");
+            model.insertLine(0, new EmptyLine());
+            assertEquals(Arrays.asList("added 5 5", "removed 0 0", "changed 0 0"),
+                    recorder.events);
+        } finally {
+            model.endBatch();
+        }
+        assertEquals(Arrays.asList("added 5 5", "removed 0 0", "changed 0 0", "added 0 0"),
+                recorder.events);
+    }
+
+    /**
+     * Nested batches send their events when the outermost batch is ended.
+     */
+    @Test
+    public void testNestedBatch() {
+        model.beginBatch();
+        try {
+            model.beginBatch();
+            try {
+                fill(2);
+            } finally {
+                model.endBatch();
+            }
+            assertTrue(recorder.events.isEmpty());
+            fill(1);
+        } finally {
+            model.endBatch();
+        }
+        assertEquals(Arrays.asList("added 0 2"), recorder.events);
+    }
+
+    /**
+     * Ending a batch that was not started is rejected.
+     */
+    @Test(expected = IllegalStateException.class)
+    public void testEndWithoutBatch() {
+        model.endBatch();
+    }
+
+    /**
+     * Tasks are run in a batch.
+     */
+    @Test
+    public void testInvoke() {
+        model.invoke(new Runnable() {
+            @Override
+            public void run() {
+                fill(4);
+            }
+        });
+        assertEquals(Arrays.asList("added 0 3"), recorder.events);
+    }
+
+    /**
+     * Merging a reference gives the same result as before. The PropertyLines of the
+     * translation are kept, and only the lines that differ are removed or inserted.
+     */
+    @Test
+    public void testMerge() throws IOException {
+        model.read(new ByteArrayInputStream(Fixtures.bytes("merge-translation.properties")));
+        final PropertyModel reference = new PropertyModel();
+        reference.read(new ByteArrayInputStream(Fixtures.bytes("merge-reference.properties")));
+        final Map<String, PropertyLine> mBefore = new HashMap<String, PropertyLine>(
+                model.getResourceMap());
+        recorder.events.clear();
+
+        final Set<String> added = model.merge(reference);
+        assertEquals(new HashSet<String>(Arrays.asList("app.author", "new.key")), added);
+        assertEquals(Fixtures.lines("merge-lines.txt"), dump(model));
+
+        for (String key : new String[] {"app.title", "app.version", "menu.edit", "menu.file"}) {
+            assertSame(key, mBefore.get(key), model.getPropertyLine(key));
+        }
+        assertNull(model.getPropertyLine("obsolete.key"));
+
+        // Only obsolete and misplaced lines are removed, and only missing lines are added
+        assertEquals(4, recorder.count("removed"));
+        assertEquals(7, recorder.count("added"));
+
+        // Merging the same reference again changes nothing
+        recorder.events.clear();
+        assertTrue(model.merge(reference).isEmpty());
+        assertTrue(recorder.events.isEmpty());
+        assertEquals(Fixtures.lines("merge-lines.txt"), dump(model));
+    }
+
+    /**
+     * Adding or removing a single key of the reference only fires a single event.
+     */
+    @Test
+    public void testMergeSingleKey() throws IOException {
+        model.read(new ByteArrayInputStream("key.a=1\nkey.b=2\nkey.c=3\n".getBytes("ISO-8859-1")));
+        final PropertyModel reference = new PropertyModel();
+
+        reference.read(new ByteArrayInputStream(
+                "key.a=A\nkey.new=N\nkey.b=B\nkey.c=C\n".getBytes("ISO-8859-1")));
+        recorder.events.clear();
+        assertEquals(Collections.singleton("key.new"), model.merge(reference));
+        assertEquals(Arrays.asList("added 1 1"), recorder.events);
+        assertEquals("N", model.getPropertyLine("key.new").getValue());
+
+        reference.read(new ByteArrayInputStream("key.a=A\nkey.c=C\n".getBytes("ISO-8859-1")));
+        recorder.events.clear();
+        assertTrue(model.merge(reference).isEmpty());
+        assertEquals(Arrays.asList("removed 1 2"), recorder.events);
+        assertEquals(Arrays.asList(
+                Fixtures.property("key.a", "1"),
+                Fixtures.property("key.c", "3")
+                ), dump(model));
+    }
+
+    /**
+     * A three-way merge updates untranslated values, and classifies the keys by their
+     * changes since the base reference.
+     */
+    @Test
+    public void testThreeWayMerge() throws IOException {
+        final PropertyModel base = read("key.same=Same\nkey.todo=Old\nkey.done=Old\n"
+                + "key.gone=Gone\n");
+        final PropertyModel reference = read("key.same=Same\nkey.todo=New\nkey.done=New\n"
+                + "key.unknown=New\nkey.added=Added\n");
+        model.read(new ByteArrayInputStream(("key.same=Gleich\nkey.todo=Old\nkey.done=Alt\n"
+                + "key.unknown=Alt\nkey.gone=Weg\n").getBytes("ISO-8859-1")));
+        final PropertyLine todo = model.getPropertyLine("key.todo");
+
+        final MergeResult result = model.merge(base, reference);
+        assertEquals(Collections.singleton("key.added"), result.getAddedKeys());
+        assertEquals(Collections.singleton("key.done"), result.getChangedKeys());
+        assertEquals(Collections.singleton("key.gone"), result.getRemovedKeys());
+        assertEquals(MergeResult.Change.ADDED, result.getChange("key.added"));
+        assertEquals(MergeResult.Change.CHANGED, result.getChange("key.done"));
+        assertEquals(MergeResult.Change.REMOVED, result.getChange("key.gone"));
+        assertEquals(MergeResult.Change.UNCHANGED, result.getChange("key.same"));
+        assertEquals(MergeResult.Change.UNCHANGED, result.getChange("key.todo"));
+        assertEquals(MergeResult.Change.UNCHANGED, result.getChange("key.unknown"));
+
+        assertEquals(Arrays.asList(
+                Fixtures.property("key.same", "Gleich"),
+                Fixtures.property("key.todo", "New"),
+                Fixtures.property("key.done", "Alt"),
+                Fixtures.property("key.unknown", "Alt"),
+                Fixtures.property("key.added", "Added")
+                ), dump(model));
+        assertSame(todo, model.getPropertyLine("key.todo"));
+    }
+
+    /**
+     * Without a base reference, no translation is updated or classified as changed.
+     */
+    @Test
+    public void testThreeWayMergeWithoutBase() throws IOException {
+        final PropertyModel reference = read("key.same=Same\nkey.todo=New\nkey.added=Added\n");
+        model.read(new ByteArrayInputStream("key.same=Gleich\nkey.todo=Old\nkey.gone=Weg\n"
+                .getBytes("ISO-8859-1")));
+
+        final MergeResult result = model.merge(null, reference);
+        assertEquals(Collections.singleton("key.added"), result.getAddedKeys());
+        assertTrue(result.getChangedKeys().isEmpty());
+        assertEquals(Collections.singleton("key.gone"), result.getRemovedKeys());
+        assertEquals(Arrays.asList(
+                Fixtures.property("key.same", "Gleich"),
+                Fixtures.property("key.todo", "Old"),
+                Fixtures.property("key.added", "Added")
+                ), dump(model));
+    }
+
+    /**
+     * A line that was removed from a model does not notify the model any more.
+     */
+    @Test
+    public void testRemovedLine() {
+        final OwnerModel owner = new OwnerModel();
+        final PropertyLine removed = new PropertyLine("key.removed", "value");
+        final PropertyLine kept = new PropertyLine("key.kept", "value");
+        owner.addLine(removed);
+        owner.addLine(kept);
+        owner.removeLine(removed);
+
+        removed.setValue("changed");
+        kept.setValue("changed");
+        assertEquals(Arrays.<Line> asList(kept), owner.changed);
+    }
+
+    /**
+     * A line that was removed by a merge, and then added to another model, only notifies
+     * the other model.
+     */
+    @Test
+    public void testMovedLine() throws IOException {
+        final OwnerModel owner = new OwnerModel();
+        owner.read(new ByteArrayInputStream("key.a=1\nkey.gone=2\n".getBytes("ISO-8859-1")));
+        final PropertyLine gone = owner.getPropertyLine("key.gone");
+        owner.merge(read("key.a=A\n"));
+        assertNull(owner.getPropertyLine("key.gone"));
+
+        final OwnerModel other = new OwnerModel();
+        other.addLine(gone);
+
+        gone.setValue("changed");
+        assertTrue(owner.changed.isEmpty());
+        assertEquals(Arrays.<Line> asList(gone), other.changed);
+    }
+
+    /**
+     * Add PropertyLines to the end of the model.
+     *
+     * @param count
+     *            Number of lines to add
+     * @return List of the added lines
+     */
+    private List<PropertyLine> fill(int count) {
+        final List<PropertyLine> result = new ArrayList<PropertyLine>();
+        final int start = model.getSize();
+        for (int ix = 0; ix < count; ix++) {
+            final PropertyLine line = new PropertyLine("key." + (start + ix), "value");
+            model.addLine(line);
+            result.add(line);
+        }
+        return result;
+    }
+
+    /**
+     * Read a model from a String.
+     */
+    private static PropertyModel read(String content) throws IOException {
+        final PropertyModel result = new PropertyModel();
+        result.read(new ByteArrayInputStream(content.getBytes("ISO-8859-1")));
+        return result;
+    }
+
+    /**
+     * Dump all Lines of a model.
+     */
+    private static List<String> dump(PropertyModel model) {
+        final List<String> result = new ArrayList<String>();
+        for (Line line : model.getLines()) {
+            result.add(Fixtures.dump(line));
+        }
+        return result;
+    }
+
+    /**
+     * A PropertyModel that records the lines that notified it about a change.
+     */
+    private static class OwnerModel extends PropertyModel {
+        private final List<Line> changed = new ArrayList<Line>();
+
+        @Override
+        void lineChanged(Line line) {
+            changed.add(line);
+            super.lineChanged(line);
+        }
+    }
+
+    /**
+     * Records the ListDataEvents of a PropertyModel, and replays them on a copy of its
+     * content. The copy must match the model after every event.
+     */
+    private static class EventRecorder implements ListDataListener {
+        private final PropertyModel model;
+        private final List<Line> lCopy = new ArrayList<Line>();
+        private final List<String> events = new ArrayList<String>();
+
+        public EventRecorder(PropertyModel model) {
+            this.model = model;
+            for (int ix = 0; ix < model.getSize(); ix++) {
+                lCopy.add(model.getElementAt(ix));
+            }
+        }
+
+        @Override
+        public void intervalAdded(ListDataEvent e) {
+            events.add("added " + e.getIndex0() + " " + e.getIndex1());
+            for (int ix = e.getIndex0(); ix <= e.getIndex1(); ix++) {
+                lCopy.add(ix, model.getElementAt(ix));
+            }
+            assertCopy();
+        }
+
+        @Override
+        public void intervalRemoved(ListDataEvent e) {
+            events.add("removed " + e.getIndex0() + " " + e.getIndex1());
+            for (int ix = e.getIndex1(); ix >= e.getIndex0(); ix--) {
+                lCopy.remove(ix);
+            }
+            assertCopy();
+        }
+
+        @Override
+        public void contentsChanged(ListDataEvent e) {
+            events.add("changed " + e.getIndex0() + " " + e.getIndex1());
+            assertTrue(e.getIndex1() < model.getSize());
+            assertCopy();
+        }
+
+        /**
+         * Count the lines covered by all recorded events of a type.
+         */
+        public int count(String type) {
+            int result = 0;
+            for (String event : events) {
+                final String[] parts = event.split(" ");
+                if (parts[0].equals(type)) {
+                    result += Integer.parseInt(parts[2]) - Integer.parseInt(parts[1]) + 1;
+                }
+            }
+            return result;
+        }
+
+        private void assertCopy() {
+            assertEquals(lCopy.size(), model.getSize());
+            for (int ix = 0; ix < lCopy.size(); ix++) {
+                assertSame(lCopy.get(ix), model.getElementAt(ix));
+            }
+        }
+    }
+
+}
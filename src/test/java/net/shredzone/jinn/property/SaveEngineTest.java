@@ -0,0 +1,253 @@
+/**
+ * jinn - A property translation editor
+ *
+ * Copyright (C) 2009 Richard "Shred" Körber
+ *   http://jinn.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.shredzone.jinn.property;
+
+import static org.junit.Assert.*;
+
+import java.beans.PropertyChangeListener;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link SaveEngine}. The background thread is blocked by saving a model
+ * with a {@link TestLine} that waits until it is released, so further requests are kept
+ * pending.
+ *
+ * @author Richard "Shred" Körber
+ */
+public class SaveEngineTest {
+
+    private File dir;
+    private SaveEngine engine;
+    private CountDownLatch release;
+
+    @Before
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("jinn").toFile();
+        engine = new SaveEngine();
+        release = new CountDownLatch(1);
+    }
+
+    @After
+    public void teardown() {
+        release.countDown();
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    /**
+     * A pending save is superseded by a newer save of the same file. The file is only
+     * written once, with the newer content.
+     */
+    @Test
+    public void testSupersede() throws Exception {
+        final Future<File> blocker = block();
+
+        final File file = new File(dir, "test.properties");
+        final TestLine counter = new TestLine(null, false);
+        final PropertyModel model = new PropertyModel();
+        model.addLine(counter);
+        final PropertyLine line = new PropertyLine("key.a", "first");
+        model.addLine(line);
+        final Future<File> first = engine.save(model, file);
+
+        line.setValue("second");
+        final Future<File> second = engine.save(model, file);
+        assertSame(first, second);
+        assertFalse(first.isDone());
+
+        release.countDown();
+        blocker.get(10, TimeUnit.SECONDS);
+        assertEquals(file.getAbsoluteFile(), second.get(10, TimeUnit.SECONDS));
+        assertEquals(1, counter.count.get());
+
+        final PropertyModel saved = new PropertyModel();
+        saved.read(file);
+        assertEquals("second", saved.getPropertyLine("key.a").getValue());
+    }
+
+    /**
+     * A failed save leaves the original file intact, and does not leave a temporary file
+     * behind.
+     */
+    @Test
+    public void testFailure() throws Exception {
+        final File file = new File(dir, "test.properties");
+        final PropertyModel model = new PropertyModel();
+        model.addLine(new PropertyLine("key.a", "original"));
+        engine.save(model, file).get(10, TimeUnit.SECONDS);
+        final byte[] original = Files.readAllBytes(file.toPath());
+
+        model.getPropertyLine("key.a").setValue("changed");
+        model.addLine(new TestLine(null, true));
+        try {
+            engine.save(model, file).get(10, TimeUnit.SECONDS);
+            fail("save did not fail");
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof IOException);
+        }
+
+        assertArrayEquals(original, Files.readAllBytes(file.toPath()));
+        assertEquals(Arrays.asList("test.properties"), Arrays.asList(dir.list()));
+    }
+
+    /**
+     * The POSIX permissions of the saved file are kept.
+     */
+    @Test
+    public void testPermissions() throws Exception {
+        if (!FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            return;
+        }
+
+        final File file = new File(dir, "test.properties");
+        final PropertyModel model = new PropertyModel();
+        model.addLine(new PropertyLine("key.a", "original"));
+        engine.save(model, file).get(10, TimeUnit.SECONDS);
+
+        final Set<PosixFilePermission> perms = PosixFilePermissions.fromString("rw-rw-r--");
+        Files.setPosixFilePermissions(file.toPath(), perms);
+
+        model.getPropertyLine("key.a").setValue("changed");
+        engine.save(model, file).get(10, TimeUnit.SECONDS);
+        assertEquals(perms, Files.getPosixFilePermissions(file.toPath()));
+
+        final File copy = new File(dir, "copy.properties");
+        engine.saveCopy(model, copy).get(10, TimeUnit.SECONDS);
+        Files.setPosixFilePermissions(copy.toPath(), perms);
+        engine.saveCopy(model, copy).get(10, TimeUnit.SECONDS);
+        assertEquals(perms, Files.getPosixFilePermissions(copy.toPath()));
+    }
+
+    /**
+     * Discarding a file cancels a pending save, and deletes the file.
+     */
+    @Test
+    public void testDiscard() throws Exception {
+        final File file = new File(dir, "test.properties");
+        final PropertyModel model = new PropertyModel();
+        model.addLine(new PropertyLine("key.a", "original"));
+        engine.save(model, file).get(10, TimeUnit.SECONDS);
+        assertTrue(file.exists());
+
+        final Future<File> blocker = block();
+        model.getPropertyLine("key.a").setValue("changed");
+        final Future<File> pending = engine.save(model, file);
+        engine.discard(file);
+        assertTrue(pending.isCancelled());
+
+        release.countDown();
+        blocker.get(10, TimeUnit.SECONDS);
+        sync();
+        assertFalse(file.exists());
+
+        engine.discard(file);
+        sync();
+        assertFalse(file.exists());
+    }
+
+    /**
+     * Block the background thread until {@link #release} is counted down.
+     *
+     * @return Future of the blocking save request
+     */
+    private Future<File> block() throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        final PropertyModel model = new PropertyModel();
+        model.addLine(new TestLine(started, false));
+        final Future<File> result = engine.save(model, new File(dir, "blocker.properties"));
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        return result;
+    }
+
+    /**
+     * Wait until all requests that were submitted so far are completed.
+     */
+    private void sync() throws Exception {
+        engine.saveCopy(new PropertyModel(), new File(dir, "sync.properties")).get(10, TimeUnit.SECONDS);
+    }
+
+    /**
+     * A comment line that counts how often it was written. It can block until the test
+     * releases it, or fail.
+     */
+    private class TestLine implements Line {
+        private final CountDownLatch started;
+        private final CountDownLatch released = release;
+        private final boolean failing;
+        private final AtomicInteger count = new AtomicInteger();
+
+        public TestLine(CountDownLatch started, boolean failing) {
+            this.started = started;
+            this.failing = failing;
+        }
+
+        @Override
+        public void write(PropertiesWriter pw) throws IOException {
+            count.incrementAndGet();
+            if (started != null) {
+                started.countDown();
+                try {
+                    released.await();
+                } catch (InterruptedException ex) {
+                    throw new IOException("interrupted");
+                }
+            }
+            if (failing) {
+                throw new IOException("failed on purpose");
+            }
+            pw.write("# test line");
+            pw.newLine();
+        }
+
+        @Override
+        public Object clone() {
+            return this;
+        }
+
+        @Override
+        public void addPropertyChangeListener(PropertyChangeListener l) {
+            // never changes
+        }
+
+        @Override
+        public void removePropertyChangeListener(PropertyChangeListener l) {
+            // never changes
+        }
+    }
+
+}
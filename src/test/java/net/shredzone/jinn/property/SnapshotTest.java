@@ -0,0 +1,307 @@
+/**
+ * jinn - A property translation editor
+ *
+ * Copyright (C) 2009 Richard "Shred" Körber
+ *   http://jinn.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.shredzone.jinn.property;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link Snapshot}. A model is read from a file and written back by
+ * {@link PropertyModel#write(File)}. Unchanged lines must be copied byte by byte, while
+ * changed lines must be written like {@link PropertiesWriter} writes them.
+ *
+ * @author Richard "Shred" Körber
+ */
+public class SnapshotTest {
+
+    private static final String[] LINES = {
+        "# A comment\n",
+        "key.a = one\n",
+        "\n",
+        "key.b:two   \n",
+        "key.wrap = first \\\n",
+        "    second\n",
+        "key.escaped = caf\\u00e9\\n\n",
+        "key.c = three\n",
+    };
+
+    private File dir;
+    private File file;
+
+    @Before
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("jinn").toFile();
+        file = new File(dir, "test.properties");
+    }
+
+    @After
+    public void teardown() {
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    /**
+     * Saving an unchanged model gives the same bytes, and all lines are copied.
+     */
+    @Test
+    public void testUnchanged() throws IOException {
+        final byte[] data = bytes(LINES);
+        final PropertyModel model = read(data);
+
+        model.write(file);
+        assertArrayEquals(data, Files.readAllBytes(file.toPath()));
+        assertSource(model);
+
+        final File copy = new File(dir, "copy.properties");
+        model.write(copy);
+        assertArrayEquals(data, Files.readAllBytes(copy.toPath()));
+    }
+
+    /**
+     * A value that was changed in the middle of the file is written again, all other
+     * lines are copied.
+     */
+    @Test
+    public void testChangeMiddle() throws IOException {
+        final PropertyModel model = read(bytes(LINES));
+        final PropertyLine line = model.getPropertyLine("key.b");
+        line.setValue("changed");
+
+        model.write(file);
+        assertArrayEquals(concat(bytes(LINES[0], LINES[1], LINES[2]), encode(line),
+                bytes(LINES[4], LINES[5], LINES[6], LINES[7])),
+                Files.readAllBytes(file.toPath()));
+        assertSource(model);
+    }
+
+    /**
+     * A value that was changed at the end of the file is written again.
+     */
+    @Test
+    public void testChangeEnd() throws IOException {
+        final PropertyModel model = read(bytes(LINES));
+        final PropertyLine line = model.getPropertyLine("key.c");
+        line.setValue("changed");
+
+        model.write(file);
+        assertArrayEquals(concat(bytes(LINES[0], LINES[1], LINES[2], LINES[3], LINES[4],
+                LINES[5], LINES[6]), encode(line)),
+                Files.readAllBytes(file.toPath()));
+        assertSource(model);
+    }
+
+    /**
+     * Mixed line terminators are kept. If a removed line separated a CR from a following
+     * empty LF line, the empty line is not joined with the CR.
+     */
+    @Test
+    public void testMixedTerminators() throws IOException {
+        final String[] lines = {
+            "key.a = one\r",
+            "key.b = two\n",
+            "\n",
+            "key.c = three\r\n",
+            "key.d = four\r",
+            "\r\n",
+            "key.e = five\n",
+        };
+        final byte[] data = bytes(lines);
+        final PropertyModel model = read(data);
+
+        model.write(file);
+        assertArrayEquals(data, Files.readAllBytes(file.toPath()));
+
+        final PropertyLine line = model.getPropertyLine("key.d");
+        line.setValue("changed");
+        model.removeLine(model.getPropertyLine("key.b"));
+
+        model.write(file);
+        assertArrayEquals(concat(bytes(lines[0], "\r", lines[2], lines[3]), encode(line),
+                bytes(lines[5], lines[6])),
+                Files.readAllBytes(file.toPath()));
+        assertContent(model, file);
+    }
+
+    /**
+     * A file without a final line terminator is written unchanged. If a line is added,
+     * the former last line is terminated.
+     */
+    @Test
+    public void testNoFinalTerminator() throws IOException {
+        final byte[] data = bytes(LINES[0], LINES[1], "key.last = last");
+        final PropertyModel model = read(data);
+
+        model.write(file);
+        assertArrayEquals(data, Files.readAllBytes(file.toPath()));
+
+        final PropertyLine line = new PropertyLine("key.added", "added");
+        model.addLine(line);
+        model.write(file);
+        assertArrayEquals(concat(data, bytes(System.getProperty("line.separator")), encode(line)),
+                Files.readAllBytes(file.toPath()));
+        assertContent(model, file);
+    }
+
+    /**
+     * Two saves in a row. The second save copies the lines from the file written by the
+     * first save, including the line that was changed before the first save.
+     */
+    @Test
+    public void testSaveTwice() throws IOException {
+        final PropertyModel model = read(bytes(LINES));
+        final PropertyLine lineB = model.getPropertyLine("key.b");
+        lineB.setValue("changed");
+        model.write(file);
+        assertSource(model);
+
+        final PropertyLine lineC = model.getPropertyLine("key.c");
+        lineC.setValue("changed too");
+        model.write(file);
+        assertArrayEquals(concat(bytes(LINES[0], LINES[1], LINES[2]), encode(lineB),
+                bytes(LINES[4], LINES[5], LINES[6]), encode(lineC)),
+                Files.readAllBytes(file.toPath()));
+        assertSource(model);
+
+        final byte[] second = Files.readAllBytes(file.toPath());
+        model.write(file);
+        assertArrayEquals(second, Files.readAllBytes(file.toPath()));
+    }
+
+    /**
+     * Read a model from the test file.
+     *
+     * @param data
+     *            Content of the file
+     * @return PropertyModel that was read
+     */
+    private PropertyModel read(byte[] data) throws IOException {
+        write(file, data);
+        final PropertyModel model = new PropertyModel();
+        model.read(file);
+        return model;
+    }
+
+    /**
+     * Assert that all lines of a model are unchanged, and have the test file as source.
+     *
+     * @param model
+     *            PropertyModel to check
+     */
+    private void assertSource(PropertyModel model) {
+        for (Line line : model.getLines()) {
+            final SourceSpan span = ((AbstractLine) line).getSourceSpan();
+            assertNotNull(span);
+            assertTrue(span.getSource() instanceof SourceFile);
+            assertEquals(file, ((SourceFile) span.getSource()).getFile());
+        }
+    }
+
+    /**
+     * Assert that a file is read into the same lines that a model contains.
+     *
+     * @param model
+     *            PropertyModel with the expected lines
+     * @param file
+     *            File to read
+     */
+    private static void assertContent(PropertyModel model, File file) throws IOException {
+        final PropertyModel actual = new PropertyModel();
+        actual.read(file);
+        assertEquals(model.getSize(), actual.getSize());
+        for (int ix = 0; ix < model.getSize(); ix++) {
+            assertEquals(Fixtures.dump(model.getElementAt(ix)), Fixtures.dump(actual.getElementAt(ix)));
+        }
+    }
+
+    /**
+     * Encode a line like {@link PropertiesWriter} does with its default settings.
+     *
+     * @param line
+     *            Line to encode
+     * @return Encoded line
+     */
+    private static byte[] encode(Line line) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final PropertiesWriter writer = new PropertiesWriter(out);
+        writer.writeLine(line);
+        writer.flush();
+        return out.toByteArray();
+    }
+
+    /**
+     * Concatenate strings to ISO-8859-1 bytes.
+     *
+     * @param parts
+     *            Strings to concatenate
+     * @return Encoded bytes
+     */
+    private static byte[] bytes(String... parts) throws IOException {
+        final StringBuilder sb = new StringBuilder();
+        for (String part : parts) {
+            sb.append(part);
+        }
+        return sb.toString().getBytes("ISO-8859-1");
+    }
+
+    /**
+     * Concatenate byte arrays.
+     *
+     * @param parts
+     *            Byte arrays to concatenate
+     * @return Concatenated bytes
+     */
+    private static byte[] concat(byte[]... parts) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.write(part, 0, part.length);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Write bytes to a file.
+     *
+     * @param file
+     *            File to write to
+     * @param data
+     *            Content of the file
+     */
+    private static void write(File file, byte[] data) throws IOException {
+        final OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+    }
+
+}